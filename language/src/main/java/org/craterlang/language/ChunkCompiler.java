@@ -52,10 +52,12 @@ import org.craterlang.language.CraterParser.TableExpressionContext;
 import org.craterlang.language.CraterParser.VarContext;
 import org.craterlang.language.CraterParser.WhileStatementContext;
 import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterString;
 import org.graalvm.collections.EconomicMap;
 import org.graalvm.collections.EconomicSet;
 import org.graalvm.collections.Pair;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
@@ -410,7 +412,7 @@ public class ChunkCompiler {
             return Double.parseDouble(token.getText());
         }
 
-        private TruffleString parseShortString(Token token) {
+        private CraterString parseShortString(Token token) {
             var text = token.getText();
             var builder = TruffleStringBuilder.create(TruffleString.Encoding.BYTES);
 
@@ -515,9 +517,8 @@ public class ChunkCompiler {
                 }
             }
 
-            // TODO
-            return null;
-            // return language.getInternedString(builder.toStringUncached());
+            var bytes = builder.toStringUncached().copyToByteArrayUncached(TruffleString.Encoding.BYTES);
+            return language.getInternedString(bytes, 0, bytes.length);
         }
 
         private static void appendRawCodePoint(TruffleStringBuilder builder, int codePoint) {
@@ -554,9 +555,18 @@ public class ChunkCompiler {
             }
         }
 
-        private TruffleString parseLongString(Token token) {
-            // TODO
-            return null;
+        private CraterString parseLongString(Token token) {
+            var text = token.getText();
+            var level = text.indexOf('[', 1) - 1;
+            var content = text.substring(level + 2, text.length() - level - 2).replaceAll("\r\n|\n\r|\r", "\n");
+
+            // A newline immediately after the opening bracket is not part of the string.
+            if (content.startsWith("\n")) {
+                content = content.substring(1);
+            }
+
+            var bytes = content.getBytes(StandardCharsets.UTF_8);
+            return language.getInternedString(bytes, 0, bytes.length);
         }
 
         private Operand process(PrefixExpressionContext context) {
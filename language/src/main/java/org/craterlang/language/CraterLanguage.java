@@ -1,14 +1,26 @@
 package org.craterlang.language;
 
 import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.Option;
 import com.oracle.truffle.api.TruffleLanguage;
 import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.object.Shape;
 import com.oracle.truffle.api.utilities.AssumedValue;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionRootNode;
+import org.craterlang.language.nodes.builtins.string.StringGmatchIteratorNode;
+import org.craterlang.language.runtime.CraterFunction;
 import org.craterlang.language.runtime.CraterNil;
 import org.craterlang.language.runtime.CraterString;
 import org.craterlang.language.runtime.CraterTable;
 import org.craterlang.language.util.InternedSet;
+import org.graalvm.options.OptionCategory;
+import org.graalvm.options.OptionDescriptors;
+import org.graalvm.options.OptionKey;
+import org.graalvm.options.OptionValues;
+
+import java.nio.charset.StandardCharsets;
 
 @TruffleLanguage.Registration(id = "crater", name = "Crater", contextPolicy = TruffleLanguage.ContextPolicy.EXCLUSIVE)
 public final class CraterLanguage extends TruffleLanguage<CraterLanguage.Context> {
@@ -25,6 +37,16 @@ public final class CraterLanguage extends TruffleLanguage<CraterLanguage.Context
         private final AssumedValue<Object> stringMetatable = new AssumedValue<>(CraterNil.getInstance());
         private final AssumedValue<Object> functionMetatable = new AssumedValue<>(CraterNil.getInstance());
 
+        private final CraterTable globals;
+
+        private Context(CraterTable globals) {
+            this.globals = globals;
+        }
+
+        public CraterTable getGlobals() {
+            return globals;
+        }
+
         public Object getNilMetatable() {
             return nilMetatable.get();
         }
@@ -111,6 +133,7 @@ public final class CraterLanguage extends TruffleLanguage<CraterLanguage.Context
     private final CraterString weakValueModeString = getInternedString("v");
     private final CraterString weakKeyAndValueModeString = getInternedString("kv");
 
+    private final CraterString emptyString = getInternedString("");
     private final CraterString lowercaseLetterNString = getInternedString("n");
     private final CraterString poundSignString = getInternedString("#");
 
@@ -118,10 +141,40 @@ public final class CraterLanguage extends TruffleLanguage<CraterLanguage.Context
     private final CraterString infString = getInternedString("inf");
     private final CraterString negativeInfString = getInternedString("-inf");
 
+    // Strings that scripts create in large numbers, such as the characters of a string being scanned and the decimal
+    // forms of loop counters, are shared by every context instead of being allocated each time.
+    @CompilationFinal(dimensions = 1) private final CraterString[] singleByteStrings = createSingleByteStrings();
+    @CompilationFinal(dimensions = 1) private volatile CraterString[] smallIntegerStrings;
+
+    @Option(
+        help = "The number of non-negative integers, counting from 0, whose decimal strings are preallocated.",
+        category = OptionCategory.EXPERT
+    )
+    static final OptionKey<Integer> SmallIntegerStringCacheSize = new OptionKey<>(1024);
+
     private final InternedSet<CraterTable.Shape> internedTableShapes = new InternedSet<>(64);
+    private final CraterTable.Shape rootTableShape = CraterTable.createRootShape();
+
+    private final CraterTable.MemberLocationCache memberLocationCache = new CraterTable.MemberLocationCache();
+
+    // The shape of the iterators that string.gmatch returns, whose call target is created on first use.
+    private volatile Shape gmatchIteratorShape;
 
     @Override protected Context createContext(Env env) {
-        return new Context();
+        if (smallIntegerStrings == null) {
+            initializeSmallIntegerStrings(env.getOptions().get(SmallIntegerStringCacheSize));
+        }
+
+        return new Context(createTable());
+    }
+
+    @Override protected OptionDescriptors getOptionDescriptors() {
+        return new CraterLanguageOptionDescriptors();
+    }
+
+    // The cache of integer strings belongs to the language, so contexts may only share it if they agree on its size.
+    @Override protected boolean areOptionsCompatible(OptionValues firstOptions, OptionValues newOptions) {
+        return firstOptions.get(SmallIntegerStringCacheSize).equals(newOptions.get(SmallIntegerStringCacheSize));
     }
 
     @Override protected CallTarget parse(ParsingRequest request) throws Exception {
@@ -135,14 +188,56 @@ public final class CraterLanguage extends TruffleLanguage<CraterLanguage.Context
 
     @TruffleBoundary
     public CraterString getInternedString(String javaString) {
-        // TODO
-        return null;
+        var bytes = javaString.getBytes(StandardCharsets.UTF_8);
+        return getInternedString(bytes, 0, bytes.length);
+    }
+
+    private CraterString[] createSingleByteStrings() {
+        var strings = new CraterString[256];
+
+        for (var i = 0; i < strings.length; i++) {
+            strings[i] = getInternedString(new byte[]{(byte) i}, 0, 1);
+        }
+
+        return strings;
+    }
+
+    private synchronized void initializeSmallIntegerStrings(int size) {
+        if (smallIntegerStrings != null) {
+            return;
+        }
+
+        if (size < 0) {
+            throw new IllegalArgumentException("SmallIntegerStringCacheSize must not be negative");
+        }
+
+        var strings = new CraterString[size];
+
+        for (var i = 0; i < strings.length; i++) {
+            strings[i] = getInternedString(Integer.toString(i));
+        }
+
+        smallIntegerStrings = strings;
+    }
+
+    public CraterString getSingleByteString(byte value) {
+        return singleByteStrings[value & 0xff];
+    }
+
+    // The decimal string of value, or null if it isn't cached.
+    public CraterString getSmallIntegerString(long value) {
+        var strings = smallIntegerStrings;
+        return Long.compareUnsigned(value, strings.length) < 0 ? strings[(int) value] : null;
     }
 
     public CraterString getInternedString(CraterString string) {
         return internedStrings.intern(string);
     }
 
+    public CraterString getInternedString(byte[] bytes, int offset, int length) {
+        return internedStrings.intern(bytes, offset, length, CraterString.INTERNING_EQUIVALENCE);
+    }
+
     public CraterString getNilString() {
         return nilString;
     }
@@ -287,6 +382,10 @@ public final class CraterLanguage extends TruffleLanguage<CraterLanguage.Context
         return negativeInfString;
     }
 
+    public CraterString getEmptyString() {
+        return emptyString;
+    }
+
     public CraterString getLowercaseLetterNString() {
         return lowercaseLetterNString;
     }
@@ -299,8 +398,43 @@ public final class CraterLanguage extends TruffleLanguage<CraterLanguage.Context
         return internedTableShapes.intern(candidate);
     }
 
+    public int getInternedTableShapeCount() {
+        return internedTableShapes.size();
+    }
+
+    public CraterTable.MemberLocationCache getMemberLocationCache() {
+        return memberLocationCache;
+    }
+
+    public Shape getGmatchIteratorShape() {
+        var shape = gmatchIteratorShape;
+        return shape != null ? shape : createGmatchIteratorShape();
+    }
+
+    @TruffleBoundary
+    private synchronized Shape createGmatchIteratorShape() {
+        if (gmatchIteratorShape == null) {
+            var rootNode = new BuiltinFunctionRootNode(
+                this,
+                "string.gmatch.iterator",
+                "iterator",
+                StringGmatchIteratorNode.getFactory()::get
+            );
+
+            gmatchIteratorShape = Shape.newBuilder()
+                .layout(CraterFunction.class)
+                .dynamicType(rootNode.getCallTarget())
+                .build();
+        }
+
+        return gmatchIteratorShape;
+    }
+
     public CraterTable createTable() {
-        // TODO
-        return null;
+        return new CraterTable(rootTableShape);
+    }
+
+    public CraterTable createTable(int sequenceCapacity, int memberCapacity) {
+        return new CraterTable(rootTableShape, sequenceCapacity, memberCapacity);
     }
 }
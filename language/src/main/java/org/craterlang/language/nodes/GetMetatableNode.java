@@ -5,6 +5,7 @@ import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
 import com.oracle.truffle.api.dsl.GenerateUncached;
 import com.oracle.truffle.api.dsl.Specialization;
 import org.craterlang.language.CraterNode;
+import org.craterlang.language.runtime.CraterBuffer;
 import org.craterlang.language.runtime.CraterFunction;
 import org.craterlang.language.runtime.CraterNil;
 import org.craterlang.language.runtime.CraterTable;
@@ -57,7 +58,12 @@ public abstract class GetMetatableNode extends CraterNode {
     }
 
     @Specialization
-    Object doTable(CraterTable subject) {
-        return subject.getMetatable();
+    CraterNil doBuffer(CraterBuffer subject) {
+        return CraterNil.getInstance();
+    }
+
+    @Specialization
+    Object doTable(CraterTable subject, @Cached CraterTable.GetMetatableNode getTableMetatableNode) {
+        return getTableMetatableNode.execute(subject);
     }
 }
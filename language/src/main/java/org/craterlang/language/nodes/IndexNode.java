@@ -10,7 +10,9 @@ import com.oracle.truffle.api.profiles.ConditionProfile;
 import org.craterlang.language.CraterNode;
 import org.craterlang.language.CraterTypeSystem;
 import org.craterlang.language.nodes.values.AdjustToOneValueNode;
+import org.craterlang.language.runtime.CraterBuffer;
 import org.craterlang.language.runtime.CraterFunction;
+import org.craterlang.language.runtime.CraterMath;
 import org.craterlang.language.runtime.CraterNil;
 import org.craterlang.language.runtime.CraterTable;
 
@@ -18,7 +20,7 @@ import static org.craterlang.language.CraterTypeSystem.isNil;
 
 @GenerateUncached
 @GeneratePackagePrivate
-@ImportStatic(CraterTypeSystem.class)
+@ImportStatic({CraterTypeSystem.class, CraterMath.class, CraterTable.PrototypeChain.class})
 public abstract class IndexNode extends CraterNode {
     public abstract Object execute(Object receiver, Object key);
 
@@ -30,6 +32,16 @@ public abstract class IndexNode extends CraterNode {
         return IndexNodeGen.getUncached();
     }
 
+    @Specialization(guards = {"key == cachedKey", "chain != null", "chain.matches(receiver)"})
+    Object doCachedPrototypeChain(
+        CraterTable receiver,
+        Object key,
+        @Cached(value = "key", weak = true) Object cachedKey,
+        @Cached(value = "lookUp(receiver, cachedKey)", uncached = "null") CraterTable.PrototypeChain chain
+    ) {
+        return chain.read(receiver);
+    }
+
     @Specialization
     Object doExecute(
         CraterTable receiver,
@@ -47,6 +59,16 @@ public abstract class IndexNode extends CraterNode {
         }
     }
 
+    @Specialization
+    Object doBuffer(CraterBuffer receiver, long key, @Cached CraterBuffer.ReadElementNode readElementNode) {
+        return readElementNode.execute(receiver, key);
+    }
+
+    @Specialization(guards = "hasExactLongValue(key)")
+    Object doBufferFloatKey(CraterBuffer receiver, double key, @Cached CraterBuffer.ReadElementNode readElementNode) {
+        return readElementNode.execute(receiver, (long) key);
+    }
+
     @GenerateUncached
     static abstract class GetInTableNode extends CraterNode {
         abstract Object execute(Object receiver, Object key);
@@ -0,0 +1,98 @@
+package org.craterlang.language.nodes;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.values.AdjustToOneValueNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterString;
+import org.craterlang.language.runtime.CraterTable;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static java.lang.Double.isNaN;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// The < operator. Mixed integer and float operands are compared exactly, without converting the integer to a float.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class LessThanNode extends CraterNode {
+    public abstract boolean execute(Object lhs, Object rhs);
+
+    public static LessThanNode create() {
+        return LessThanNodeGen.create();
+    }
+
+    public static LessThanNode getUncached() {
+        return LessThanNodeGen.getUncached();
+    }
+
+    @Specialization
+    boolean doLongs(long lhs, long rhs) {
+        return lhs < rhs;
+    }
+
+    @Specialization
+    boolean doDoubles(double lhs, double rhs) {
+        return lhs < rhs;
+    }
+
+    @Specialization
+    boolean doLongDouble(long lhs, double rhs) {
+        if (isNaN(rhs) || rhs <= -0x1p63) {
+            return false;
+        }
+
+        return rhs >= 0x1p63 || lhs < (long) Math.ceil(rhs);
+    }
+
+    @Specialization
+    boolean doDoubleLong(double lhs, long rhs) {
+        if (isNaN(lhs) || lhs >= 0x1p63) {
+            return false;
+        }
+
+        return lhs < -0x1p63 || (long) Math.floor(lhs) < rhs;
+    }
+
+    @Specialization
+    boolean doStrings(CraterString lhs, CraterString rhs, @Cached CraterString.CompareNode compareNode) {
+        return compareNode.execute(lhs, rhs) < 0;
+    }
+
+    @Fallback
+    boolean doMetamethod(
+        Object lhs,
+        Object rhs,
+        @Cached GetMetatableNode getLhsMetatableNode,
+        @Cached GetMetatableNode getRhsMetatableNode,
+        @Cached CraterTable.RawGetNode getMetamethodNode,
+        @Cached InvokeNode metamethodInvokeNode,
+        @Cached AdjustToOneValueNode adjustToOneValueNode
+    ) {
+        var metamethod = getLtMetamethod(getLhsMetatableNode.execute(lhs), getMetamethodNode);
+
+        if (isNil(metamethod)) {
+            metamethod = getLtMetamethod(getRhsMetatableNode.execute(rhs), getMetamethodNode);
+        }
+
+        if (isNil(metamethod)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var result = adjustToOneValueNode.execute(metamethodInvokeNode.execute(metamethod, new Object[]{lhs, rhs}));
+        return !isNil(result) && !(result instanceof Boolean booleanResult && !booleanResult);
+    }
+
+    private Object getLtMetamethod(Object metatable, CraterTable.RawGetNode getMetamethodNode) {
+        if (metatable instanceof CraterTable table) {
+            return getMetamethodNode.execute(table, getLanguage().getLtMetamethodKey());
+        }
+        else {
+            return CraterNil.getInstance();
+        }
+    }
+}
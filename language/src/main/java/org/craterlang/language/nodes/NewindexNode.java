@@ -0,0 +1,152 @@
+package org.craterlang.language.nodes;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.ImportStatic;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.CraterTypeSystem;
+import org.craterlang.language.runtime.CraterBuffer;
+import org.craterlang.language.runtime.CraterFunction;
+import org.craterlang.language.runtime.CraterMath;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterTable;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+@GenerateUncached
+@GeneratePackagePrivate
+@ImportStatic({CraterTypeSystem.class, CraterMath.class})
+public abstract class NewindexNode extends CraterNode {
+    public abstract void execute(Object receiver, Object key, Object value);
+
+    public static NewindexNode create() {
+        return NewindexNodeGen.create();
+    }
+
+    public static NewindexNode getUncached() {
+        return NewindexNodeGen.getUncached();
+    }
+
+    @Specialization
+    void doTable(
+        CraterTable receiver,
+        Object key,
+        Object value,
+        @Cached CraterTable.RawGetNode rawGetNode,
+        @Cached("createCountingProfile()") ConditionProfile inTableProfile,
+        @Cached CraterTable.RawSetNode rawSetNode,
+        @Cached ThroughMetavalueNode throughMetavalueNode
+    ) {
+        if (inTableProfile.profile(!isNil(rawGetNode.execute(receiver, key)))) {
+            rawSetNode.execute(receiver, key, value);
+        }
+        else {
+            throughMetavalueNode.execute(receiver, key, value);
+        }
+    }
+
+    @Specialization
+    void doBuffer(
+        CraterBuffer receiver,
+        long key,
+        Object value,
+        @Cached CraterBuffer.WriteElementNode writeElementNode
+    ) {
+        writeElementNode.execute(receiver, key, value);
+    }
+
+    @Specialization(guards = "hasExactLongValue(key)")
+    void doBufferFloatKey(
+        CraterBuffer receiver,
+        double key,
+        Object value,
+        @Cached CraterBuffer.WriteElementNode writeElementNode
+    ) {
+        writeElementNode.execute(receiver, (long) key, value);
+    }
+
+    @Fallback
+    void doOther(Object receiver, Object key, Object value, @Cached ThroughMetavalueNode throughMetavalueNode) {
+        throughMetavalueNode.execute(receiver, key, value);
+    }
+
+    @GenerateUncached
+    static abstract class ThroughMetavalueNode extends CraterNode {
+        abstract void execute(Object receiver, Object key, Object value);
+
+        @Specialization
+        void doExecute(
+            Object receiver,
+            Object key,
+            Object value,
+            @Cached GetMetatableNode getMetatableNode,
+            @Cached ConditionProfile noMetatableProfile,
+            @Cached CraterTable.RawGetNode getMetavalueNode,
+            @Cached MetavalueDispatchNode metavalueDispatchNode
+        ) {
+            var metatable = getMetatableNode.execute(receiver);
+
+            Object metavalue;
+            if (noMetatableProfile.profile(!(metatable instanceof CraterTable))) {
+                metavalue = CraterNil.getInstance();
+            }
+            else {
+                metavalue = getMetavalueNode.execute(
+                    (CraterTable) metatable,
+                    getLanguage().getNewindexMetamethodKey()
+                );
+            }
+
+            metavalueDispatchNode.execute(receiver, key, value, metavalue);
+        }
+    }
+
+    @GenerateUncached
+    static abstract class MetavalueDispatchNode extends CraterNode {
+        abstract void execute(Object receiver, Object key, Object value, Object newindexMetavalue);
+
+        @Specialization
+        void doRawSet(
+            CraterTable receiver,
+            Object key,
+            Object value,
+            CraterNil metavalue,
+            @Cached CraterTable.RawSetNode rawSetNode
+        ) {
+            rawSetNode.execute(receiver, key, value);
+        }
+
+        @Specialization
+        void doNotIndexable(Object receiver, Object key, Object value, CraterNil metavalue) {
+            transferToInterpreter();
+            throw error("attempt to index a non-table value");
+        }
+
+        @Specialization
+        void doFunction(
+            Object receiver,
+            Object key,
+            Object value,
+            CraterFunction function,
+            @Cached CraterFunction.InvokeNode invokeNode
+        ) {
+            invokeNode.execute(function, new Object[]{receiver, key, value});
+        }
+
+        @Fallback
+        void doNestedNewindex(
+            Object receiver,
+            Object key,
+            Object value,
+            Object metavalue,
+            @Cached NewindexNode nestedNewindexNode
+        ) {
+            nestedNewindexNode.execute(metavalue, key, value);
+        }
+    }
+}
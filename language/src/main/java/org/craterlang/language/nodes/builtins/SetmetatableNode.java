@@ -0,0 +1,71 @@
+package org.craterlang.language.nodes.builtins;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class SetmetatableNode extends BuiltinFunctionBodyNode {
+    public static Supplier<SetmetatableNode> getFactory() {
+        return SetmetatableNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ApplyNode applyNode
+    ) {
+        if (argumentsLength < 2) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return applyNode.execute(arguments[argumentsStart], arguments[argumentsStart + 1]);
+    }
+
+    @GenerateUncached
+    static abstract class ApplyNode extends CraterNode {
+        abstract CraterTable execute(Object table, Object metatable);
+
+        @Specialization(guards = "table.getMetatable() == metatable")
+        CraterTable doUnchanged(CraterTable table, Object metatable) {
+            return table;
+        }
+
+        @Specialization(guards = "table.isFrozen()")
+        CraterTable doFrozen(CraterTable table, Object metatable) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        @Specialization
+        CraterTable doSetTable(CraterTable table, CraterTable metatable) {
+            table.setMetatable(metatable);
+            return table;
+        }
+
+        @Specialization
+        CraterTable doClear(CraterTable table, CraterNil metatable) {
+            table.setMetatable(metatable);
+            return table;
+        }
+
+        @Fallback
+        CraterTable doInvalid(Object table, Object metatable) {
+            transferToInterpreter();
+            throw error("");
+        }
+    }
+}
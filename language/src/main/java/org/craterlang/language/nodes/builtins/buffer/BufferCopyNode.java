@@ -0,0 +1,74 @@
+package org.craterlang.language.nodes.builtins.buffer;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterBuffer;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// buffer.copy(destination, position, source [, first [, last]]): copies elements first to last of source, by default
+// all of them, into destination starting at position, converting them if the element types differ. Copies between
+// buffers of the same element type are a single memory move.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class BufferCopyNode extends BuiltinFunctionBodyNode {
+    public static Supplier<BufferCopyNode> getFactory() {
+        return BufferCopyNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode positionForceIntoLongNode,
+        @Cached ForceIntoLongNode firstForceIntoLongNode,
+        @Cached ForceIntoLongNode lastForceIntoLongNode
+    ) {
+        if (argumentsLength < 3 || !(arguments[argumentsStart] instanceof CraterBuffer destination)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (!(arguments[argumentsStart + 2] instanceof CraterBuffer source)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var position = positionForceIntoLongNode.execute(arguments[argumentsStart + 1]);
+
+        var first = argumentsLength > 3 && !isNil(arguments[argumentsStart + 3])
+            ? firstForceIntoLongNode.execute(arguments[argumentsStart + 3])
+            : 1;
+
+        var last = argumentsLength > 4 && !isNil(arguments[argumentsStart + 4])
+            ? lastForceIntoLongNode.execute(arguments[argumentsStart + 4])
+            : source.getLength();
+
+        if (!source.isInBounds(first, last)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (first <= last && !destination.isInBounds(position, position + (last - first))) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (!destination.copyFrom(source, first, last, position)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return EMPTY_RESULTS;
+    }
+
+    private static final Object[] EMPTY_RESULTS = new Object[0];
+}
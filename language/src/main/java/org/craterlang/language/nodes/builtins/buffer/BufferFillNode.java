@@ -0,0 +1,57 @@
+package org.craterlang.language.nodes.builtins.buffer;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterBuffer;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// buffer.fill(buffer, value [, first [, last]]): sets elements first to last, by default all of them, to a number.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class BufferFillNode extends BuiltinFunctionBodyNode {
+    public static Supplier<BufferFillNode> getFactory() {
+        return BufferFillNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode firstForceIntoLongNode,
+        @Cached ForceIntoLongNode lastForceIntoLongNode
+    ) {
+        if (argumentsLength < 2 || !(arguments[argumentsStart] instanceof CraterBuffer buffer)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var value = arguments[argumentsStart + 1];
+
+        var first = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? firstForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : 1;
+
+        var last = argumentsLength > 3 && !isNil(arguments[argumentsStart + 3])
+            ? lastForceIntoLongNode.execute(arguments[argumentsStart + 3])
+            : buffer.getLength();
+
+        if (!buffer.isInBounds(first, last) || !CraterBuffer.isRepresentable(buffer.getElementType(), value)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        buffer.fill(first, last, value);
+        return EMPTY_RESULTS;
+    }
+
+    private static final Object[] EMPTY_RESULTS = new Object[0];
+}
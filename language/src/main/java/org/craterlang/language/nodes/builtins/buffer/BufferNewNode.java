@@ -0,0 +1,47 @@
+package org.craterlang.language.nodes.builtins.buffer;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterBuffer;
+import org.craterlang.language.runtime.CraterString;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+
+// buffer.new(type, length): creates a zero-filled buffer of length elements of the named type, one of "int8",
+// "int16", "int32", "int64", "float32" and "float64".
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class BufferNewNode extends BuiltinFunctionBodyNode {
+    public static Supplier<BufferNewNode> getFactory() {
+        return BufferNewNodeGen::create;
+    }
+
+    @Specialization
+    CraterBuffer doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode lengthForceIntoLongNode
+    ) {
+        if (argumentsLength < 2 || !(arguments[argumentsStart] instanceof CraterString typeName)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var elementType = CraterBuffer.ElementType.fromName(typeName);
+        var length = lengthForceIntoLongNode.execute(arguments[argumentsStart + 1]);
+
+        if (elementType == null || length < 0 || length > CraterBuffer.MAX_LENGTH) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return CraterBuffer.allocate(elementType, length);
+    }
+}
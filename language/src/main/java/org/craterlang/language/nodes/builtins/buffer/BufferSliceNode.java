@@ -0,0 +1,52 @@
+package org.craterlang.language.nodes.builtins.buffer;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterBuffer;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// buffer.slice(buffer [, first [, last]]): creates a new buffer with a copy of elements first to last.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class BufferSliceNode extends BuiltinFunctionBodyNode {
+    public static Supplier<BufferSliceNode> getFactory() {
+        return BufferSliceNodeGen::create;
+    }
+
+    @Specialization
+    CraterBuffer doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode firstForceIntoLongNode,
+        @Cached ForceIntoLongNode lastForceIntoLongNode
+    ) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterBuffer buffer)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var first = argumentsLength > 1 && !isNil(arguments[argumentsStart + 1])
+            ? firstForceIntoLongNode.execute(arguments[argumentsStart + 1])
+            : 1;
+
+        var last = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? lastForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : buffer.getLength();
+
+        if (!buffer.isInBounds(first, last)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return buffer.slice(first, last);
+    }
+}
@@ -0,0 +1,72 @@
+package org.craterlang.language.nodes.builtins.buffer;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterBuffer;
+import org.craterlang.language.runtime.CraterString;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// buffer.view(buffer [, first [, last [, type]]]): creates a buffer that shares the memory of elements first to last,
+// without copying them. Given a type, the memory is reinterpreted as elements of that type.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class BufferViewNode extends BuiltinFunctionBodyNode {
+    public static Supplier<BufferViewNode> getFactory() {
+        return BufferViewNodeGen::create;
+    }
+
+    @Specialization
+    CraterBuffer doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode firstForceIntoLongNode,
+        @Cached ForceIntoLongNode lastForceIntoLongNode
+    ) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterBuffer buffer)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var first = argumentsLength > 1 && !isNil(arguments[argumentsStart + 1])
+            ? firstForceIntoLongNode.execute(arguments[argumentsStart + 1])
+            : 1;
+
+        var last = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? lastForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : buffer.getLength();
+
+        var elementType = buffer.getElementType();
+
+        if (argumentsLength > 3 && !isNil(arguments[argumentsStart + 3])) {
+            if (!(arguments[argumentsStart + 3] instanceof CraterString typeName)) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            elementType = CraterBuffer.ElementType.fromName(typeName);
+        }
+
+        if (elementType == null || !buffer.isInBounds(first, last)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var view = buffer.view(first, last, elementType);
+
+        if (view == null) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return view;
+    }
+}
@@ -0,0 +1,54 @@
+package org.craterlang.language.nodes.builtins.string;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterString;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+
+// string.char(...): the string whose bytes are the arguments. Single bytes come from the language's shared strings, so
+// that converting a stream of bytes one at a time doesn't allocate.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class StringCharNode extends BuiltinFunctionBodyNode {
+    public static Supplier<StringCharNode> getFactory() {
+        return StringCharNodeGen::create;
+    }
+
+    @Specialization
+    CraterString doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode forceIntoLongNode,
+        @Cached ConditionProfile singleByteProfile
+    ) {
+        if (singleByteProfile.profile(argumentsLength == 1)) {
+            return getLanguage().getSingleByteString(toByte(forceIntoLongNode.execute(arguments[argumentsStart])));
+        }
+
+        var bytes = new byte[argumentsLength];
+
+        for (var i = 0; i < argumentsLength; i++) {
+            bytes[i] = toByte(forceIntoLongNode.execute(arguments[argumentsStart + i]));
+        }
+
+        return CraterString.fromBytes(bytes, 0, bytes.length);
+    }
+
+    private byte toByte(long value) {
+        if (Long.compareUnsigned(value, 256) >= 0) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return (byte) value;
+    }
+}
@@ -0,0 +1,95 @@
+package org.craterlang.language.nodes.builtins.string;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterPattern;
+import org.craterlang.language.runtime.CraterString;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// string.find(s, pattern [, init [, plain]]): the positions of the first match of pattern in s at or after byte init,
+// followed by its captures. Patterns without special characters are searched for as they are, as are all patterns
+// when plain is true.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class StringFindNode extends BuiltinFunctionBodyNode {
+    public static Supplier<StringFindNode> getFactory() {
+        return StringFindNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached CraterString.LengthNode lengthNode,
+        @Cached ForceIntoLongNode initForceIntoLongNode,
+        @Cached CraterPattern.CompileNode compileNode,
+        @Cached CraterPattern.GetCaptureNode getCaptureNode
+    ) {
+        if (argumentsLength < 2 || !(arguments[argumentsStart] instanceof CraterString string)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (!(arguments[argumentsStart + 1] instanceof CraterString patternString)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        long length = lengthNode.execute(string);
+
+        var init = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? initForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : 1;
+
+        if (init < 0) {
+            init = Math.max(length + init + 1, 1);
+        }
+        else if (init == 0) {
+            init = 1;
+        }
+
+        if (init > length + 1) {
+            return CraterNil.getInstance();
+        }
+
+        var plainArgument = argumentsLength > 3 ? arguments[argumentsStart + 3] : CraterNil.getInstance();
+        var plain = !isNil(plainArgument) && !(plainArgument instanceof Boolean booleanPlain && !booleanPlain);
+        var pattern = compileNode.execute(patternString, plain, true);
+
+        if (pattern == null) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var matcher = pattern.matcher(string);
+
+        if (!matcher.find((int) init - 1)) {
+            if (matcher.isTooComplex()) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            return CraterNil.getInstance();
+        }
+
+        var results = new Object[2 + matcher.getCaptureCount()];
+        results[0] = (long) matcher.getMatchStart() + 1;
+        results[1] = (long) matcher.getMatchEnd();
+
+        for (var i = 2; i < results.length; i++) {
+            results[i] = getCaptureNode.execute(matcher, i - 2);
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,63 @@
+package org.craterlang.language.nodes.builtins.string;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.library.CachedLibrary;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterFunction;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterPattern;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+
+// The body of the iterators that string.gmatch returns. Each call finds the next match with the matcher held by the
+// iterator, which is the callee just before the arguments.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class StringGmatchIteratorNode extends BuiltinFunctionBodyNode {
+    static final Object MATCHER_KEY = new Object();
+
+    public static Supplier<StringGmatchIteratorNode> getFactory() {
+        return StringGmatchIteratorNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @CachedLibrary(limit = "3") DynamicObjectLibrary functions,
+        @Cached CraterPattern.GetCaptureNode getCaptureNode,
+        @Cached ConditionProfile singleResultProfile
+    ) {
+        var iterator = (CraterFunction) arguments[argumentsStart - 1];
+        var matcher = (CraterPattern.Matcher) functions.getOrDefault(iterator, MATCHER_KEY, null);
+
+        if (!matcher.findNext()) {
+            if (matcher.isTooComplex()) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            return CraterNil.getInstance();
+        }
+
+        if (singleResultProfile.profile(matcher.getResultCount() == 1)) {
+            return getCaptureNode.execute(matcher, 0);
+        }
+
+        var results = new Object[matcher.getResultCount()];
+
+        for (var i = 0; i < results.length; i++) {
+            results[i] = getCaptureNode.execute(matcher, i);
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,82 @@
+package org.craterlang.language.nodes.builtins.string;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.library.CachedLibrary;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+import com.oracle.truffle.api.object.Shape;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterFunction;
+import org.craterlang.language.runtime.CraterPattern;
+import org.craterlang.language.runtime.CraterString;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// string.gmatch(s, pattern [, init]): an iterator over the successive matches of pattern in s from byte init onwards,
+// which returns the captures of each match, or the whole match if pattern has no captures. The iterator holds its
+// matcher, so that the pattern is compiled and the subject flattened only once.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class StringGmatchNode extends BuiltinFunctionBodyNode {
+    public static Supplier<StringGmatchNode> getFactory() {
+        return StringGmatchNodeGen::create;
+    }
+
+    @Specialization
+    CraterFunction doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached CraterString.LengthNode lengthNode,
+        @Cached ForceIntoLongNode initForceIntoLongNode,
+        @Cached CraterPattern.CompileNode compileNode,
+        @Cached("getLanguage().getGmatchIteratorShape()") Shape iteratorShape,
+        @CachedLibrary(limit = "3") DynamicObjectLibrary functions
+    ) {
+        if (argumentsLength < 2 || !(arguments[argumentsStart] instanceof CraterString string)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (!(arguments[argumentsStart + 1] instanceof CraterString patternString)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        long length = lengthNode.execute(string);
+
+        var init = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? initForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : 1;
+
+        if (init < 0) {
+            init = Math.max(length + init + 1, 1);
+        }
+        else if (init == 0) {
+            init = 1;
+        }
+        else if (init > length + 1) {
+            init = length + 1;
+        }
+
+        var pattern = compileNode.execute(patternString, false, false);
+
+        if (pattern == null) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var matcher = pattern.matcher(string);
+        matcher.setNextStart((int) init - 1);
+
+        var iterator = new CraterFunction(iteratorShape);
+        functions.put(iterator, StringGmatchIteratorNode.MATCHER_KEY, matcher);
+        return iterator;
+    }
+}
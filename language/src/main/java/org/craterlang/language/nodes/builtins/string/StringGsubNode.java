@@ -0,0 +1,208 @@
+package org.craterlang.language.nodes.builtins.string;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.IndexNode;
+import org.craterlang.language.nodes.InvokeNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.nodes.values.AdjustToOneValueNode;
+import org.craterlang.language.runtime.CraterFunction;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterPattern;
+import org.craterlang.language.runtime.CraterString;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// string.gsub(s, pattern, repl [, n]): s with its first n matches of pattern, or all of them, replaced by repl, and the
+// number of replacements. The result is written into a single array; s itself is returned if nothing was replaced.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class StringGsubNode extends BuiltinFunctionBodyNode {
+    public static Supplier<StringGsubNode> getFactory() {
+        return StringGsubNodeGen::create;
+    }
+
+    @Specialization
+    Object[] doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached CraterString.LengthNode lengthNode,
+        @Cached ForceIntoLongNode maxCountForceIntoLongNode,
+        @Cached CraterPattern.CompileNode compileNode,
+        @Cached SubstituteNode substituteNode
+    ) {
+        if (argumentsLength < 3 || !(arguments[argumentsStart] instanceof CraterString string)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (!(arguments[argumentsStart + 1] instanceof CraterString patternString)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var maxCount = argumentsLength > 3 && !isNil(arguments[argumentsStart + 3])
+            ? maxCountForceIntoLongNode.execute(arguments[argumentsStart + 3])
+            : (long) lengthNode.execute(string) + 1;
+
+        var pattern = compileNode.execute(patternString, false, true);
+
+        if (pattern == null) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var matcher = pattern.matcher(string);
+        var count = substituteNode.execute(matcher, arguments[argumentsStart + 2], maxCount);
+
+        if (matcher.isTooComplex()) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return new Object[]{matcher.finishSubstitution(), count};
+    }
+
+    // String replacements are expanded by the matcher in a single loop over the subject. Tables and functions are
+    // consulted once per match, with the first capture as the key or the captures as the arguments.
+    @GenerateUncached
+    static abstract class SubstituteNode extends CraterNode {
+        abstract long execute(CraterPattern.Matcher matcher, Object replacement, long maxCount);
+
+        @Specialization
+        long doString(CraterPattern.Matcher matcher, CraterString replacement, long maxCount) {
+            return substituteAll(matcher, replacement, maxCount);
+        }
+
+        @Specialization
+        long doLong(
+            CraterPattern.Matcher matcher,
+            long replacement,
+            long maxCount,
+            @Cached CraterString.FromLongNode fromLongNode
+        ) {
+            return substituteAll(matcher, fromLongNode.execute(replacement), maxCount);
+        }
+
+        @Specialization
+        long doDouble(
+            CraterPattern.Matcher matcher,
+            double replacement,
+            long maxCount,
+            @Cached CraterString.FromDoubleNode fromDoubleNode
+        ) {
+            return substituteAll(matcher, fromDoubleNode.execute(replacement), maxCount);
+        }
+
+        @Specialization
+        long doTable(
+            CraterPattern.Matcher matcher,
+            CraterTable replacement,
+            long maxCount,
+            @Cached CraterPattern.GetCaptureNode getCaptureNode,
+            @Cached IndexNode indexNode,
+            @Cached AppendValueNode appendValueNode
+        ) {
+            var count = 0L;
+
+            while (count < maxCount && matcher.findNext()) {
+                count++;
+                appendValueNode.execute(matcher, indexNode.execute(replacement, getCaptureNode.execute(matcher, 0)));
+            }
+
+            return count;
+        }
+
+        @Specialization
+        long doFunction(
+            CraterPattern.Matcher matcher,
+            CraterFunction replacement,
+            long maxCount,
+            @Cached CraterPattern.GetCaptureNode getCaptureNode,
+            @Cached InvokeNode invokeNode,
+            @Cached AdjustToOneValueNode adjustToOneValueNode,
+            @Cached AppendValueNode appendValueNode
+        ) {
+            var count = 0L;
+
+            while (count < maxCount && matcher.findNext()) {
+                count++;
+                var captures = new Object[matcher.getResultCount()];
+
+                for (var i = 0; i < captures.length; i++) {
+                    captures[i] = getCaptureNode.execute(matcher, i);
+                }
+
+                var value = adjustToOneValueNode.execute(invokeNode.execute(replacement, captures));
+                appendValueNode.execute(matcher, value);
+            }
+
+            return count;
+        }
+
+        @Fallback
+        long doOther(CraterPattern.Matcher matcher, Object replacement, long maxCount) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        private long substituteAll(CraterPattern.Matcher matcher, CraterString replacement, long maxCount) {
+            var count = matcher.substituteAll(replacement, maxCount);
+
+            if (count < 0) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            return count;
+        }
+    }
+
+    // A value looked up or returned for a match replaces it if it is a string or a number, and keeps it as it is if it
+    // is false or nil.
+    @GenerateUncached
+    static abstract class AppendValueNode extends CraterNode {
+        abstract void execute(CraterPattern.Matcher matcher, Object value);
+
+        @Specialization
+        void doString(CraterPattern.Matcher matcher, CraterString value) {
+            matcher.appendReplacement(value);
+        }
+
+        @Specialization
+        void doLong(CraterPattern.Matcher matcher, long value, @Cached CraterString.FromLongNode fromLongNode) {
+            matcher.appendReplacement(fromLongNode.execute(value));
+        }
+
+        @Specialization
+        void doDouble(CraterPattern.Matcher matcher, double value, @Cached CraterString.FromDoubleNode fromDoubleNode) {
+            matcher.appendReplacement(fromDoubleNode.execute(value));
+        }
+
+        @Specialization
+        void doNil(CraterPattern.Matcher matcher, CraterNil value) {
+            matcher.appendMatch();
+        }
+
+        @Specialization(guards = "!value")
+        void doFalse(CraterPattern.Matcher matcher, boolean value) {
+            matcher.appendMatch();
+        }
+
+        @Fallback
+        void doOther(CraterPattern.Matcher matcher, Object value) {
+            transferToInterpreter();
+            throw error("");
+        }
+    }
+}
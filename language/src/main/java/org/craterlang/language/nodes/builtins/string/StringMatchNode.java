@@ -0,0 +1,96 @@
+package org.craterlang.language.nodes.builtins.string;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterPattern;
+import org.craterlang.language.runtime.CraterString;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// string.match(s, pattern [, init]): the captures of the first match of pattern in s at or after byte init, or the
+// whole match if pattern has no captures.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class StringMatchNode extends BuiltinFunctionBodyNode {
+    public static Supplier<StringMatchNode> getFactory() {
+        return StringMatchNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached CraterString.LengthNode lengthNode,
+        @Cached ForceIntoLongNode initForceIntoLongNode,
+        @Cached CraterPattern.CompileNode compileNode,
+        @Cached CraterPattern.GetCaptureNode getCaptureNode,
+        @Cached ConditionProfile singleResultProfile
+    ) {
+        if (argumentsLength < 2 || !(arguments[argumentsStart] instanceof CraterString string)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (!(arguments[argumentsStart + 1] instanceof CraterString patternString)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        long length = lengthNode.execute(string);
+
+        var init = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? initForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : 1;
+
+        if (init < 0) {
+            init = Math.max(length + init + 1, 1);
+        }
+        else if (init == 0) {
+            init = 1;
+        }
+
+        if (init > length + 1) {
+            return CraterNil.getInstance();
+        }
+
+        var pattern = compileNode.execute(patternString, false, true);
+
+        if (pattern == null) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var matcher = pattern.matcher(string);
+
+        if (!matcher.find((int) init - 1)) {
+            if (matcher.isTooComplex()) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            return CraterNil.getInstance();
+        }
+
+        if (singleResultProfile.profile(matcher.getResultCount() == 1)) {
+            return getCaptureNode.execute(matcher, 0);
+        }
+
+        var results = new Object[matcher.getResultCount()];
+
+        for (var i = 0; i < results.length; i++) {
+            results[i] = getCaptureNode.execute(matcher, i);
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,67 @@
+package org.craterlang.language.nodes.builtins.string;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterString;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// string.sub(s, i [, j]): the substring from byte i to byte j, inclusive, where negative positions count from the end.
+// The result shares the bytes of s unless it is short.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class StringSubNode extends BuiltinFunctionBodyNode {
+    public static Supplier<StringSubNode> getFactory() {
+        return StringSubNodeGen::create;
+    }
+
+    @Specialization
+    CraterString doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached CraterString.LengthNode lengthNode,
+        @Cached ForceIntoLongNode startForceIntoLongNode,
+        @Cached ForceIntoLongNode endForceIntoLongNode,
+        @Cached CraterString.SubstringNode substringNode
+    ) {
+        if (argumentsLength < 2 || !(arguments[argumentsStart] instanceof CraterString string)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        long length = lengthNode.execute(string);
+        var start = startForceIntoLongNode.execute(arguments[argumentsStart + 1]);
+
+        var end = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? endForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : -1;
+
+        if (start < 0) {
+            start = Math.max(length + start + 1, 1);
+        }
+        else if (start == 0) {
+            start = 1;
+        }
+
+        if (end < 0) {
+            end = length + end + 1;
+        }
+        else if (end > length) {
+            end = length;
+        }
+
+        if (start > end) {
+            return getLanguage().getEmptyString();
+        }
+
+        return substringNode.execute(string, (int) start - 1, (int) end);
+    }
+}
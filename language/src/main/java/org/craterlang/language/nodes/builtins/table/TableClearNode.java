@@ -0,0 +1,38 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+
+// table.clear(t), as in LuaJIT: removes every entry of t while keeping its metatable and allocated storage.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableClearNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableClearNode> getFactory() {
+        return TableClearNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(Object[] arguments, int argumentsStart, int argumentsLength) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterTable table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (table.isFrozen()) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        table.clear();
+        return EMPTY_RESULTS;
+    }
+
+    private static final Object[] EMPTY_RESULTS = new Object[0];
+}
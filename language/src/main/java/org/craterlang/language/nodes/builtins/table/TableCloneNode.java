@@ -0,0 +1,31 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+
+// table.clone(t): a shallow copy of t, including its metatable, whose storage is copied only once either table is
+// written.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableCloneNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableCloneNode> getFactory() {
+        return TableCloneNodeGen::create;
+    }
+
+    @Specialization
+    CraterTable doExecute(Object[] arguments, int argumentsStart, int argumentsLength) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterTable table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return table.cloneTable();
+    }
+}
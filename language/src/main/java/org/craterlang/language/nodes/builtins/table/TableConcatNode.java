@@ -0,0 +1,109 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.IndexNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterString;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableConcatNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableConcatNode> getFactory() {
+        return TableConcatNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ToStringPartNode separatorToStringPartNode,
+        @Cached ForceIntoLongNode firstForceIntoLongNode,
+        @Cached ForceIntoLongNode lastForceIntoLongNode,
+        @Cached CraterTable.GetMetatableNode getMetatableNode,
+        @Cached TableLengthNode tableLengthNode,
+        @Cached ConditionProfile hasMetatableProfile,
+        @Cached CraterTable.RawGetNode rawGetNode,
+        @Cached IndexNode indexNode,
+        @Cached ToStringPartNode elementToStringPartNode,
+        @Cached CraterString.JoinNode joinNode
+    ) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterTable table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var separator = argumentsLength > 1 && !isNil(arguments[argumentsStart + 1])
+            ? separatorToStringPartNode.execute(arguments[argumentsStart + 1])
+            : getLanguage().getEmptyString();
+
+        var first = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? firstForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : 1;
+
+        var metatable = getMetatableNode.execute(table);
+        var hasMetatable = hasMetatableProfile.profile(metatable instanceof CraterTable);
+
+        var last = argumentsLength > 3 && !isNil(arguments[argumentsStart + 3])
+            ? lastForceIntoLongNode.execute(arguments[argumentsStart + 3])
+            : tableLengthNode.execute(table, metatable);
+
+        if (first > last) {
+            return getLanguage().getEmptyString();
+        }
+
+        if (last - first < 0 || last - first >= Integer.MAX_VALUE) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var parts = new CraterString[(int) (last - first + 1)];
+
+        for (var i = 0; i < parts.length; i++) {
+            var element = hasMetatable ? indexNode.execute(table, first + i) : rawGetNode.execute(table, first + i);
+            parts[i] = elementToStringPartNode.execute(element);
+        }
+
+        return joinNode.execute(parts, separator);
+    }
+
+    // Only strings and numbers may be concatenated; numbers are converted as by the concatenation operator.
+    @GenerateUncached
+    static abstract class ToStringPartNode extends CraterNode {
+        abstract CraterString execute(Object value);
+
+        @Specialization
+        CraterString doString(CraterString value) {
+            return value;
+        }
+
+        @Specialization
+        CraterString doLong(long value, @Cached CraterString.FromLongNode fromLongNode) {
+            return fromLongNode.execute(value);
+        }
+
+        @Specialization
+        CraterString doDouble(double value, @Cached CraterString.FromDoubleNode fromDoubleNode) {
+            return fromDoubleNode.execute(value);
+        }
+
+        @Fallback
+        CraterString doOther(Object value) {
+            transferToInterpreter();
+            throw error("");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+
+// table.freeze(t): makes t and every table reachable from it immutable, and returns t.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableFreezeNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableFreezeNode> getFactory() {
+        return TableFreezeNodeGen::create;
+    }
+
+    @Specialization
+    CraterTable doExecute(Object[] arguments, int argumentsStart, int argumentsLength) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterTable table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (!table.isFrozen() && !CraterTable.freeze(table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return table;
+    }
+}
@@ -0,0 +1,100 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.IndexNode;
+import org.craterlang.language.nodes.NewindexNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableInsertNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableInsertNode> getFactory() {
+        return TableInsertNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached CraterTable.GetMetatableNode getMetatableNode,
+        @Cached TableLengthNode tableLengthNode,
+        @Cached ForceIntoLongNode forceIntoLongNode,
+        @Cached InsertNode insertNode
+    ) {
+        var hasValidArgumentCount = argumentsLength == 2 || argumentsLength == 3;
+
+        if (!hasValidArgumentCount || !(arguments[argumentsStart] instanceof CraterTable table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var metatable = getMetatableNode.execute(table);
+        var length = tableLengthNode.execute(table, metatable);
+
+        if (argumentsLength == 2) {
+            insertNode.execute(table, metatable, length, length + 1, arguments[argumentsStart + 1]);
+        }
+        else {
+            var position = forceIntoLongNode.execute(arguments[argumentsStart + 1]);
+
+            if (Long.compareUnsigned(position - 1, length + 1) >= 0) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            insertNode.execute(table, metatable, length, position, arguments[argumentsStart + 2]);
+        }
+
+        return EMPTY_RESULTS;
+    }
+
+    @GenerateUncached
+    static abstract class InsertNode extends CraterNode {
+        abstract void execute(CraterTable table, Object metatable, long length, long position, Object value);
+
+        @Specialization
+        void doRaw(
+            CraterTable table,
+            CraterNil metatable,
+            long length,
+            long position,
+            Object value,
+            @Cached CraterTable.SequenceInsertNode sequenceInsertNode
+        ) {
+            sequenceInsertNode.execute(table, position, value);
+        }
+
+        @Fallback
+        void doMetatable(CraterTable table, Object metatable, long length, long position, Object value) {
+            insertWithMetamethods(table, length, position, value);
+        }
+
+        @TruffleBoundary
+        private static void insertWithMetamethods(CraterTable table, long length, long position, Object value) {
+            var indexNode = IndexNode.getUncached();
+            var newindexNode = NewindexNode.getUncached();
+
+            for (var i = length + 1; i > position; i--) {
+                newindexNode.execute(table, i, indexNode.execute(table, i - 1));
+            }
+
+            newindexNode.execute(table, position, value);
+        }
+    }
+
+    private static final Object[] EMPTY_RESULTS = new Object[0];
+}
@@ -0,0 +1,47 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.InvokeNode;
+import org.craterlang.language.nodes.values.AdjustToOneValueNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterTable;
+
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// The length of a table argument of the table library, which respects __len as the length operator does.
+@GenerateUncached
+abstract class TableLengthNode extends CraterNode {
+    abstract long execute(CraterTable table, Object metatable);
+
+    @Specialization
+    long doRaw(CraterTable table, CraterNil metatable, @Cached CraterTable.RawLengthNode rawLengthNode) {
+        return rawLengthNode.execute(table);
+    }
+
+    @Fallback
+    long doMetatable(
+        CraterTable table,
+        Object metatable,
+        @Cached CraterTable.RawGetNode getMetamethodNode,
+        @Cached ConditionProfile hasMetamethodProfile,
+        @Cached InvokeNode metamethodInvokeNode,
+        @Cached AdjustToOneValueNode adjustToOneValueNode,
+        @Cached ForceIntoLongNode forceIntoLongNode,
+        @Cached CraterTable.RawLengthNode rawLengthNode
+    ) {
+        var metamethod = getMetamethodNode.execute((CraterTable) metatable, getLanguage().getLenMetamethodKey());
+
+        if (hasMetamethodProfile.profile(!isNil(metamethod))) {
+            var length = adjustToOneValueNode.execute(metamethodInvokeNode.execute(metamethod, new Object[]{table}));
+            return forceIntoLongNode.execute(length);
+        }
+
+        return rawLengthNode.execute(table);
+    }
+}
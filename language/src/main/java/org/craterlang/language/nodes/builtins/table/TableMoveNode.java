@@ -0,0 +1,144 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.IndexNode;
+import org.craterlang.language.nodes.NewindexNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableMoveNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableMoveNode> getFactory() {
+        return TableMoveNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode firstForceIntoLongNode,
+        @Cached ForceIntoLongNode lastForceIntoLongNode,
+        @Cached ForceIntoLongNode targetForceIntoLongNode,
+        @Cached CraterTable.GetMetatableNode sourceGetMetatableNode,
+        @Cached CraterTable.GetMetatableNode destinationGetMetatableNode,
+        @Cached MoveNode moveNode
+    ) {
+        if (argumentsLength < 4 || !(arguments[argumentsStart] instanceof CraterTable source)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var first = firstForceIntoLongNode.execute(arguments[argumentsStart + 1]);
+        var last = lastForceIntoLongNode.execute(arguments[argumentsStart + 2]);
+        var target = targetForceIntoLongNode.execute(arguments[argumentsStart + 3]);
+        CraterTable destination;
+
+        if (argumentsLength == 4 || isNil(arguments[argumentsStart + 4])) {
+            destination = source;
+        }
+        else if (arguments[argumentsStart + 4] instanceof CraterTable table) {
+            destination = table;
+        }
+        else {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        if (last >= first) {
+            if (!(first > 0 || last < Long.MAX_VALUE + first) || target > Long.MAX_VALUE - (last - first)) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            moveNode.execute(
+                source,
+                sourceGetMetatableNode.execute(source),
+                first,
+                last,
+                target,
+                destination,
+                destinationGetMetatableNode.execute(destination)
+            );
+        }
+
+        return destination;
+    }
+
+    @GenerateUncached
+    static abstract class MoveNode extends CraterNode {
+        abstract void execute(
+            CraterTable source,
+            Object sourceMetatable,
+            long first,
+            long last,
+            long target,
+            CraterTable destination,
+            Object destinationMetatable
+        );
+
+        @Specialization
+        void doRaw(
+            CraterTable source,
+            CraterNil sourceMetatable,
+            long first,
+            long last,
+            long target,
+            CraterTable destination,
+            CraterNil destinationMetatable,
+            @Cached CraterTable.SequenceMoveNode sequenceMoveNode
+        ) {
+            sequenceMoveNode.execute(source, first, last, target, destination);
+        }
+
+        @Fallback
+        void doMetatable(
+            CraterTable source,
+            Object sourceMetatable,
+            long first,
+            long last,
+            long target,
+            CraterTable destination,
+            Object destinationMetatable
+        ) {
+            moveWithMetamethods(source, first, last, target, destination);
+        }
+
+        @TruffleBoundary
+        private static void moveWithMetamethods(
+            CraterTable source,
+            long first,
+            long last,
+            long target,
+            CraterTable destination
+        ) {
+            var indexNode = IndexNode.getUncached();
+            var newindexNode = NewindexNode.getUncached();
+
+            if (target > last || target <= first || source != destination) {
+                for (var i = 0L; i <= last - first; i++) {
+                    newindexNode.execute(destination, target + i, indexNode.execute(source, first + i));
+                }
+            }
+            else {
+                for (var i = last - first; i >= 0; i--) {
+                    newindexNode.execute(destination, target + i, indexNode.execute(source, first + i));
+                }
+            }
+        }
+    }
+}
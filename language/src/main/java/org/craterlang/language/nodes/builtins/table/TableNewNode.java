@@ -0,0 +1,50 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// table.new(narray, nhash), as in LuaJIT: creates an empty table presized for the given numbers of sequence elements
+// and members.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableNewNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableNewNode> getFactory() {
+        return TableNewNodeGen::create;
+    }
+
+    @Specialization
+    CraterTable doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode sequenceCapacityForceIntoLongNode,
+        @Cached ForceIntoLongNode memberCapacityForceIntoLongNode
+    ) {
+        var sequenceCapacity = argumentsLength > 0 && !isNil(arguments[argumentsStart])
+            ? sequenceCapacityForceIntoLongNode.execute(arguments[argumentsStart])
+            : 0;
+
+        var memberCapacity = argumentsLength > 1 && !isNil(arguments[argumentsStart + 1])
+            ? memberCapacityForceIntoLongNode.execute(arguments[argumentsStart + 1])
+            : 0;
+
+        if (sequenceCapacity > MAX_CAPACITY || memberCapacity > MAX_CAPACITY) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        return getLanguage().createTable((int) Math.max(sequenceCapacity, 0), (int) Math.max(memberCapacity, 0));
+    }
+
+    private static final long MAX_CAPACITY = 1 << 26;
+}
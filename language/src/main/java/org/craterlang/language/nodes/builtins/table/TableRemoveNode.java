@@ -0,0 +1,95 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.IndexNode;
+import org.craterlang.language.nodes.NewindexNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableRemoveNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableRemoveNode> getFactory() {
+        return TableRemoveNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached CraterTable.GetMetatableNode getMetatableNode,
+        @Cached TableLengthNode tableLengthNode,
+        @Cached ForceIntoLongNode forceIntoLongNode,
+        @Cached RemoveNode removeNode
+    ) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterTable table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var metatable = getMetatableNode.execute(table);
+        var length = tableLengthNode.execute(table, metatable);
+        var position = length;
+
+        if (argumentsLength > 1 && !isNil(arguments[argumentsStart + 1])) {
+            position = forceIntoLongNode.execute(arguments[argumentsStart + 1]);
+
+            // As in the reference implementation, the position just past the end is allowed as well as those in it.
+            if (position != length && Long.compareUnsigned(position - 1, length) > 0) {
+                transferToInterpreter();
+                throw error("");
+            }
+        }
+
+        return removeNode.execute(table, metatable, length, position);
+    }
+
+    @GenerateUncached
+    static abstract class RemoveNode extends CraterNode {
+        abstract Object execute(CraterTable table, Object metatable, long length, long position);
+
+        @Specialization
+        Object doRaw(
+            CraterTable table,
+            CraterNil metatable,
+            long length,
+            long position,
+            @Cached CraterTable.SequenceRemoveNode sequenceRemoveNode
+        ) {
+            return sequenceRemoveNode.execute(table, position);
+        }
+
+        @Fallback
+        Object doMetatable(CraterTable table, Object metatable, long length, long position) {
+            return removeWithMetamethods(table, length, position);
+        }
+
+        @TruffleBoundary
+        private static Object removeWithMetamethods(CraterTable table, long length, long position) {
+            var indexNode = IndexNode.getUncached();
+            var newindexNode = NewindexNode.getUncached();
+            var removed = indexNode.execute(table, position);
+
+            for (; position < length; position++) {
+                newindexNode.execute(table, position, indexNode.execute(table, position + 1));
+            }
+
+            newindexNode.execute(table, position, CraterNil.getInstance());
+            return removed;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.IndexNode;
+import org.craterlang.language.nodes.InvokeNode;
+import org.craterlang.language.nodes.LessThanNode;
+import org.craterlang.language.nodes.NewindexNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.nodes.values.AdjustToOneValueNode;
+import org.craterlang.language.runtime.CraterFunction;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static java.lang.System.arraycopy;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableSortNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableSortNode> getFactory() {
+        return TableSortNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached CraterTable.GetMetatableNode getMetatableNode,
+        @Cached TableLengthNode tableLengthNode,
+        @Cached SortNode sortNode
+    ) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterTable table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var comparator = argumentsLength > 1 ? arguments[argumentsStart + 1] : CraterNil.getInstance();
+
+        if (!isNil(comparator) && !(comparator instanceof CraterFunction)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var metatable = getMetatableNode.execute(table);
+        var length = tableLengthNode.execute(table, metatable);
+
+        if (length > 1) {
+            if (length >= Integer.MAX_VALUE) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            sortNode.execute(table, metatable, length, comparator);
+        }
+
+        return EMPTY_RESULTS;
+    }
+
+    // Tables without a metatable are sorted in place by a primitive sort when their storage allows it. Otherwise the
+    // elements are sorted by a merge sort that runs in compiled code, so that the comparator's call site stays direct
+    // and it can be inlined into the sort loop.
+    @GenerateUncached
+    static abstract class SortNode extends CraterNode {
+        abstract void execute(CraterTable table, Object metatable, long length, Object comparator);
+
+        @Specialization
+        void doNaturalOrder(
+            CraterTable table,
+            CraterNil metatable,
+            long length,
+            CraterNil comparator,
+            @Cached CraterTable.SequenceSortNode sequenceSortNode,
+            @Cached ConditionProfile sortedProfile,
+            @Cached CraterTable.SequenceUnpackNode sequenceUnpackNode,
+            @Cached OrderNode orderNode,
+            @Cached CraterTable.RawSetNode rawSetNode
+        ) {
+            if (sortedProfile.profile(sequenceSortNode.execute(table, length))) {
+                return;
+            }
+
+            var values = sequenceUnpackNode.execute(table, 1, length);
+            mergeSort(values, comparator, orderNode);
+
+            for (var i = 0; i < values.length; i++) {
+                rawSetNode.execute(table, i + 1L, values[i]);
+            }
+        }
+
+        @Specialization
+        void doRaw(
+            CraterTable table,
+            CraterNil metatable,
+            long length,
+            Object comparator,
+            @Cached CraterTable.SequenceUnpackNode sequenceUnpackNode,
+            @Cached OrderNode orderNode,
+            @Cached CraterTable.RawSetNode rawSetNode
+        ) {
+            var values = sequenceUnpackNode.execute(table, 1, length);
+            mergeSort(values, comparator, orderNode);
+
+            for (var i = 0; i < values.length; i++) {
+                rawSetNode.execute(table, i + 1L, values[i]);
+            }
+        }
+
+        @Fallback
+        void doMetatable(
+            CraterTable table,
+            Object metatable,
+            long length,
+            Object comparator,
+            @Cached IndexNode indexNode,
+            @Cached OrderNode orderNode,
+            @Cached NewindexNode newindexNode
+        ) {
+            var values = new Object[(int) length];
+
+            for (var i = 0; i < values.length; i++) {
+                values[i] = indexNode.execute(table, i + 1L);
+            }
+
+            mergeSort(values, comparator, orderNode);
+
+            for (var i = 0; i < values.length; i++) {
+                newindexNode.execute(table, i + 1L, values[i]);
+            }
+        }
+
+        // A bottom-up merge sort over insertion-sorted runs. An element is only taken from the right of a merge when it
+        // is strictly less than the one on the left, so the sort is stable.
+        private static void mergeSort(Object[] values, Object comparator, OrderNode orderNode) {
+            var length = values.length;
+
+            for (var start = 0; start < length; start += RUN_LENGTH) {
+                var end = Math.min(start + RUN_LENGTH, length);
+
+                for (var i = start + 1; i < end; i++) {
+                    var value = values[i];
+                    var j = i - 1;
+
+                    while (j >= start && orderNode.execute(comparator, value, values[j])) {
+                        values[j + 1] = values[j];
+                        j--;
+                    }
+
+                    values[j + 1] = value;
+                }
+            }
+
+            if (length <= RUN_LENGTH) {
+                return;
+            }
+
+            var source = values;
+            var destination = new Object[length];
+
+            for (var width = RUN_LENGTH; width < length; width *= 2) {
+                for (var start = 0; start < length; start += 2 * width) {
+                    var middle = Math.min(start + width, length);
+                    var end = Math.min(start + 2 * width, length);
+                    var i = start;
+                    var j = middle;
+                    var k = start;
+
+                    while (i < middle && j < end) {
+                        if (orderNode.execute(comparator, source[j], source[i])) {
+                            destination[k++] = source[j++];
+                        }
+                        else {
+                            destination[k++] = source[i++];
+                        }
+                    }
+
+                    arraycopy(source, i, destination, k, middle - i);
+                    arraycopy(source, j, destination, k + middle - i, end - j);
+                }
+
+                var swap = source;
+                source = destination;
+                destination = swap;
+            }
+
+            if (source != values) {
+                arraycopy(source, 0, values, 0, length);
+            }
+        }
+
+        private static final int RUN_LENGTH = 8;
+    }
+
+    @GenerateUncached
+    static abstract class OrderNode extends CraterNode {
+        abstract boolean execute(Object comparator, Object lhs, Object rhs);
+
+        @Specialization
+        boolean doNaturalOrder(CraterNil comparator, Object lhs, Object rhs, @Cached LessThanNode lessThanNode) {
+            return lessThanNode.execute(lhs, rhs);
+        }
+
+        @Fallback
+        boolean doComparator(
+            Object comparator,
+            Object lhs,
+            Object rhs,
+            @Cached InvokeNode comparatorInvokeNode,
+            @Cached AdjustToOneValueNode adjustToOneValueNode
+        ) {
+            var result = adjustToOneValueNode.execute(comparatorInvokeNode.execute(comparator, new Object[]{lhs, rhs}));
+            return !isNil(result) && !(result instanceof Boolean booleanResult && !booleanResult);
+        }
+    }
+
+    private static final Object[] EMPTY_RESULTS = new Object[0];
+}
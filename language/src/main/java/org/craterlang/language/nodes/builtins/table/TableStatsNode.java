@@ -0,0 +1,27 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterString;
+import org.craterlang.language.runtime.TableStatistics;
+
+import java.util.function.Supplier;
+
+// table.stats([root]): returns a JSON object with the memory and shape statistics of the tables reachable from root,
+// or from the globals table if root is absent, so that embedders can find scripts that create too many shapes or
+// over-allocate storage.
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableStatsNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableStatsNode> getFactory() {
+        return TableStatsNodeGen::create;
+    }
+
+    @Specialization
+    CraterString doExecute(Object[] arguments, int argumentsStart, int argumentsLength) {
+        var root = argumentsLength > 0 ? arguments[argumentsStart] : getContext().getGlobals();
+        return TableStatistics.collect(root).toJsonString(getLanguage());
+    }
+}
@@ -0,0 +1,101 @@
+package org.craterlang.language.nodes.builtins.table;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import org.craterlang.language.CraterNode;
+import org.craterlang.language.nodes.ForceIntoLongNode;
+import org.craterlang.language.nodes.IndexNode;
+import org.craterlang.language.nodes.builtins.BuiltinFunctionBodyNode;
+import org.craterlang.language.runtime.CraterNil;
+import org.craterlang.language.runtime.CraterTable;
+
+import java.util.function.Supplier;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+@GenerateUncached
+@GeneratePackagePrivate
+public abstract class TableUnpackNode extends BuiltinFunctionBodyNode {
+    public static Supplier<TableUnpackNode> getFactory() {
+        return TableUnpackNodeGen::create;
+    }
+
+    @Specialization
+    Object doExecute(
+        Object[] arguments,
+        int argumentsStart,
+        int argumentsLength,
+        @Cached ForceIntoLongNode firstForceIntoLongNode,
+        @Cached ForceIntoLongNode lastForceIntoLongNode,
+        @Cached CraterTable.GetMetatableNode getMetatableNode,
+        @Cached TableLengthNode tableLengthNode,
+        @Cached UnpackNode unpackNode
+    ) {
+        if (argumentsLength == 0 || !(arguments[argumentsStart] instanceof CraterTable table)) {
+            transferToInterpreter();
+            throw error("");
+        }
+
+        var first = argumentsLength > 1 && !isNil(arguments[argumentsStart + 1])
+            ? firstForceIntoLongNode.execute(arguments[argumentsStart + 1])
+            : 1;
+
+        var metatable = getMetatableNode.execute(table);
+
+        var last = argumentsLength > 2 && !isNil(arguments[argumentsStart + 2])
+            ? lastForceIntoLongNode.execute(arguments[argumentsStart + 2])
+            : tableLengthNode.execute(table, metatable);
+
+        return unpackNode.execute(table, metatable, first, last);
+    }
+
+    @GenerateUncached
+    static abstract class UnpackNode extends CraterNode {
+        abstract Object[] execute(CraterTable table, Object metatable, long first, long last);
+
+        @Specialization
+        Object[] doRaw(
+            CraterTable table,
+            CraterNil metatable,
+            long first,
+            long last,
+            @Cached CraterTable.SequenceUnpackNode sequenceUnpackNode
+        ) {
+            return sequenceUnpackNode.execute(table, first, last);
+        }
+
+        @Fallback
+        Object[] doMetatable(CraterTable table, Object metatable, long first, long last) {
+            if (first > last) {
+                return EMPTY_RESULTS;
+            }
+
+            if (last - first < 0 || last - first >= MAX_RESULTS) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            return unpackWithMetamethods(table, first, last);
+        }
+
+        @TruffleBoundary
+        private static Object[] unpackWithMetamethods(CraterTable table, long first, long last) {
+            var indexNode = IndexNode.getUncached();
+            var values = new Object[(int) (last - first + 1)];
+
+            for (var i = 0; i < values.length; i++) {
+                values[i] = indexNode.execute(table, first + i);
+            }
+
+            return values;
+        }
+    }
+
+    private static final Object[] EMPTY_RESULTS = new Object[0];
+    private static final int MAX_RESULTS = 1_000_000;
+}
@@ -9,6 +9,7 @@ import com.oracle.truffle.api.strings.TruffleString;
 import org.craterlang.language.nodes.GetMetatableNode;
 import org.craterlang.language.nodes.InvokeNode;
 import org.craterlang.language.nodes.values.AdjustToOneValueNode;
+import org.craterlang.language.runtime.CraterBuffer;
 import org.craterlang.language.runtime.CraterTable;
 
 import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
@@ -29,6 +30,11 @@ public abstract class LengthExpressionNode extends UnaryExpressionNode {
         return operand.byteLength(TruffleString.Encoding.BYTES);
     }
 
+    @Specialization
+    long doBuffer(CraterBuffer operand) {
+        return operand.getLength();
+    }
+
     @Fallback
     Object doOther(
         Object operand,
@@ -0,0 +1,399 @@
+package org.craterlang.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.profiles.BranchProfile;
+import org.craterlang.language.CraterNode;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static org.craterlang.language.runtime.CraterMath.hasExactLongValue;
+import static org.craterlang.language.runtime.UnsafeAccess.allocateZeroedMemory;
+import static org.craterlang.language.runtime.UnsafeAccess.copyMemory;
+import static org.craterlang.language.runtime.UnsafeAccess.freeMemory;
+import static org.craterlang.language.runtime.UnsafeAccess.getByteAt;
+import static org.craterlang.language.runtime.UnsafeAccess.getDoubleAt;
+import static org.craterlang.language.runtime.UnsafeAccess.getFloatAt;
+import static org.craterlang.language.runtime.UnsafeAccess.getIntAt;
+import static org.craterlang.language.runtime.UnsafeAccess.getLongAt;
+import static org.craterlang.language.runtime.UnsafeAccess.getShortAt;
+import static org.craterlang.language.runtime.UnsafeAccess.setByteAt;
+import static org.craterlang.language.runtime.UnsafeAccess.setDoubleAt;
+import static org.craterlang.language.runtime.UnsafeAccess.setFloatAt;
+import static org.craterlang.language.runtime.UnsafeAccess.setIntAt;
+import static org.craterlang.language.runtime.UnsafeAccess.setLongAt;
+import static org.craterlang.language.runtime.UnsafeAccess.setMemory;
+import static org.craterlang.language.runtime.UnsafeAccess.setShortAt;
+
+// A fixed-length array of numbers of a single machine type, stored in off-heap memory. Elements are indexed from 1,
+// like sequences. Integer elements are read as integers and floating-point elements as floats. A view shares the
+// memory of the buffer it was created from, possibly reinterpreting it as another element type, and the memory is
+// freed once neither the buffer nor any of its views is reachable.
+public final class CraterBuffer implements TruffleObject {
+    private final Memory memory;
+    private final long address;
+    private final long length;
+    private final ElementType elementType;
+
+    private CraterBuffer(Memory memory, long address, long length, ElementType elementType) {
+        this.memory = memory;
+        this.address = address;
+        this.length = length;
+        this.elementType = elementType;
+    }
+
+    @TruffleBoundary
+    public static CraterBuffer allocate(ElementType elementType, long length) {
+        assert length >= 0 && length <= MAX_LENGTH;
+        var memory = new Memory(length * elementType.getSize());
+        return new CraterBuffer(memory, memory.address, length, elementType);
+    }
+
+    public ElementType getElementType() {
+        return elementType;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isInBounds(long index) {
+        return Long.compareUnsigned(index - 1, length) < 0;
+    }
+
+    public boolean isInBounds(long first, long last) {
+        return first > last || (first >= 1 && last <= length);
+    }
+
+    private long getElementAddress(long index) {
+        return address + (index - 1) * elementType.getSize();
+    }
+
+    // A buffer sharing the memory of elements first to last, reinterpreted as elements of the given type. Returns null
+    // if the range isn't a whole number of elements of that type.
+    @TruffleBoundary
+    public CraterBuffer view(long first, long last, ElementType viewElementType) {
+        assert isInBounds(first, last);
+        var size = first > last ? 0 : (last - first + 1) * elementType.getSize();
+
+        if (size % viewElementType.getSize() != 0) {
+            return null;
+        }
+
+        var viewAddress = first > last ? address : getElementAddress(first);
+        return new CraterBuffer(memory, viewAddress, size / viewElementType.getSize(), viewElementType);
+    }
+
+    @TruffleBoundary
+    public CraterBuffer slice(long first, long last) {
+        assert isInBounds(first, last);
+
+        if (first > last) {
+            return allocate(elementType, 0);
+        }
+
+        var slice = allocate(elementType, last - first + 1);
+        copyMemory(getElementAddress(first), slice.address, slice.length * elementType.getSize());
+        Reference.reachabilityFence(this);
+        return slice;
+    }
+
+    // Fills elements first to last with a value, which must be representable in the element type.
+    @TruffleBoundary
+    public void fill(long first, long last, Object value) {
+        assert isInBounds(first, last) && isRepresentable(elementType, value);
+
+        if (first > last) {
+            return;
+        }
+
+        var startAddress = getElementAddress(first);
+
+        if (elementType == ElementType.INT8 || isZero(value)) {
+            setMemory(startAddress, (last - first + 1) * elementType.getSize(), (byte) toStoredValue(value));
+        }
+        else {
+            for (var i = first; i <= last; i++) {
+                store(elementType, getElementAddress(i), value);
+            }
+        }
+
+        Reference.reachabilityFence(this);
+    }
+
+    // Copies elements first to last of source into this buffer starting at destination, converting them if the element
+    // types differ. Ranges of the same element type may overlap. Returns false, having copied only some of the
+    // elements, if an element isn't representable in the element type of this buffer.
+    @TruffleBoundary
+    public boolean copyFrom(CraterBuffer source, long first, long last, long destination) {
+        assert source.isInBounds(first, last) && isInBounds(destination, destination + (last - first));
+
+        if (first > last) {
+            return true;
+        }
+
+        var count = last - first + 1;
+
+        if (source.elementType == elementType) {
+            copyMemory(source.getElementAddress(first), getElementAddress(destination), count * elementType.getSize());
+        }
+        else if (getElementAddress(destination) <= source.getElementAddress(first)) {
+            for (var i = 0L; i < count; i++) {
+                if (!copyElement(source, first + i, destination + i)) {
+                    return false;
+                }
+            }
+        }
+        else {
+            for (var i = count - 1; i >= 0; i--) {
+                if (!copyElement(source, first + i, destination + i)) {
+                    return false;
+                }
+            }
+        }
+
+        Reference.reachabilityFence(source);
+        Reference.reachabilityFence(this);
+        return true;
+    }
+
+    private boolean copyElement(CraterBuffer source, long sourceIndex, long destinationIndex) {
+        var value = load(source.elementType, source.getElementAddress(sourceIndex));
+
+        if (!isRepresentable(elementType, value)) {
+            return false;
+        }
+
+        store(elementType, getElementAddress(destinationIndex), value);
+        return true;
+    }
+
+    // Whether a number can be stored in an element of the given type. Integer types take integers and floats with an
+    // exact integer value, and keep their low bits, like a cast in C. Floating-point types take any number.
+    public static boolean isRepresentable(ElementType elementType, Object value) {
+        if (value instanceof Long) {
+            return true;
+        }
+        else if (value instanceof Double doubleValue) {
+            return elementType.isFloatingPoint() || hasExactLongValue(doubleValue);
+        }
+        else {
+            return false;
+        }
+    }
+
+    private static boolean isZero(Object value) {
+        return value instanceof Long longValue ? longValue == 0 : Double.doubleToRawLongBits((Double) value) == 0;
+    }
+
+    private static long toStoredValue(Object value) {
+        return value instanceof Long longValue ? longValue : (long) (double) (Double) value;
+    }
+
+    private static Object load(ElementType elementType, long elementAddress) {
+        return switch (elementType) {
+            case INT8 -> (long) getByteAt(elementAddress);
+            case INT16 -> (long) getShortAt(elementAddress);
+            case INT32 -> (long) getIntAt(elementAddress);
+            case INT64 -> getLongAt(elementAddress);
+            case FLOAT32 -> (double) getFloatAt(elementAddress);
+            case FLOAT64 -> getDoubleAt(elementAddress);
+        };
+    }
+
+    private static void store(ElementType elementType, long elementAddress, Object value) {
+        if (value instanceof Long longValue) {
+            storeLong(elementType, elementAddress, longValue);
+        }
+        else {
+            storeDouble(elementType, elementAddress, (Double) value);
+        }
+    }
+
+    private static void storeLong(ElementType elementType, long elementAddress, long value) {
+        switch (elementType) {
+            case INT8 -> setByteAt(elementAddress, (byte) value);
+            case INT16 -> setShortAt(elementAddress, (short) value);
+            case INT32 -> setIntAt(elementAddress, (int) value);
+            case INT64 -> setLongAt(elementAddress, value);
+            case FLOAT32 -> setFloatAt(elementAddress, (float) value);
+            case FLOAT64 -> setDoubleAt(elementAddress, (double) value);
+        }
+    }
+
+    private static void storeDouble(ElementType elementType, long elementAddress, double value) {
+        switch (elementType) {
+            case FLOAT32 -> setFloatAt(elementAddress, (float) value);
+            case FLOAT64 -> setDoubleAt(elementAddress, value);
+            default -> storeLong(elementType, elementAddress, (long) value);
+        }
+    }
+
+    public static final long MAX_LENGTH = 1L << 40;
+
+    public enum ElementType {
+        INT8(1, false),
+        INT16(2, false),
+        INT32(4, false),
+        INT64(8, false),
+        FLOAT32(4, true),
+        FLOAT64(8, true);
+
+        private final int size;
+        private final boolean floatingPoint;
+
+        ElementType(int size, boolean floatingPoint) {
+            this.size = size;
+            this.floatingPoint = floatingPoint;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isFloatingPoint() {
+            return floatingPoint;
+        }
+
+        // The element type with the given name, such as "int32" or "float64", or null if there is none.
+        @TruffleBoundary
+        public static ElementType fromName(CraterString name) {
+            return switch (name.toString()) {
+                case "int8" -> INT8;
+                case "int16" -> INT16;
+                case "int32" -> INT32;
+                case "int64" -> INT64;
+                case "float32" -> FLOAT32;
+                case "float64" -> FLOAT64;
+                default -> null;
+            };
+        }
+    }
+
+    // Owns a block of off-heap memory, which is freed when the owner becomes unreachable. The deallocation action must
+    // not refer to the owner, or it would never become unreachable.
+    private static final class Memory {
+        private final long address;
+
+        Memory(long size) {
+            address = allocateZeroedMemory(size);
+            CLEANER.register(this, new Deallocator(address));
+        }
+
+        private static final Cleaner CLEANER = Cleaner.create();
+    }
+
+    private record Deallocator(long address) implements Runnable {
+        @Override public void run() {
+            freeMemory(address);
+        }
+    }
+
+    // Reads an element as a number, or nil if the index is out of bounds. With the element type cached, it compiles to
+    // a bounds check and a single load.
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class ReadElementNode extends CraterNode {
+        public abstract Object execute(CraterBuffer buffer, long index);
+
+        public static ReadElementNode create() {
+            return CraterBufferFactory.ReadElementNodeGen.create();
+        }
+
+        public static ReadElementNode getUncached() {
+            return CraterBufferFactory.ReadElementNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "buffer.getElementType() == cachedElementType", limit = "3")
+        Object doCached(
+            CraterBuffer buffer,
+            long index,
+            @Cached("buffer.getElementType()") ElementType cachedElementType,
+            @Cached BranchProfile outOfBoundsProfile
+        ) {
+            if (!buffer.isInBounds(index)) {
+                outOfBoundsProfile.enter();
+                return CraterNil.getInstance();
+            }
+
+            var result = load(cachedElementType, buffer.getElementAddress(index));
+            Reference.reachabilityFence(buffer);
+            return result;
+        }
+
+        @Specialization(replaces = "doCached")
+        Object doGeneric(CraterBuffer buffer, long index) {
+            if (!buffer.isInBounds(index)) {
+                return CraterNil.getInstance();
+            }
+
+            var result = load(buffer.getElementType(), buffer.getElementAddress(index));
+            Reference.reachabilityFence(buffer);
+            return result;
+        }
+    }
+
+    // Writes a number to an element. Out-of-bounds indices and values that the element type can't represent are errors.
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class WriteElementNode extends CraterNode {
+        public abstract void execute(CraterBuffer buffer, long index, Object value);
+
+        public static WriteElementNode create() {
+            return CraterBufferFactory.WriteElementNodeGen.create();
+        }
+
+        public static WriteElementNode getUncached() {
+            return CraterBufferFactory.WriteElementNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "buffer.getElementType() == cachedElementType", limit = "3")
+        void doLong(
+            CraterBuffer buffer,
+            long index,
+            long value,
+            @Cached("buffer.getElementType()") ElementType cachedElementType
+        ) {
+            if (!buffer.isInBounds(index)) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            storeLong(cachedElementType, buffer.getElementAddress(index), value);
+            Reference.reachabilityFence(buffer);
+        }
+
+        @Specialization(guards = "buffer.getElementType() == cachedElementType", limit = "3")
+        void doDouble(
+            CraterBuffer buffer,
+            long index,
+            double value,
+            @Cached("buffer.getElementType()") ElementType cachedElementType
+        ) {
+            if (!buffer.isInBounds(index) || !(cachedElementType.isFloatingPoint() || hasExactLongValue(value))) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            storeDouble(cachedElementType, buffer.getElementAddress(index), value);
+            Reference.reachabilityFence(buffer);
+        }
+
+        @Specialization(replaces = {"doLong", "doDouble"})
+        void doGeneric(CraterBuffer buffer, long index, Object value) {
+            if (!buffer.isInBounds(index) || !isRepresentable(buffer.getElementType(), value)) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            store(buffer.getElementType(), buffer.getElementAddress(index), value);
+            Reference.reachabilityFence(buffer);
+        }
+    }
+}
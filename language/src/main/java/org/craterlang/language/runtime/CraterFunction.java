@@ -13,10 +13,20 @@ import org.craterlang.language.nodes.DispatchedCallNode;
 import org.craterlang.language.nodes.values.PrependValueNode;
 
 public final class CraterFunction extends DynamicObject implements TruffleObject {
+    private Object[] ephemerons;
+
     public CraterFunction(Shape shape) {
         super(shape);
     }
 
+    Object[] getEphemerons() {
+        return ephemerons;
+    }
+
+    void setEphemerons(Object[] ephemerons) {
+        this.ephemerons = ephemerons;
+    }
+
     @GenerateUncached
     @GeneratePackagePrivate
     public static abstract class GetCallTargetNode extends CraterNode {
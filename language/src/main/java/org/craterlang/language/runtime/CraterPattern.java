@@ -0,0 +1,1116 @@
+package org.craterlang.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
+import com.oracle.truffle.api.dsl.GenerateUncached;
+import com.oracle.truffle.api.dsl.ImportStatic;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import org.craterlang.language.CraterNode;
+
+import java.util.Arrays;
+
+import static com.oracle.truffle.api.ArrayUtils.indexOf;
+
+// A Lua pattern compiled into a program of items, each of which is a single-byte class with its quantifier, a capture
+// boundary, a balance, a frontier, a back-reference or the end anchor. Single-byte classes, whether written as a byte,
+// an escape, "." or a set, are compiled into 256-bit sets, so that matching a byte against any class is a single bit
+// test. Patterns without special characters are compiled into literals instead.
+//
+// The program is run by a backtracking matcher over the bytes of the subject, which only flattens subjects that aren't
+// already flat and never copies a substring view. Candidate start positions are skipped with a byte search when every
+// match must begin with a literal byte or with one of a few bytes.
+public final class CraterPattern {
+    private final byte[] literal;
+    private final int[] items;
+    private final long[] classes;
+    private final boolean anchored;
+    private final int captureCount;
+
+    // When every match must begin with a byte of the first item's class, the bytes of that class if it has few of them.
+    private final byte[] firstBytes;
+    private final boolean hasFirstClass;
+
+    private CraterPattern(byte[] literal) {
+        this.literal = literal;
+        this.items = null;
+        this.classes = null;
+        this.anchored = false;
+        this.captureCount = 0;
+        this.firstBytes = literal.length > 0 ? new byte[]{literal[0]} : null;
+        this.hasFirstClass = false;
+    }
+
+    private CraterPattern(int[] items, long[] classes, boolean anchored, int captureCount) {
+        this.literal = null;
+        this.items = items;
+        this.classes = classes;
+        this.anchored = anchored;
+        this.captureCount = captureCount;
+
+        var hasFirstClass = !anchored && items.length > 0 && getKind(items[0]) == KIND_SINGLE;
+
+        if (hasFirstClass) {
+            var firstQuantifier = getQuantifier(items[0]);
+            hasFirstClass = firstQuantifier == QUANTIFIER_ONE || firstQuantifier == QUANTIFIER_GREEDY_PLUS;
+        }
+
+        this.firstBytes = hasFirstClass ? getClassBytes(classes, 0) : null;
+        this.hasFirstClass = hasFirstClass && firstBytes == null;
+    }
+
+    // Compiles a pattern, or returns null if it is malformed. Plain patterns are compiled as literals whatever they
+    // contain, as by string.find with its plain argument. Unless anchorable, a leading '^' matches itself, as it does
+    // for string.gmatch.
+    @TruffleBoundary
+    public static CraterPattern compile(CraterString pattern, boolean plain, boolean anchorable) {
+        var bytes = toByteArray(pattern);
+
+        if (plain || !hasSpecials(bytes)) {
+            return new CraterPattern(bytes);
+        }
+
+        return new Compiler(bytes, anchorable).compile();
+    }
+
+    @TruffleBoundary
+    public Matcher matcher(CraterString subject) {
+        return new Matcher(this, subject);
+    }
+
+    private static byte[] toByteArray(CraterString string) {
+        if (string.isInline()) {
+            var bytes = new byte[string.getInlineLength()];
+            string.copyInlineBytes(bytes, 0);
+            return bytes;
+        }
+
+        if (!string.isFlat()) {
+            string.forceUncached();
+        }
+
+        var offset = string.getFlatOffset();
+        return Arrays.copyOfRange(string.getFlatBytes(), offset, offset + string.getFlatLength());
+    }
+
+    private static boolean hasSpecials(byte[] bytes) {
+        for (var b : bytes) {
+            switch (b) {
+                case '^', '$', '*', '+', '?', '.', '(', '[', '%', '-' -> {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static int getKind(int item) {
+        return item & 0xf;
+    }
+
+    private static int getQuantifier(int item) {
+        return (item >>> 4) & 0xf;
+    }
+
+    private static int getArgument(int item) {
+        return item >>> 8;
+    }
+
+    private static int createItem(int kind, int quantifier, int argument) {
+        return kind | (quantifier << 4) | (argument << 8);
+    }
+
+    private boolean isInClass(int item, byte b) {
+        return (classes[(item << 2) + ((b & 0xff) >>> 6)] >>> b & 1) != 0;
+    }
+
+    private static byte[] getClassBytes(long[] classes, int item) {
+        var count = 0;
+
+        for (var i = 0; i < 4; i++) {
+            count += Long.bitCount(classes[(item << 2) + i]);
+        }
+
+        if (count == 0 || count > MAX_FIRST_BYTES) {
+            return null;
+        }
+
+        var bytes = new byte[count];
+        var index = 0;
+
+        for (var b = 0; b < 256; b++) {
+            if ((classes[(item << 2) + (b >>> 6)] >>> b & 1) != 0) {
+                bytes[index++] = (byte) b;
+            }
+        }
+
+        return bytes;
+    }
+
+    private static final int KIND_SINGLE = 0;
+    private static final int KIND_OPEN_CAPTURE = 1;
+    private static final int KIND_POSITION_CAPTURE = 2;
+    private static final int KIND_CLOSE_CAPTURE = 3;
+    private static final int KIND_BALANCE = 4;
+    private static final int KIND_FRONTIER = 5;
+    private static final int KIND_BACK_REFERENCE = 6;
+    private static final int KIND_END_ANCHOR = 7;
+
+    private static final int QUANTIFIER_ONE = 0;
+    private static final int QUANTIFIER_OPTIONAL = 1;
+    private static final int QUANTIFIER_GREEDY_STAR = 2;
+    private static final int QUANTIFIER_GREEDY_PLUS = 3;
+    private static final int QUANTIFIER_LAZY_STAR = 4;
+
+    private static final int MAX_CAPTURES = 32;
+    private static final int MAX_FIRST_BYTES = 4;
+
+    // The reference implementation limits the nesting of its recursive matcher, and so does this one.
+    private static final int MAX_MATCH_DEPTH = 200;
+
+    private static final class Compiler {
+        private final byte[] bytes;
+        private final boolean anchorable;
+        private int[] items = new int[8];
+        private long[] classes = new long[32];
+        private int itemCount;
+        private int captureCount;
+        private final boolean[] closedCaptures = new boolean[MAX_CAPTURES];
+        private final int[] openCaptures = new int[MAX_CAPTURES];
+        private int openCaptureCount;
+
+        private Compiler(byte[] bytes, boolean anchorable) {
+            this.bytes = bytes;
+            this.anchorable = anchorable;
+        }
+
+        private CraterPattern compile() {
+            var anchored = anchorable && bytes.length > 0 && bytes[0] == '^';
+            var position = anchored ? 1 : 0;
+
+            while (position < bytes.length) {
+                position = compileItem(position);
+
+                if (position < 0) {
+                    return null;
+                }
+            }
+
+            if (openCaptureCount != 0) {
+                return null;
+            }
+
+            return new CraterPattern(
+                Arrays.copyOf(items, itemCount),
+                Arrays.copyOf(classes, itemCount * 4),
+                anchored,
+                captureCount
+            );
+        }
+
+        // Compiles the item at a position, returning the position after it, or -1 if it is malformed.
+        private int compileItem(int position) {
+            var b = bytes[position];
+
+            if (b == '(') {
+                if (captureCount == MAX_CAPTURES) {
+                    return -1;
+                }
+
+                if (position + 1 < bytes.length && bytes[position + 1] == ')') {
+                    closedCaptures[captureCount] = true;
+                    addItem(createItem(KIND_POSITION_CAPTURE, 0, captureCount++));
+                    return position + 2;
+                }
+
+                openCaptures[openCaptureCount++] = captureCount;
+                addItem(createItem(KIND_OPEN_CAPTURE, 0, captureCount++));
+                return position + 1;
+            }
+
+            if (b == ')') {
+                if (openCaptureCount == 0) {
+                    return -1;
+                }
+
+                var index = openCaptures[--openCaptureCount];
+                closedCaptures[index] = true;
+                addItem(createItem(KIND_CLOSE_CAPTURE, 0, index));
+                return position + 1;
+            }
+
+            if (b == '$' && position + 1 == bytes.length) {
+                addItem(createItem(KIND_END_ANCHOR, 0, 0));
+                return position + 1;
+            }
+
+            if (b == '%' && position + 1 < bytes.length) {
+                var escaped = bytes[position + 1];
+
+                if (escaped == 'b') {
+                    if (position + 3 >= bytes.length) {
+                        return -1;
+                    }
+
+                    var argument = (bytes[position + 2] & 0xff) | ((bytes[position + 3] & 0xff) << 8);
+                    addItem(createItem(KIND_BALANCE, 0, argument));
+                    return position + 4;
+                }
+
+                if (escaped == 'f') {
+                    var setStart = position + 2;
+
+                    if (setStart >= bytes.length || bytes[setStart] != '[') {
+                        return -1;
+                    }
+
+                    var setEnd = findClassEnd(setStart);
+
+                    if (setEnd < 0) {
+                        return -1;
+                    }
+
+                    var item = addItem(createItem(KIND_FRONTIER, 0, 0));
+                    addSet(item, setStart, setEnd - 1);
+                    return setEnd;
+                }
+
+                if ('0' <= escaped && escaped <= '9') {
+                    var index = escaped - '1';
+
+                    if (index < 0 || index >= captureCount || !closedCaptures[index]) {
+                        return -1;
+                    }
+
+                    addItem(createItem(KIND_BACK_REFERENCE, 0, index));
+                    return position + 2;
+                }
+            }
+
+            var classEnd = findClassEnd(position);
+
+            if (classEnd < 0) {
+                return -1;
+            }
+
+            var quantifier = QUANTIFIER_ONE;
+
+            if (classEnd < bytes.length) {
+                switch (bytes[classEnd]) {
+                    case '?' -> quantifier = QUANTIFIER_OPTIONAL;
+                    case '*' -> quantifier = QUANTIFIER_GREEDY_STAR;
+                    case '+' -> quantifier = QUANTIFIER_GREEDY_PLUS;
+                    case '-' -> quantifier = QUANTIFIER_LAZY_STAR;
+                }
+            }
+
+            var item = addItem(createItem(KIND_SINGLE, quantifier, 0));
+
+            switch (b) {
+                case '.' -> Arrays.fill(classes, item << 2, (item << 2) + 4, -1L);
+                case '%' -> addClass(item, bytes[position + 1]);
+                case '[' -> addSet(item, position, classEnd - 1);
+                default -> addByte(item, b & 0xff);
+            }
+
+            return quantifier == QUANTIFIER_ONE ? classEnd : classEnd + 1;
+        }
+
+        // The position after the single-byte class at a position, or -1 if it is malformed.
+        private int findClassEnd(int position) {
+            var b = bytes[position++];
+
+            if (b == '%') {
+                return position < bytes.length ? position + 1 : -1;
+            }
+
+            if (b != '[') {
+                return position;
+            }
+
+            if (position < bytes.length && bytes[position] == '^') {
+                position++;
+            }
+
+            // The first byte of a set is never its end, so that "[]]" is the set of "]".
+            for (;;) {
+                if (position >= bytes.length) {
+                    return -1;
+                }
+
+                if (bytes[position++] == '%' && position < bytes.length) {
+                    position++;
+                }
+
+                if (position < bytes.length && bytes[position] == ']') {
+                    return position + 1;
+                }
+            }
+        }
+
+        // Adds the bytes of the set between a '[' and its ']'.
+        private void addSet(int item, int setStart, int setEnd) {
+            var position = setStart;
+            var complement = bytes[position + 1] == '^';
+
+            if (complement) {
+                position++;
+            }
+
+            while (++position < setEnd) {
+                var b = bytes[position];
+
+                if (b == '%') {
+                    addClass(item, bytes[++position]);
+                }
+                else if (bytes[position + 1] == '-' && position + 2 < setEnd) {
+                    for (var c = b & 0xff; c <= (bytes[position + 2] & 0xff); c++) {
+                        addByte(item, c);
+                    }
+
+                    position += 2;
+                }
+                else {
+                    addByte(item, b & 0xff);
+                }
+            }
+
+            if (complement) {
+                for (var i = item << 2; i < (item << 2) + 4; i++) {
+                    classes[i] = ~classes[i];
+                }
+            }
+        }
+
+        // Adds the bytes of the class that an escaped byte stands for, or the byte itself if it stands for none.
+        private void addClass(int item, byte escaped) {
+            var lowercase = escaped | 0x20;
+
+            if (!('a' <= lowercase && lowercase <= 'z') || !isClassLetter(lowercase)) {
+                addByte(item, escaped & 0xff);
+                return;
+            }
+
+            var complement = escaped != lowercase;
+
+            for (var c = 0; c < 256; c++) {
+                if (isInNamedClass(lowercase, c) != complement) {
+                    addByte(item, c);
+                }
+            }
+        }
+
+        private void addByte(int item, int b) {
+            classes[(item << 2) + (b >>> 6)] |= 1L << b;
+        }
+
+        private int addItem(int item) {
+            if (itemCount == items.length) {
+                items = Arrays.copyOf(items, itemCount * 2);
+                classes = Arrays.copyOf(classes, itemCount * 8);
+            }
+
+            items[itemCount] = item;
+            return itemCount++;
+        }
+
+        private static boolean isClassLetter(int lowercase) {
+            return switch (lowercase) {
+                case 'a', 'c', 'd', 'g', 'l', 'p', 's', 'u', 'w', 'x', 'z' -> true;
+                default -> false;
+            };
+        }
+
+        // The classes of the C locale, and the deprecated %z that the reference implementation still accepts.
+        private static boolean isInNamedClass(int lowercase, int c) {
+            var isLower = 'a' <= c && c <= 'z';
+            var isUpper = 'A' <= c && c <= 'Z';
+            var isDigit = '0' <= c && c <= '9';
+
+            return switch (lowercase) {
+                case 'a' -> isLower || isUpper;
+                case 'c' -> c < 32 || c == 127;
+                case 'd' -> isDigit;
+                case 'g' -> 33 <= c && c <= 126;
+                case 'l' -> isLower;
+                case 'p' -> 33 <= c && c <= 126 && !isLower && !isUpper && !isDigit;
+                case 's' -> c == ' ' || ('\t' <= c && c <= '\r');
+                case 'u' -> isUpper;
+                case 'w' -> isLower || isUpper || isDigit;
+                case 'x' -> isDigit || ('a' <= (c | 0x20) && (c | 0x20) <= 'f');
+                case 'z' -> c == 0;
+                default -> throw new AssertionError();
+            };
+        }
+    }
+
+    // Runs a pattern over one subject. Positions are byte offsets into the subject, counting from 0, and captures are
+    // numbered from 0; a pattern without captures has the whole match as its only result.
+    //
+    // A matcher also carries the state of string.gmatch and string.gsub, which both scan the subject for successive
+    // matches, and the output of string.gsub, which is written into a single growing array.
+    public static final class Matcher {
+        private final CraterPattern pattern;
+        private final CraterString subject;
+        private final byte[] bytes;
+        private final int start;
+        private final int end;
+
+        private final int[] captureStarts;
+        private final int[] captureLengths;
+        private int level;
+        private int depth;
+        private boolean tooComplex;
+
+        private int matchStart;
+        private int matchEnd;
+
+        private int nextStart;
+        private int lastMatchEnd = -1;
+
+        private byte[] output;
+        private int outputLength;
+        private int copiedEnd;
+
+        private Matcher(CraterPattern pattern, CraterString subject) {
+            this.pattern = pattern;
+
+            if (subject.isInline()) {
+                bytes = new byte[subject.getInlineLength()];
+                subject.copyInlineBytes(bytes, 0);
+                start = 0;
+            }
+            else {
+                if (!subject.isFlat()) {
+                    subject.forceUncached();
+                }
+
+                bytes = subject.getFlatBytes();
+                start = subject.getFlatOffset();
+            }
+
+            this.subject = subject;
+            end = start + (subject.isInline() ? subject.getInlineLength() : subject.getFlatLength());
+            captureStarts = new int[pattern.captureCount];
+            captureLengths = new int[pattern.captureCount];
+            nextStart = start;
+            copiedEnd = start;
+        }
+
+        public CraterString getSubject() {
+            return subject;
+        }
+
+        public int getSubjectLength() {
+            return end - start;
+        }
+
+        // Whether the last search gave up because the pattern needed to backtrack too deeply.
+        public boolean isTooComplex() {
+            return tooComplex;
+        }
+
+        public int getMatchStart() {
+            return matchStart - start;
+        }
+
+        public int getMatchEnd() {
+            return matchEnd - start;
+        }
+
+        public int getCaptureCount() {
+            return pattern.captureCount;
+        }
+
+        // The number of values that a match produces: its captures, or the whole match if there are none.
+        public int getResultCount() {
+            return Math.max(pattern.captureCount, 1);
+        }
+
+        public boolean isPositionCapture(int index) {
+            return index < pattern.captureCount && captureLengths[index] == CAPTURE_POSITION;
+        }
+
+        public int getCaptureStart(int index) {
+            return (index < pattern.captureCount ? captureStarts[index] : matchStart) - start;
+        }
+
+        public int getCaptureEnd(int index) {
+            return (index < pattern.captureCount ? captureStarts[index] + captureLengths[index] : matchEnd) - start;
+        }
+
+        // Finds the first match that starts at or after a position, as string.find and string.match do.
+        @TruffleBoundary
+        public boolean find(int init) {
+            assert 0 <= init && init <= end - start;
+            tooComplex = false;
+            var s = pattern.anchored ? start + init : findCandidate(start + init);
+
+            while (s <= end) {
+                var e = matchAt(s);
+
+                if (e >= 0) {
+                    matchStart = s;
+                    matchEnd = e;
+                    return true;
+                }
+
+                if (e == TOO_COMPLEX || pattern.anchored) {
+                    tooComplex = e == TOO_COMPLEX;
+                    return false;
+                }
+
+                s = findCandidate(s + 1);
+            }
+
+            return false;
+        }
+
+        public void setNextStart(int init) {
+            assert 0 <= init && init <= end - start;
+            nextStart = start + init;
+            copiedEnd = nextStart;
+        }
+
+        // Finds the next match of a scan, as string.gmatch and string.gsub do: each scan starts where the last match
+        // ended, and a match that is empty and ends where the last one did is skipped. An anchored pattern is only
+        // tried at the start of the scan.
+        @TruffleBoundary
+        public boolean findNext() {
+            tooComplex = false;
+            var s = pattern.anchored ? nextStart : findCandidate(nextStart);
+
+            while (s <= end) {
+                var e = matchAt(s);
+
+                if (e >= 0 && e != lastMatchEnd) {
+                    matchStart = s;
+                    matchEnd = e;
+                    nextStart = pattern.anchored ? end + 1 : e;
+                    lastMatchEnd = e;
+                    return true;
+                }
+
+                if (e == TOO_COMPLEX || pattern.anchored) {
+                    tooComplex = e == TOO_COMPLEX;
+                    break;
+                }
+
+                s = findCandidate(s + 1);
+            }
+
+            nextStart = end + 1;
+            return false;
+        }
+
+        // Replaces successive matches, up to maxCount of them, by the expansion of a replacement string, in which "%0"
+        // stands for the whole match, "%1" to "%9" for captures and "%%" for a percent sign. The replacement is parsed
+        // once, and the bytes of each expansion are copied straight into the output. Returns the number of
+        // replacements, or -1 if the replacement is malformed and there was a match to expand it for.
+        @TruffleBoundary
+        public long substituteAll(CraterString replacement, long maxCount) {
+            var replacementBytes = toByteArray(replacement);
+            var operations = parseReplacement(replacementBytes);
+            var count = 0L;
+
+            while (count < maxCount && findNext()) {
+                if (operations == null) {
+                    return -1;
+                }
+
+                count++;
+                appendUnmatched();
+
+                for (var i = 0; i < operations.length; i += 2) {
+                    var operation = operations[i];
+
+                    if (operation >= 0) {
+                        appendBytes(replacementBytes, operation, operations[i + 1]);
+                    }
+                    else {
+                        appendCapture(operations[i + 1]);
+                    }
+                }
+
+                copiedEnd = matchEnd;
+            }
+
+            return count;
+        }
+
+        // Parses a replacement into pairs of an offset and a length of its literal parts, or of -1 and a capture index,
+        // where a capture index equal to the capture count stands for the whole match. Returns null if it is
+        // malformed.
+        private int[] parseReplacement(byte[] replacement) {
+            var operations = new int[8];
+            var operationCount = 0;
+            var position = 0;
+
+            while (position < replacement.length) {
+                var escape = indexOf(replacement, position, replacement.length, (byte) '%');
+                var literalEnd = escape < 0 ? replacement.length : escape;
+
+                if (operationCount + 4 > operations.length) {
+                    operations = Arrays.copyOf(operations, operations.length * 2);
+                }
+
+                if (literalEnd > position) {
+                    operations[operationCount++] = position;
+                    operations[operationCount++] = literalEnd - position;
+                }
+
+                if (escape < 0) {
+                    break;
+                }
+
+                if (escape + 1 == replacement.length) {
+                    return null;
+                }
+
+                var escaped = replacement[escape + 1];
+
+                if (escaped == '%') {
+                    operations[operationCount++] = escape + 1;
+                    operations[operationCount++] = 1;
+                }
+                else if ('0' <= escaped && escaped <= '9') {
+                    var index = escaped - '1';
+
+                    if (index < 0 || (index == 0 && pattern.captureCount == 0)) {
+                        index = pattern.captureCount;
+                    }
+                    else if (index >= pattern.captureCount) {
+                        return null;
+                    }
+
+                    operations[operationCount++] = -1;
+                    operations[operationCount++] = index;
+                }
+                else {
+                    return null;
+                }
+
+                position = escape + 2;
+            }
+
+            return Arrays.copyOf(operations, operationCount);
+        }
+
+        // Appends a replacement for the last match found by findNext.
+        @TruffleBoundary
+        public void appendReplacement(CraterString replacement) {
+            appendUnmatched();
+
+            if (replacement.isInline()) {
+                ensureOutputCapacity(replacement.getInlineLength());
+                outputLength = replacement.copyInlineBytes(output, outputLength);
+            }
+            else {
+                if (!replacement.isFlat()) {
+                    replacement.forceUncached();
+                }
+
+                appendBytes(replacement.getFlatBytes(), replacement.getFlatOffset(), replacement.getFlatLength());
+            }
+
+            copiedEnd = matchEnd;
+        }
+
+        // Keeps the last match found by findNext as it is, while still counting it as replaced.
+        @TruffleBoundary
+        public void appendMatch() {
+            appendUnmatched();
+            appendBytes(bytes, matchStart, matchEnd - matchStart);
+            copiedEnd = matchEnd;
+        }
+
+        // The subject with its replacements. A subject without replacements is returned as it is.
+        @TruffleBoundary
+        public CraterString finishSubstitution() {
+            if (output == null) {
+                return subject;
+            }
+
+            appendBytes(bytes, copiedEnd, end - copiedEnd);
+
+            if (outputLength <= CraterString.MAX_INLINE_LENGTH) {
+                return CraterString.fromBytes(output, 0, outputLength);
+            }
+
+            var result = new CraterString();
+            result.setImmediate(outputLength == output.length ? output : Arrays.copyOf(output, outputLength));
+            return result;
+        }
+
+        // Copies the bytes between the end of the last replaced match and the start of the current one.
+        private void appendUnmatched() {
+            if (output == null) {
+                output = new byte[Math.max(end - start, 16)];
+            }
+
+            appendBytes(bytes, copiedEnd, matchStart - copiedEnd);
+        }
+
+        private void appendCapture(int index) {
+            if (isPositionCapture(index)) {
+                var position = (long) getCaptureStart(index) + 1;
+                ensureOutputCapacity(NumberFormatter.getLongLength(position));
+                outputLength = NumberFormatter.writeLong(position, output, outputLength);
+            }
+            else {
+                var captureStart = start + getCaptureStart(index);
+                appendBytes(bytes, captureStart, start + getCaptureEnd(index) - captureStart);
+            }
+        }
+
+        private void appendBytes(byte[] source, int offset, int length) {
+            ensureOutputCapacity(length);
+            System.arraycopy(source, offset, output, outputLength, length);
+            outputLength += length;
+        }
+
+        private void ensureOutputCapacity(int length) {
+            var required = Math.addExact(outputLength, length);
+
+            if (required > output.length) {
+                output = Arrays.copyOf(output, Math.max(required, output.length + (output.length >> 1)));
+            }
+        }
+
+        // The first position at or after a position where a match could start, or a position past the end if there
+        // is none.
+        private int findCandidate(int position) {
+            var firstBytes = pattern.firstBytes;
+
+            if (firstBytes != null) {
+                var searchEnd = pattern.literal != null ? end - pattern.literal.length + 1 : end;
+
+                if (position >= searchEnd) {
+                    return end + 1;
+                }
+
+                var found = indexOf(bytes, position, searchEnd, firstBytes);
+                return found < 0 ? end + 1 : found;
+            }
+
+            if (pattern.hasFirstClass) {
+                while (position < end && !pattern.isInClass(0, bytes[position])) {
+                    position++;
+                }
+
+                return position < end ? position : end + 1;
+            }
+
+            return position;
+        }
+
+        // The end of a match that starts at a position, or NO_MATCH or TOO_COMPLEX.
+        private int matchAt(int s) {
+            var literal = pattern.literal;
+
+            if (literal != null) {
+                if (end - s < literal.length) {
+                    return NO_MATCH;
+                }
+
+                return Arrays.equals(bytes, s, s + literal.length, literal, 0, literal.length)
+                    ? s + literal.length
+                    : NO_MATCH;
+            }
+
+            level = 0;
+            depth = MAX_MATCH_DEPTH;
+            return match(s, 0);
+        }
+
+        private int match(int s, int item) {
+            if (depth == 0) {
+                return TOO_COMPLEX;
+            }
+
+            depth--;
+            var result = matchItems(s, item);
+            depth++;
+            return result;
+        }
+
+        // Runs the items from one onwards, looping over those that need no backtracking and recursing for the rest.
+        private int matchItems(int s, int item) {
+            var items = pattern.items;
+
+            while (item < items.length) {
+                var encoded = items[item];
+
+                switch (getKind(encoded)) {
+                    case KIND_SINGLE -> {
+                        switch (getQuantifier(encoded)) {
+                            case QUANTIFIER_ONE -> {
+                                if (!matchesClass(s, item)) {
+                                    return NO_MATCH;
+                                }
+
+                                s++;
+                                item++;
+                            }
+                            case QUANTIFIER_OPTIONAL -> {
+                                if (matchesClass(s, item)) {
+                                    var result = match(s + 1, item + 1);
+
+                                    if (result != NO_MATCH) {
+                                        return result;
+                                    }
+                                }
+
+                                item++;
+                            }
+                            case QUANTIFIER_GREEDY_STAR -> {
+                                return expandGreedily(s, item);
+                            }
+                            case QUANTIFIER_GREEDY_PLUS -> {
+                                return matchesClass(s, item) ? expandGreedily(s + 1, item) : NO_MATCH;
+                            }
+                            default -> {
+                                return expandLazily(s, item);
+                            }
+                        }
+                    }
+                    case KIND_OPEN_CAPTURE -> {
+                        return startCapture(s, item, CAPTURE_UNFINISHED);
+                    }
+                    case KIND_POSITION_CAPTURE -> {
+                        return startCapture(s, item, CAPTURE_POSITION);
+                    }
+                    case KIND_CLOSE_CAPTURE -> {
+                        return closeCapture(s, item, getArgument(encoded));
+                    }
+                    case KIND_BALANCE -> {
+                        s = matchBalance(s, getArgument(encoded));
+
+                        if (s < 0) {
+                            return NO_MATCH;
+                        }
+
+                        item++;
+                    }
+                    case KIND_FRONTIER -> {
+                        var previous = s == start ? 0 : bytes[s - 1];
+                        var current = s < end ? bytes[s] : 0;
+
+                        if (pattern.isInClass(item, (byte) previous) || !pattern.isInClass(item, (byte) current)) {
+                            return NO_MATCH;
+                        }
+
+                        item++;
+                    }
+                    case KIND_BACK_REFERENCE -> {
+                        s = matchBackReference(s, getArgument(encoded));
+
+                        if (s < 0) {
+                            return NO_MATCH;
+                        }
+
+                        item++;
+                    }
+                    default -> {
+                        return s == end ? s : NO_MATCH;
+                    }
+                }
+            }
+
+            return s;
+        }
+
+        private boolean matchesClass(int s, int item) {
+            return s < end && pattern.isInClass(item, bytes[s]);
+        }
+
+        private int expandGreedily(int s, int item) {
+            var count = 0;
+
+            while (matchesClass(s + count, item)) {
+                count++;
+            }
+
+            // A class at the end of the pattern takes every byte it can without backtracking.
+            if (item + 1 == pattern.items.length) {
+                return s + count;
+            }
+
+            for (; count >= 0; count--) {
+                var result = match(s + count, item + 1);
+
+                if (result != NO_MATCH) {
+                    return result;
+                }
+            }
+
+            return NO_MATCH;
+        }
+
+        private int expandLazily(int s, int item) {
+            for (;;) {
+                var result = match(s, item + 1);
+
+                if (result != NO_MATCH) {
+                    return result;
+                }
+
+                if (!matchesClass(s, item)) {
+                    return NO_MATCH;
+                }
+
+                s++;
+            }
+        }
+
+        private int startCapture(int s, int item, int length) {
+            captureStarts[level] = s;
+            captureLengths[level] = length;
+            level++;
+
+            var result = match(s, item + 1);
+
+            if (result == NO_MATCH) {
+                level--;
+            }
+
+            return result;
+        }
+
+        private int closeCapture(int s, int item, int index) {
+            captureLengths[index] = s - captureStarts[index];
+            var result = match(s, item + 1);
+
+            if (result == NO_MATCH) {
+                captureLengths[index] = CAPTURE_UNFINISHED;
+            }
+
+            return result;
+        }
+
+        private int matchBalance(int s, int argument) {
+            var open = (byte) argument;
+            var close = (byte) (argument >>> 8);
+
+            if (s >= end || bytes[s] != open) {
+                return NO_MATCH;
+            }
+
+            var nesting = 1;
+
+            while (++s < end) {
+                var b = bytes[s];
+
+                if (b == close) {
+                    if (--nesting == 0) {
+                        return s + 1;
+                    }
+                }
+                else if (b == open) {
+                    nesting++;
+                }
+            }
+
+            return NO_MATCH;
+        }
+
+        // A position capture never matches, as in the reference implementation.
+        private int matchBackReference(int s, int index) {
+            var length = captureLengths[index];
+
+            if (length < 0 || end - s < length) {
+                return NO_MATCH;
+            }
+
+            var captureStart = captureStarts[index];
+
+            if (!Arrays.equals(bytes, captureStart, captureStart + length, bytes, s, s + length)) {
+                return NO_MATCH;
+            }
+
+            return s + length;
+        }
+
+        private static final int NO_MATCH = -1;
+        private static final int TOO_COMPLEX = -2;
+
+        private static final int CAPTURE_UNFINISHED = -1;
+        private static final int CAPTURE_POSITION = -2;
+    }
+
+    // Compiles patterns once per call site. A site sees few distinct patterns, nearly always a single constant one,
+    // so the compiled pattern is cached against the pattern string; sites that see more compile each time.
+    @GenerateUncached
+    @GeneratePackagePrivate
+    @ImportStatic(CraterPattern.class)
+    public static abstract class CompileNode extends CraterNode {
+        public abstract CraterPattern execute(CraterString pattern, boolean plain, boolean anchorable);
+
+        public static CompileNode create() {
+            return CraterPatternFactory.CompileNodeGen.create();
+        }
+
+        public static CompileNode getUncached() {
+            return CraterPatternFactory.CompileNodeGen.getUncached();
+        }
+
+        @Specialization(
+            guards = {
+                "plain == cachedPlain",
+                "anchorable == cachedAnchorable",
+                "equalsNode.execute(pattern, cachedPattern)"
+            },
+            limit = "3"
+        )
+        CraterPattern doCached(
+            CraterString pattern,
+            boolean plain,
+            boolean anchorable,
+            @Cached("plain") boolean cachedPlain,
+            @Cached("anchorable") boolean cachedAnchorable,
+            @Cached("pattern") CraterString cachedPattern,
+            @Cached CraterString.EqualsNode equalsNode,
+            @Cached("compile(pattern, plain, anchorable)") CraterPattern cachedCompiledPattern
+        ) {
+            return cachedCompiledPattern;
+        }
+
+        @Specialization(replaces = "doCached")
+        CraterPattern doUncached(CraterString pattern, boolean plain, boolean anchorable) {
+            return compile(pattern, plain, anchorable);
+        }
+    }
+
+    // Converts a capture of the last match into a value: a substring of the subject, which shares its bytes unless it
+    // is short, or the position of a position capture, counting from 1.
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class GetCaptureNode extends CraterNode {
+        public abstract Object execute(Matcher matcher, int index);
+
+        public static GetCaptureNode create() {
+            return CraterPatternFactory.GetCaptureNodeGen.create();
+        }
+
+        public static GetCaptureNode getUncached() {
+            return CraterPatternFactory.GetCaptureNodeGen.getUncached();
+        }
+
+        @Specialization
+        Object doExecute(
+            Matcher matcher,
+            int index,
+            @Cached CraterString.SubstringNode substringNode,
+            @Cached ConditionProfile positionProfile
+        ) {
+            if (positionProfile.profile(matcher.isPositionCapture(index))) {
+                return (long) matcher.getCaptureStart(index) + 1;
+            }
+
+            var captureStart = matcher.getCaptureStart(index);
+            return substringNode.execute(matcher.getSubject(), captureStart, matcher.getCaptureEnd(index));
+        }
+    }
+}
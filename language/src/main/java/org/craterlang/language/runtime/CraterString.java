@@ -15,9 +15,13 @@ import com.oracle.truffle.api.profiles.BranchProfile;
 import com.oracle.truffle.api.profiles.ConditionProfile;
 import com.oracle.truffle.api.profiles.IntValueProfile;
 import org.craterlang.language.CraterNode;
+import org.craterlang.language.util.InternedSet;
 import org.craterlang.language.util.PathProfile;
 
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
 import static com.oracle.truffle.api.ArrayUtils.indexOf;
@@ -34,7 +38,8 @@ import static java.lang.Math.incrementExact;
 import static java.lang.Math.multiplyExact;
 import static java.lang.Math.subtractExact;
 import static java.lang.System.arraycopy;
-import static org.craterlang.language.runtime.CraterMath.hasExactLongValue;
+import static org.craterlang.language.runtime.UnsafeAccess.getIntUnchecked;
+import static org.craterlang.language.runtime.UnsafeAccess.getLongUnchecked;
 
 public final class CraterString implements TruffleObject {
     private Object objectData;
@@ -42,11 +47,42 @@ public final class CraterString implements TruffleObject {
 
     private static final Object TAG_LAZY_LONG = new Object();
     private static final Object TAG_LAZY_DOUBLE = new Object();
+    private static final Object TAG_INLINE = new Object();
 
     private static final byte TAG_IMMEDIATE = 0;
     private static final byte TAG_LAZY_CONCAT = 1;
     private static final byte TAG_LAZY_REPEAT = 2;
     private static final byte TAG_LAZY_REVERSE = 3;
+    private static final byte TAG_LAZY_SUBSTRING = 4;
+
+    // Lets a range of bytes be interned as a string without creating the string if an equal one is interned already.
+    public static final InternedSet.SliceEquivalence<CraterString> INTERNING_EQUIVALENCE =
+        new InternedSet.SliceEquivalence<>() {
+            @Override public int hashCode(byte[] bytes, int offset, int length) {
+                return hashBytes(bytes, offset, length);
+            }
+
+            @Override public boolean equals(CraterString value, byte[] bytes, int offset, int length) {
+                if (value.isInline()) {
+                    return length <= MAX_INLINE_LENGTH && value.primitiveData == packInline(bytes, offset, length);
+                }
+
+                value.forceUncached();
+                var valueBytes = value.getImmediateBytes();
+                return Arrays.equals(valueBytes, 0, valueBytes.length, bytes, offset, offset + length);
+            }
+
+            // The hash is cached right away so that tonumber never rewrites an interned string as a lazy integer.
+            @Override public CraterString create(byte[] bytes, int offset, int length) {
+                var string = fromBytes(bytes, offset, length);
+
+                if (string.isImmediate()) {
+                    string.setImmediateHashCode(hashBytes(bytes, offset, length));
+                }
+
+                return string;
+            }
+        };
 
     @TruffleBoundary
     public void forceUncached() {
@@ -121,9 +157,86 @@ public final class CraterString implements TruffleObject {
 
     void setImmediate(byte[] bytes) {
         objectData = bytes;
-        primitiveData = Long.MAX_VALUE | TAG_IMMEDIATE;
+        primitiveData = Long.MIN_VALUE | TAG_IMMEDIATE;
+    }
+
+    // Strings of up to MAX_INLINE_LENGTH bytes can be packed into primitiveData, with no array at all: the bytes are
+    // laid out from the lowest byte up and the length takes the highest byte. Unused bytes are zero, so two inline
+    // strings are equal exactly when their packed values are. They're unpacked into an array if they're forced.
+    boolean isInline() {
+        return objectData == TAG_INLINE;
+    }
+
+    int getInlineLength() {
+        assert isInline();
+        return (int) (primitiveData >>> 56);
+    }
+
+    // The bytes of the string, without the length.
+    long getInlineData() {
+        assert isInline();
+        return primitiveData & INLINE_DATA_MASK;
+    }
+
+    byte getInlineByte(int index) {
+        assert 0 <= index && index < getInlineLength();
+        return (byte) (primitiveData >>> (index * 8));
+    }
+
+    void setInline(byte[] bytes, int offset, int length) {
+        setInline(packInline(bytes, offset, length));
+    }
+
+    private void setInline(long packed) {
+        objectData = TAG_INLINE;
+        primitiveData = packed;
+    }
+
+    static CraterString createInline(long data, int length) {
+        assert length <= MAX_INLINE_LENGTH && (data & ~((1L << (length * 8)) - 1)) == 0;
+        var result = new CraterString();
+        result.setInline(((long) length << 56) | data);
+        return result;
+    }
+
+    // A string with a copy of the given bytes.
+    public static CraterString fromBytes(byte[] bytes, int offset, int length) {
+        var string = new CraterString();
+
+        if (length <= MAX_INLINE_LENGTH) {
+            string.setInline(bytes, offset, length);
+        }
+        else {
+            string.setImmediate(Arrays.copyOfRange(bytes, offset, offset + length));
+        }
+
+        return string;
+    }
+
+    private static long packInline(byte[] bytes, int offset, int length) {
+        assert length <= MAX_INLINE_LENGTH;
+        var packed = (long) length << 56;
+
+        for (var i = 0; i < length; i++) {
+            packed |= Byte.toUnsignedLong(bytes[offset + i]) << (i * 8);
+        }
+
+        return packed;
+    }
+
+    int copyInlineBytes(byte[] destination, int offset) {
+        var length = getInlineLength();
+
+        for (var i = 0; i < length; i++) {
+            destination[offset + i] = getInlineByte(i);
+        }
+
+        return offset + length;
     }
 
+    static final int MAX_INLINE_LENGTH = 7;
+    private static final long INLINE_DATA_MASK = (1L << 56) - 1;
+
     boolean isLazyConcat() {
         return isExact(objectData, CraterString[].class) && (byte) primitiveData == TAG_LAZY_CONCAT;
     }
@@ -138,8 +251,29 @@ public final class CraterString implements TruffleObject {
         return (int) (primitiveData >>> 8);
     }
 
+    // The number of concatenations on the longest path from this string to a substring that isn't a concatenation.
+    int getLazyConcatDepth() {
+        assert isLazyConcat();
+        return (int) (primitiveData >>> 40);
+    }
+
+    static int getConcatDepth(CraterString string) {
+        return string.isLazyConcat() ? string.getLazyConcatDepth() : 0;
+    }
+
+    static CraterString createLazyConcat(CraterString[] substrings, int length, int depth) {
+        var result = new CraterString();
+        result.objectData = substrings;
+        result.primitiveData = ((long) Math.min(depth, MAX_LAZY_CONCAT_DEPTH) << 40)
+            | (Integer.toUnsignedLong(length) << 8)
+            | TAG_LAZY_CONCAT;
+        return result;
+    }
+
+    private static final int MAX_LAZY_CONCAT_DEPTH = (1 << 24) - 1;
+
     boolean isLazyRepeat() {
-        return objectData instanceof byte[] && (byte) primitiveData == TAG_LAZY_REPEAT;
+        return objectData instanceof CraterString && (byte) primitiveData == TAG_LAZY_REPEAT;
     }
 
     int getLazyRepeatCount() {
@@ -158,7 +292,7 @@ public final class CraterString implements TruffleObject {
     }
 
     boolean isLazyReverse() {
-        return objectData instanceof byte[] && (byte) primitiveData == TAG_LAZY_REVERSE;
+        return objectData instanceof CraterString && (byte) primitiveData == TAG_LAZY_REVERSE;
     }
 
     int getLazyReverseLength() {
@@ -171,6 +305,69 @@ public final class CraterString implements TruffleObject {
         return (CraterString) objectData;
     }
 
+    // A substring shares the bytes of the string it was taken from, instead of copying them. The offset into the bytes
+    // takes 32 bits and the length the top 24, so longer substrings are always copied.
+    boolean isLazySubstring() {
+        return objectData instanceof byte[] && (byte) primitiveData == TAG_LAZY_SUBSTRING;
+    }
+
+    byte[] getLazySubstringBytes() {
+        assert isLazySubstring();
+        return (byte[]) objectData;
+    }
+
+    int getLazySubstringOffset() {
+        assert isLazySubstring();
+        return (int) (primitiveData >>> 8);
+    }
+
+    int getLazySubstringLength() {
+        assert isLazySubstring();
+        return (int) (primitiveData >>> 40);
+    }
+
+    void setLazySubstring(byte[] bytes, int offset, int length) {
+        assert length <= MAX_LAZY_SUBSTRING_LENGTH;
+        objectData = bytes;
+        primitiveData = ((long) length << 40) | (Integer.toUnsignedLong(offset) << 8) | TAG_LAZY_SUBSTRING;
+    }
+
+    private static final int MAX_LAZY_SUBSTRING_LENGTH = (1 << 24) - 1;
+
+    // Whether a value is a substring view that should be copied before a table keeps it. Tables can hold a view long
+    // after the code that took it is done, so a view is copied unless it covers most of its parent's bytes, which
+    // keeping it would pin.
+    static boolean isViewWorthCopyingToRetain(Object value) {
+        if (!(value instanceof CraterString string) || !string.isLazySubstring()) {
+            return false;
+        }
+
+        return string.getLazySubstringBytes().length / RETAINED_VIEW_MAX_PARENT_RATIO > string.getLazySubstringLength();
+    }
+
+    private static final int RETAINED_VIEW_MAX_PARENT_RATIO = 2;
+
+    // Immediate strings and substrings are flat: their bytes are a range of a single array, which can be read without
+    // forcing the string.
+    boolean isFlat() {
+        return isImmediate() || isLazySubstring();
+    }
+
+    byte[] getFlatBytes() {
+        assert isFlat();
+        return (byte[]) objectData;
+    }
+
+    int getFlatOffset() {
+        assert isFlat();
+        return isLazySubstring() ? getLazySubstringOffset() : 0;
+    }
+
+    int getFlatLength() {
+        assert isFlat();
+        return isLazySubstring() ? getLazySubstringLength() : getImmediateLength();
+    }
+
     @GenerateUncached
     @GeneratePackagePrivate
     public static abstract class LengthNode extends CraterNode {
@@ -199,6 +396,26 @@ public final class CraterString implements TruffleObject {
             return string.getLazyReverseLength();
         }
 
+        @Specialization(guards = "string.isLazySubstring()")
+        int doLazySubstring(CraterString string) {
+            return string.getLazySubstringLength();
+        }
+
+        @Specialization(guards = "string.isInline()")
+        int doInline(CraterString string) {
+            return string.getInlineLength();
+        }
+
+        @Specialization(guards = "string.isLazyLong()")
+        int doLazyLong(CraterString string) {
+            return NumberFormatter.getLongLength(string.getLazyLongValue());
+        }
+
+        @Specialization(guards = "string.isLazyDouble()")
+        int doLazyDouble(CraterString string) {
+            return NumberFormatter.getDoubleLength(string.getLazyDoubleValue());
+        }
+
         @Fallback
         int doOther(CraterString string, @Cached ForceNode forceNode) {
             forceNode.execute(string);
@@ -219,21 +436,44 @@ public final class CraterString implements TruffleObject {
             return CraterStringFactory.HashCodeNodeGen.getUncached();
         }
 
-        @Specialization
-        int doExecute(CraterString string, @Cached ForceNode forceNode, @Cached BranchProfile missingHashCodeProfile) {
-            forceNode.execute(string);
-
+        @Specialization(guards = "string.isImmediate()")
+        int doImmediate(CraterString string, @Cached BranchProfile missingHashCodeProfile) {
             if (!string.hasImmediateHashCode()) {
                 missingHashCodeProfile.enter();
-                string.setImmediateHashCode(hashCodeBoundary(string.getImmediateBytes()));
+                var bytes = string.getImmediateBytes();
+                string.setImmediateHashCode(hashCodeBoundary(bytes, 0, bytes.length));
             }
 
             return string.getImmediateHashCode();
         }
 
+        @Specialization(guards = "string.isInline()")
+        int doInline(CraterString string) {
+            return hashInline(string.getInlineData(), string.getInlineLength());
+        }
+
+        // Ropes have no room to cache their hash code, but hashing them chunk-wise still beats flattening them, which
+        // would copy every byte before hashing it anyway.
+        @Specialization(guards = "string.isLazyConcat() || string.isLazyRepeat()")
+        int doRope(CraterString string, @Cached LengthNode lengthNode) {
+            return hashChunks(string, lengthNode.execute(string));
+        }
+
+        // Substring views are forced too: a hashed string is usually becoming a table key, where a view would pin the
+        // array of its parent and be rehashed in full on every lookup, while a copy caches its hash code.
+        @Fallback
+        int doForced(
+            CraterString string,
+            @Cached ForceNode forceNode,
+            @Cached BranchProfile missingHashCodeProfile
+        ) {
+            forceNode.execute(string);
+            return doImmediate(string, missingHashCodeProfile);
+        }
+
         @TruffleBoundary(allowInlining = true)
-        private static int hashCodeBoundary(byte[] bytes) {
-            return Arrays.hashCode(bytes);
+        private static int hashCodeBoundary(byte[] bytes, int offset, int length) {
+            return hashBytes(bytes, offset, length);
         }
     }
 
@@ -254,6 +494,13 @@ public final class CraterString implements TruffleObject {
         @Specialization(guards = "string.isImmediate()")
         void doImmediate(CraterString string) {}
 
+        @Specialization(guards = "string.isInline()")
+        void doInline(CraterString string) {
+            var bytes = new byte[string.getInlineLength()];
+            string.copyInlineBytes(bytes, 0);
+            string.setImmediate(bytes);
+        }
+
         @Specialization(guards = {"string.isLazyLong()", "string.getLazyLongValue() == cachedValue"})
         void doConstantLazyLong(
             CraterString string,
@@ -297,7 +544,11 @@ public final class CraterString implements TruffleObject {
         }
     }
 
+    // Concatenations up to MAX_INLINE_CONCAT_DEPTH deep are copied by a tree of these nodes, which compiles to straight
+    // copies when the shape of the rope is stable. Deeper ones are copied by an iterative walk, so that neither the
+    // node tree nor the stack grows with the depth of the rope.
     @GenerateUncached
+    @ImportStatic(CraterString.class)
     static abstract class AppendSubstringNode extends CraterNode {
         public abstract int execute(CraterString substring, byte[] destination, int offset);
 
@@ -305,6 +556,11 @@ public final class CraterString implements TruffleObject {
             return CraterStringFactory.AppendSubstringNodeGen.create();
         }
 
+        @Specialization(guards = {"string.isLazyConcat()", "string.getLazyConcatDepth() > MAX_INLINE_CONCAT_DEPTH"})
+        int doDeepLazyConcat(CraterString string, byte[] destination, int offset) {
+            return appendIteratively(string, destination, offset);
+        }
+
         @Specialization(guards = "string.isImmediate()")
         int doImmediate(CraterString string, byte[] destination, int offset) {
             var bytes = string.getImmediateBytes();
@@ -312,10 +568,35 @@ public final class CraterString implements TruffleObject {
             return offset + bytes.length;
         }
 
+        @Specialization(guards = "string.isInline()")
+        int doInline(CraterString string, byte[] destination, int offset) {
+            return string.copyInlineBytes(destination, offset);
+        }
+
+        // Numbers are written straight into the destination, so a number inside a rope never needs an array of its
+        // own.
+        @Specialization(guards = "string.isLazyLong()")
+        int doLazyLong(CraterString string, byte[] destination, int offset) {
+            return NumberFormatter.writeLong(string.getLazyLongValue(), destination, offset);
+        }
+
+        @Specialization(guards = "string.isLazyDouble()")
+        int doLazyDouble(CraterString string, byte[] destination, int offset) {
+            return NumberFormatter.writeDouble(string.getLazyDoubleValue(), destination, offset);
+        }
+
+        @Specialization(guards = "string.isLazySubstring()")
+        int doLazySubstring(CraterString string, byte[] destination, int offset) {
+            var length = string.getLazySubstringLength();
+            arraycopy(string.getLazySubstringBytes(), string.getLazySubstringOffset(), destination, offset, length);
+            return offset + length;
+        }
+
         @ExplodeLoop
         @Specialization(
             guards = {
                 "string.isLazyConcat()",
+                "string.getLazyConcatDepth() <= MAX_INLINE_CONCAT_DEPTH",
                 "substrings.length == appendSubstringNodes.length",
             },
             limit = "1"
@@ -334,7 +615,10 @@ public final class CraterString implements TruffleObject {
             return offset;
         }
 
-        @Specialization(guards = "string.isLazyConcat()", replaces = "doExplodedLazyConcat")
+        @Specialization(
+            guards = {"string.isLazyConcat()", "string.getLazyConcatDepth() <= MAX_INLINE_CONCAT_DEPTH"},
+            replaces = "doExplodedLazyConcat"
+        )
         int doLazyConcat(
             CraterString string,
             byte[] destination,
@@ -391,8 +675,45 @@ public final class CraterString implements TruffleObject {
             for (var i = 0; i < nodes.length; i++) nodes[i] = AppendSubstringNode.create();
             return nodes;
         }
+
+        @TruffleBoundary
+        private static int appendIteratively(CraterString string, byte[] destination, int offset) {
+            var pending = new ArrayDeque<CraterString>();
+            pending.push(string);
+
+            while (!pending.isEmpty()) {
+                var substring = pending.pop();
+
+                if (substring.isLazyConcat()) {
+                    var substrings = substring.getLazyConcatSubstrings();
+
+                    for (var i = substrings.length - 1; i >= 0; i--) {
+                        pending.push(substrings[i]);
+                    }
+                }
+                else if (substring.isInline()) {
+                    offset = substring.copyInlineBytes(destination, offset);
+                }
+                else if (substring.isLazyLong()) {
+                    offset = NumberFormatter.writeLong(substring.getLazyLongValue(), destination, offset);
+                }
+                else if (substring.isLazyDouble()) {
+                    offset = NumberFormatter.writeDouble(substring.getLazyDoubleValue(), destination, offset);
+                }
+                else {
+                    substring.forceUncached();
+                    var bytes = substring.getImmediateBytes();
+                    arraycopy(bytes, 0, destination, offset, bytes.length);
+                    offset += bytes.length;
+                }
+            }
+
+            return offset;
+        }
     }
 
+    static final int MAX_INLINE_CONCAT_DEPTH = 4;
+
     @GenerateUncached
     @GeneratePackagePrivate
     public static abstract class EqualsNode extends CraterNode {
@@ -417,86 +738,147 @@ public final class CraterString implements TruffleObject {
         }
     }
 
+    // Orders strings by their bytes compared as unsigned values, as the reference implementation's strcoll does in the
+    // C locale.
     @GenerateUncached
-    static abstract class DeepEqualsNode extends CraterNode {
-        abstract boolean execute(CraterString lhs, CraterString rhs);
+    @GeneratePackagePrivate
+    public static abstract class CompareNode extends CraterNode {
+        public abstract int execute(CraterString lhs, CraterString rhs);
 
-        @Specialization(guards = {"lhs.isLazyLong()", "rhs.isLazyLong()"})
-        boolean doLazyLongs(CraterString lhs, CraterString rhs) {
-            return lhs.getLazyLongValue() == rhs.getLazyLongValue();
+        public static CompareNode create() {
+            return CraterStringFactory.CompareNodeGen.create();
         }
 
-        @Specialization(guards = {"lhs.isLazyDouble()", "rhs.isLazyDouble()"})
-        boolean doLazyDoubles(CraterString lhs, CraterString rhs) {
-            if (isNaN(lhs.getLazyDoubleValue()) && isNaN(rhs.getLazyDoubleValue())) {
-                return true;
-            }
+        public static CompareNode getUncached() {
+            return CraterStringFactory.CompareNodeGen.getUncached();
+        }
 
-            return lhs.getLazyDoubleValue() == rhs.getLazyDoubleValue();
+        @Specialization(guards = "lhs == rhs")
+        int doIdentical(CraterString lhs, CraterString rhs) {
+            return 0;
         }
 
-        @Specialization(guards = {"lhs.isLazyLong()", "rhs.isLazyDouble()"})
-        boolean doLazyLongAndLazyDouble(CraterString lhs, CraterString rhs) {
-            return hasExactLongValue(rhs.getLazyDoubleValue())
-                && lhs.getLazyLongValue() == (long) rhs.getLazyDoubleValue();
+        @Specialization(guards = {"lhs.isInline()", "rhs.isInline()"})
+        int doInline(CraterString lhs, CraterString rhs) {
+            return compareInline(lhs, rhs);
         }
 
-        @Specialization(guards = {"lhs.isLazyDouble()", "rhs.isLazyLong()"})
-        boolean doLazyDoubleAndLazyLong(CraterString lhs, CraterString rhs) {
-            return hasExactLongValue(lhs.getLazyDoubleValue())
-                && (long) lhs.getLazyDoubleValue() == rhs.getLazyLongValue();
+        @Specialization(guards = {"lhs.isFlat()", "rhs.isFlat()"})
+        int doFlat(CraterString lhs, CraterString rhs) {
+            return compareFlat(lhs, rhs);
         }
 
-        @ExplodeLoop
-        @Specialization(
-            guards = {
-                "lhs.isLazyConcat()",
-                "rhs.isLazyConcat()",
-                "lhs.getLazyConcatLength() == rhs.getLazyConcatLength()",
-                "lhsSubstrings.length == rhsSubstrings.length",
-                "lhsSubstrings.length == innerEqualsNodes.length",
-            },
-            limit = "1"
-        )
-        boolean doExplodedLazyConcats(
-            CraterString lhs,
-            CraterString rhs,
-            @Bind("lhs.getLazyConcatSubstrings()") CraterString[] lhsSubstrings,
-            @Bind("rhs.getLazyConcatSubstrings()") CraterString[] rhsSubstrings,
-            @Cached("createInnerEqualsNodes(lhsSubstrings.length)") EqualsNode[] innerEqualsNodes
-        ) {
-            for (var i = 0; i < innerEqualsNodes.length; i++) {
-                if (!innerEqualsNodes[i].execute(lhsSubstrings[i], rhsSubstrings[i])) {
-                    return false;
-                }
-            }
+        @Specialization(guards = {"lhs.isInline()", "rhs.isFlat()"})
+        int doInlineAndFlat(CraterString lhs, CraterString rhs) {
+            return compareInlineToFlat(lhs, rhs);
+        }
 
-            return true;
+        @Specialization(guards = {"lhs.isFlat()", "rhs.isInline()"})
+        int doFlatAndInline(CraterString lhs, CraterString rhs) {
+            return -compareInlineToFlat(rhs, lhs);
         }
 
-        @Specialization(
-            guards = {
-                "lhs.isLazyConcat()",
-                "rhs.isLazyConcat()",
-                "lhs.getLazyConcatLength() == rhs.getLazyConcatLength()",
-                "lhsSubstrings.length == rhsSubstrings.length"
-            },
-            replaces = "doExplodedLazyConcats"
-        )
-        boolean doLazyConcats(
+        @Fallback
+        int doForced(
             CraterString lhs,
             CraterString rhs,
-            @Bind("lhs.getLazyConcatSubstrings()") CraterString[] lhsSubstrings,
-            @Bind("rhs.getLazyConcatSubstrings()") CraterString[] rhsSubstrings,
-            @Cached EqualsNode innerEqualsNode
+            @Cached ForceNode lhsForceNode,
+            @Cached ForceNode rhsForceNode
         ) {
-            for (var i = 0; i < lhsSubstrings.length; i++) {
-                if (!innerEqualsNode.execute(lhsSubstrings[i], rhsSubstrings[i])) {
-                    return false;
-                }
+            lhsForceNode.execute(lhs);
+            rhsForceNode.execute(rhs);
+            return compareImmediate(lhs, rhs);
+        }
+    }
+
+    @TruffleBoundary
+    static int compareImmediate(CraterString lhs, CraterString rhs) {
+        return Arrays.compareUnsigned(lhs.getImmediateBytes(), rhs.getImmediateBytes());
+    }
+
+    // Compares strings that are each inline or flat, without forcing either.
+    @TruffleBoundary
+    static int compareInlineOrFlat(CraterString lhs, CraterString rhs) {
+        if (lhs.isInline()) {
+            return rhs.isInline() ? compareInline(lhs, rhs) : compareInlineToFlat(lhs, rhs);
+        }
+
+        return rhs.isInline() ? -compareInlineToFlat(rhs, lhs) : compareFlat(lhs, rhs);
+    }
+
+    // Reversing the bytes puts the first byte of the string in the most significant position, and unused bytes are
+    // zero, so when one string is a prefix of the other the shorter one comes first only by its length.
+    static int compareInline(CraterString lhs, CraterString rhs) {
+        var result = Long.compareUnsigned(
+            Long.reverseBytes(lhs.getInlineData()),
+            Long.reverseBytes(rhs.getInlineData())
+        );
+
+        return result != 0 ? result : Integer.compare(lhs.getInlineLength(), rhs.getInlineLength());
+    }
+
+    private static int compareInlineToFlat(CraterString lhs, CraterString rhs) {
+        var lhsLength = lhs.getInlineLength();
+        var rhsBytes = rhs.getFlatBytes();
+        var rhsOffset = rhs.getFlatOffset();
+        var rhsLength = rhs.getFlatLength();
+        var length = Math.min(lhsLength, rhsLength);
+
+        for (var i = 0; i < length; i++) {
+            var result = Byte.compareUnsigned(lhs.getInlineByte(i), rhsBytes[rhsOffset + i]);
+
+            if (result != 0) {
+                return result;
             }
+        }
 
-            return true;
+        return Integer.compare(lhsLength, rhsLength);
+    }
+
+    @TruffleBoundary
+    static int compareFlat(CraterString lhs, CraterString rhs) {
+        var lhsOffset = lhs.getFlatOffset();
+        var rhsOffset = rhs.getFlatOffset();
+
+        return Arrays.compareUnsigned(
+            lhs.getFlatBytes(),
+            lhsOffset,
+            lhsOffset + lhs.getFlatLength(),
+            rhs.getFlatBytes(),
+            rhsOffset,
+            rhsOffset + rhs.getFlatLength()
+        );
+    }
+
+    @GenerateUncached
+    static abstract class DeepEqualsNode extends CraterNode {
+        abstract boolean execute(CraterString lhs, CraterString rhs);
+
+        @Specialization(guards = {"lhs.isInline()", "rhs.isInline()"})
+        boolean doInline(CraterString lhs, CraterString rhs) {
+            return lhs.primitiveData == rhs.primitiveData;
+        }
+
+        @Specialization(guards = {"lhs.isLazyLong()", "rhs.isLazyLong()"})
+        boolean doLazyLongs(CraterString lhs, CraterString rhs) {
+            return lhs.getLazyLongValue() == rhs.getLazyLongValue();
+        }
+
+        // Doubles are only written to 14 digits, so different doubles may still give equal strings.
+        @Specialization(guards = {"lhs.isLazyDouble()", "rhs.isLazyDouble()"})
+        boolean doLazyDoubles(CraterString lhs, CraterString rhs) {
+            return NumberFormatter.formatEqually(lhs.getLazyDoubleValue(), rhs.getLazyDoubleValue());
+        }
+
+        // Doubles always format with a fraction or an exponent, which integers never have.
+        @Specialization(guards = {"lhs.isLazyLong()", "rhs.isLazyDouble()"})
+        boolean doLazyLongAndLazyDouble(CraterString lhs, CraterString rhs) {
+            return false;
+        }
+
+        @Specialization(guards = {"lhs.isLazyDouble()", "rhs.isLazyLong()"})
+        boolean doLazyDoubleAndLazyLong(CraterString lhs, CraterString rhs) {
+            return false;
         }
 
         @Specialization(guards = {
@@ -515,18 +897,38 @@ public final class CraterString implements TruffleObject {
             "lhs.getLazyReverseLength() == rhs.getLazyReverseLength()"
         })
         boolean doLazyReversals(CraterString lhs, CraterString rhs, @Cached EqualsNode innerEqualsNode) {
-            return innerEqualsNode.execute(lhs.getLazyReverseChild(), rhs.getLazyRepeatChild());
+            return innerEqualsNode.execute(lhs.getLazyReverseChild(), rhs.getLazyReverseChild());
         }
 
+        @Specialization(guards = {"lhs.isFlat()", "rhs.isFlat()"})
+        boolean doFlat(CraterString lhs, CraterString rhs) {
+            var lhsOffset = lhs.getFlatOffset();
+            var rhsOffset = rhs.getFlatOffset();
+            var length = lhs.getFlatLength();
+
+            if (length != rhs.getFlatLength()) {
+                return false;
+            }
+
+            return Arrays.equals(
+                lhs.getFlatBytes(),
+                lhsOffset,
+                lhsOffset + length,
+                rhs.getFlatBytes(),
+                rhsOffset,
+                rhsOffset + length
+            );
+        }
+
+        // Concatenations of equal strings may be split differently, so ropes are compared chunk by chunk rather than
+        // substring by substring.
         @Fallback
-        boolean doBytewise(
+        boolean doChunkwise(
             CraterString lhs,
             CraterString rhs,
             @Cached LengthNode lhsLengthNode,
             @Cached LengthNode rhsLengthNode,
-            @Cached ConditionProfile lengthMismatchProfile,
-            @Cached ForceNode lhsForceNode,
-            @Cached ForceNode rhsForceNode
+            @Cached ConditionProfile lengthMismatchProfile
         ) {
             var lhsLength = lhsLengthNode.execute(lhs);
             var rhsLength = rhsLengthNode.execute(rhs);
@@ -535,16 +937,7 @@ public final class CraterString implements TruffleObject {
                 return false;
             }
 
-            lhsForceNode.execute(lhs);
-            rhsForceNode.execute(rhs);
-
-            return Arrays.equals(lhs.getImmediateBytes(), rhs.getImmediateBytes());
-        }
-
-        static EqualsNode[] createInnerEqualsNodes(int length) {
-            var nodes = new EqualsNode[length];
-            for (var i = 0; i < nodes.length; i++) nodes[i] = EqualsNode.create();
-            return nodes;
+            return equalsChunks(lhs, rhs);
         }
     }
 
@@ -566,11 +959,16 @@ public final class CraterString implements TruffleObject {
             return string.getLazyLongValue();
         }
 
-        @Specialization(guards = "string.isLazyDouble()")
+        // A double that doesn't survive being written to 14 digits has to be parsed from what was written.
+        @Specialization(guards = {"string.isLazyDouble()", "formatsExactly(string.getLazyDoubleValue())"})
         double doLazyDouble(CraterString string) {
             return string.getLazyDoubleValue();
         }
 
+        static boolean formatsExactly(double value) {
+            return NumberFormatter.formatsExactly(value);
+        }
+
         @Fallback
         Object doForceAndParse(CraterString string, @Cached ForceAndParseNode forceAndParseNode) {
             return forceAndParseNode.execute(string);
@@ -589,25 +987,54 @@ public final class CraterString implements TruffleObject {
                 return parsed;
             }
 
+            // Flat strings are parsed where their bytes are, and inline integers straight from their packed bytes. An
+            // array-backed string that holds exactly the decimal form of an integer becomes a lazy integer, so that it
+            // is never parsed again. Strings with a cached hash code have been used as keys, and keep their bytes.
             @Specialization(replaces = "doConstant")
-            Object doDynamic(CraterString string, @Cached ForceNode forceNode) {
-                forceNode.execute(string);
+            Object doDynamic(
+                CraterString string,
+                @Cached ForceNode forceNode,
+                @Cached ConditionProfile inlineIntegerProfile,
+                @Cached ConditionProfile rememberProfile
+            ) {
+                if (inlineIntegerProfile.profile(string.isInline() && isInlineInteger(string))) {
+                    return parseInlineInteger(string);
+                }
+
+                if (!string.isFlat()) {
+                    forceNode.execute(string);
+                }
 
-                var result = parseNumber(string.getImmediateBytes());
+                var bytes = string.getFlatBytes();
+                var offset = string.getFlatOffset();
+                var length = string.getFlatLength();
+                var result = parseNumber(bytes, offset, offset + length);
 
                 if (result == null) {
                     transferToInterpreter();
                     throw error("");
                 }
 
+                if (rememberProfile.profile(result instanceof Long && string.isImmediate())) {
+                    rememberInteger(string, (long) result);
+                }
+
                 return result;
             }
 
             Object parseForCache(CraterString string) {
                 neverPartOfCompilation();
 
-                string.forceUncached();
-                var result = parseNumber(string.getImmediateBytes());
+                if (string.isInline() && isInlineInteger(string)) {
+                    return parseInlineInteger(string);
+                }
+
+                if (!string.isFlat()) {
+                    string.forceUncached();
+                }
+
+                var offset = string.getFlatOffset();
+                var result = parseNumber(string.getFlatBytes(), offset, offset + string.getFlatLength());
 
                 if (result == null) {
                     throw error("");
@@ -714,9 +1141,194 @@ public final class CraterString implements TruffleObject {
 
     @GenerateUncached
     @GeneratePackagePrivate
-    public static abstract class ConcatNode extends CraterNode {
-        public abstract CraterString execute(CraterString lhs, CraterString rhs);
+    public static abstract class FromLongNode extends CraterNode {
+        public abstract CraterString execute(long value);
 
+        public static FromLongNode create() {
+            return CraterStringFactory.FromLongNodeGen.create();
+        }
+
+        public static FromLongNode getUncached() {
+            return CraterStringFactory.FromLongNodeGen.getUncached();
+        }
+
+        @Specialization
+        CraterString doLong(long value, @Cached ConditionProfile cachedProfile) {
+            var cachedString = getLanguage().getSmallIntegerString(value);
+
+            if (cachedProfile.profile(cachedString != null)) {
+                return cachedString;
+            }
+
+            var string = new CraterString();
+            string.objectData = TAG_LAZY_LONG;
+            string.primitiveData = value;
+            return string;
+        }
+    }
+
+    // The substring of the bytes from start, inclusive, to end, exclusive. Single bytes come from the language's shared
+    // strings and other short substrings are copied; longer ones share the bytes of the string, or of the string that
+    // it is itself a substring of, and are only copied if they are forced or stored in a table. Substrings that are
+    // tiny next to the array they would share are copied up front, since even a short-lived view of them could keep
+    // a huge array alive.
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class SubstringNode extends CraterNode {
+        public abstract CraterString execute(CraterString string, int start, int end);
+
+        public static SubstringNode create() {
+            return CraterStringFactory.SubstringNodeGen.create();
+        }
+
+        public static SubstringNode getUncached() {
+            return CraterStringFactory.SubstringNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "string.isInline()")
+        CraterString doInline(
+            CraterString string,
+            int start,
+            int end,
+            @Cached ConditionProfile singleByteProfile
+        ) {
+            var length = end - start;
+            assert 0 <= start && start <= end && end <= string.getInlineLength();
+
+            if (singleByteProfile.profile(length == 1)) {
+                return getLanguage().getSingleByteString(string.getInlineByte(start));
+            }
+
+            return createInline((string.getInlineData() >>> (start * 8)) & ((1L << (length * 8)) - 1), length);
+        }
+
+        @Specialization(guards = "!string.isInline()")
+        CraterString doExecute(
+            CraterString string,
+            int start,
+            int end,
+            @Cached ForceNode forceNode,
+            @Cached ConditionProfile singleByteProfile,
+            @Cached ConditionProfile inlineProfile,
+            @Cached ConditionProfile wholeStringProfile,
+            @Cached ConditionProfile copyProfile
+        ) {
+            if (!string.isLazySubstring()) {
+                forceNode.execute(string);
+            }
+
+            var length = string.getFlatLength();
+            assert 0 <= start && start <= end && end <= length;
+
+            if (wholeStringProfile.profile(start == 0 && end == length)) {
+                return string;
+            }
+
+            var bytes = string.getFlatBytes();
+            var offset = string.getFlatOffset() + start;
+            var substringLength = end - start;
+
+            if (singleByteProfile.profile(substringLength == 1)) {
+                return getLanguage().getSingleByteString(bytes[offset]);
+            }
+
+            var result = new CraterString();
+
+            if (inlineProfile.profile(substringLength <= MAX_INLINE_LENGTH)) {
+                result.setInline(bytes, offset, substringLength);
+            }
+            else if (copyProfile.profile(shouldCopy(bytes.length, substringLength))) {
+                result.setImmediate(Arrays.copyOfRange(bytes, offset, offset + substringLength));
+            }
+            else {
+                result.setLazySubstring(bytes, offset, substringLength);
+            }
+
+            return result;
+        }
+
+        private static boolean shouldCopy(int parentLength, int length) {
+            if (length <= SUBSTRING_COPY_MAX_LENGTH || length > MAX_LAZY_SUBSTRING_LENGTH) {
+                return true;
+            }
+
+            return parentLength / VIEW_MAX_PARENT_RATIO > length;
+        }
+
+        private static final int SUBSTRING_COPY_MAX_LENGTH = 16;
+        private static final int VIEW_MAX_PARENT_RATIO = 64;
+    }
+
+    // Joins strings with a separator into a single immediate string. The total length is computed up front, so that the
+    // bytes are written into one exactly-sized array rather than through a chain of intermediate concatenations.
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class JoinNode extends CraterNode {
+        public abstract CraterString execute(CraterString[] parts, CraterString separator);
+
+        public static JoinNode create() {
+            return CraterStringFactory.JoinNodeGen.create();
+        }
+
+        public static JoinNode getUncached() {
+            return CraterStringFactory.JoinNodeGen.getUncached();
+        }
+
+        @Specialization
+        CraterString doJoin(
+            CraterString[] parts,
+            CraterString separator,
+            @Cached LengthNode partLengthNode,
+            @Cached LengthNode separatorLengthNode,
+            @Cached AppendSubstringNode appendPartNode,
+            @Cached AppendSubstringNode appendSeparatorNode,
+            @Cached ConditionProfile emptySeparatorProfile
+        ) {
+            var separatorLength = separatorLengthNode.execute(separator);
+            var totalLength = parts.length > 1 ? multiplyExact(separatorLength, parts.length - 1) : 0;
+
+            for (var part : parts) {
+                totalLength = addExact(totalLength, partLengthNode.execute(part));
+            }
+
+            var bytes = new byte[totalLength];
+            var offset = 0;
+            var hasSeparator = !emptySeparatorProfile.profile(separatorLength == 0);
+
+            for (var i = 0; i < parts.length; i++) {
+                if (hasSeparator && i != 0) {
+                    offset = appendSeparatorNode.execute(separator, bytes, offset);
+                }
+
+                offset = appendPartNode.execute(parts[i], bytes, offset);
+            }
+
+            assert offset == totalLength;
+
+            var result = new CraterString();
+            result.setImmediate(bytes);
+            return result;
+        }
+    }
+
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class ConcatNode extends CraterNode {
+        public abstract CraterString execute(CraterString lhs, CraterString rhs);
+
+        @Specialization(guards = {
+            "lhs.isInline()",
+            "rhs.isInline()",
+            "lhs.getInlineLength() + rhs.getInlineLength() <= MAX_INLINE_LENGTH"
+        })
+        CraterString doInline(CraterString lhs, CraterString rhs) {
+            var lhsLength = lhs.getInlineLength();
+            var data = lhs.getInlineData() | (rhs.getInlineData() << (lhsLength * 8));
+            return createInline(data, lhsLength + rhs.getInlineLength());
+        }
+
+        // Concatenations whose substrings are all at the same depth are merged into one node while it has room, as in
+        // a B-tree. Otherwise, the result is balanced by concatBalanced.
         @Specialization(guards = {"lhs.isLazyConcat()", "rhs.isLazyConcat()"})
         CraterString doDualConcat(
             CraterString lhs,
@@ -724,30 +1336,27 @@ public final class CraterString implements TruffleObject {
             @Cached IntValueProfile lhsSubstringsLengthProfile,
             @Cached IntValueProfile rhsSubstringsLengthProfile,
             @Cached IntValueProfile totalSubstringsProfile,
-            @Cached ConditionProfile aboveMaxSubstringsProfile
+            @Cached ConditionProfile unmergeableProfile
         ) {
             var lhsSubstrings = lhs.getLazyConcatSubstrings();
             var rhsSubstrings = rhs.getLazyConcatSubstrings();
             var lhsSubstringsLength = lhsSubstringsLengthProfile.profile(lhsSubstrings.length);
             var rhsSubstringsLength = rhsSubstringsLengthProfile.profile(rhsSubstrings.length);
             var totalSubstrings = totalSubstringsProfile.profile(addExact(lhsSubstringsLength, rhsSubstringsLength));
-            var totalLength = addExact(lhs.getLazyConcatLength(), rhs.getLazyConcatLength());
-
-            CraterString[] newSubstrings;
-
-            if (aboveMaxSubstringsProfile.profile(totalSubstrings > LAZY_CONCAT_MAX_SUBSTRINGS)) {
-                newSubstrings = new CraterString[]{lhs, rhs};
-            }
-            else {
-                newSubstrings = new CraterString[totalSubstrings];
-                arraycopy(lhsSubstrings, 0, newSubstrings, 0, lhsSubstringsLength);
-                arraycopy(rhsSubstrings, 0, newSubstrings, lhsSubstringsLength, rhsSubstringsLength);
+            var lhsLength = lhs.getLazyConcatLength();
+            var rhsLength = rhs.getLazyConcatLength();
+            var depth = lhs.getLazyConcatDepth();
+
+            if (unmergeableProfile.profile(
+                totalSubstrings > LAZY_CONCAT_MAX_SUBSTRINGS || depth != 1 || rhs.getLazyConcatDepth() != 1
+            )) {
+                return concatBalanced(lhs, rhs, lhsLength, rhsLength);
             }
 
-            var result = new CraterString();
-            result.objectData = newSubstrings;
-            result.primitiveData = (Integer.toUnsignedLong(totalLength) << 8) | TAG_LAZY_CONCAT;
-            return result;
+            var newSubstrings = new CraterString[totalSubstrings];
+            arraycopy(lhsSubstrings, 0, newSubstrings, 0, lhsSubstringsLength);
+            arraycopy(rhsSubstrings, 0, newSubstrings, lhsSubstringsLength, rhsSubstringsLength);
+            return createLazyConcat(newSubstrings, addExact(lhsLength, rhsLength), depth);
         }
 
         @Specialization(guards = {"lhs.isLazyConcat()", "!rhs.isLazyConcat()"})
@@ -756,27 +1365,23 @@ public final class CraterString implements TruffleObject {
             CraterString rhs,
             @Cached IntValueProfile lhsSubstringsLengthProfile,
             @Cached LengthNode rhsLengthNode,
-            @Cached ConditionProfile aboveMaxSubstringsProfile
+            @Cached ConditionProfile unmergeableProfile
         ) {
             var lhsSubstrings = lhs.getLazyConcatSubstrings();
             var lhsSubstringsLength = lhsSubstringsLengthProfile.profile(lhsSubstrings.length);
             var totalSubstrings = incrementExact(lhsSubstringsLength);
-            var totalLength = addExact(lhs.getLazyConcatLength(), rhsLengthNode.execute(rhs));
-
-            CraterString[] newSubstrings;
+            var lhsLength = lhs.getLazyConcatLength();
+            var rhsLength = rhsLengthNode.execute(rhs);
 
-            if (aboveMaxSubstringsProfile.profile(totalSubstrings > LAZY_CONCAT_MAX_SUBSTRINGS)) {
-                newSubstrings = new CraterString[]{lhs, rhs};
-            }
-            else {
-                newSubstrings = Arrays.copyOf(lhsSubstrings, totalSubstrings);
-                newSubstrings[totalSubstrings - 1] = rhs;
+            if (unmergeableProfile.profile(
+                totalSubstrings > LAZY_CONCAT_MAX_SUBSTRINGS || lhs.getLazyConcatDepth() != 1
+            )) {
+                return concatBalanced(lhs, rhs, lhsLength, rhsLength);
             }
 
-            var result = new CraterString();
-            result.objectData = newSubstrings;
-            result.primitiveData = (Integer.toUnsignedLong(totalLength) << 8) | TAG_LAZY_CONCAT;
-            return result;
+            var newSubstrings = Arrays.copyOf(lhsSubstrings, totalSubstrings);
+            newSubstrings[totalSubstrings - 1] = rhs;
+            return createLazyConcat(newSubstrings, addExact(lhsLength, rhsLength), 1);
         }
 
         @Specialization(guards = {"!lhs.isLazyConcat()", "rhs.isLazyConcat()"})
@@ -785,28 +1390,24 @@ public final class CraterString implements TruffleObject {
             CraterString rhs,
             @Cached IntValueProfile rhsSubstringsLengthProfile,
             @Cached LengthNode lhsLengthNode,
-            @Cached ConditionProfile aboveMaxSubstringsProfile
+            @Cached ConditionProfile unmergeableProfile
         ) {
             var rhsSubstrings = rhs.getLazyConcatSubstrings();
             var rhsSubstringsLength = rhsSubstringsLengthProfile.profile(rhsSubstrings.length);
             var totalSubstrings = incrementExact(rhsSubstringsLength);
-            var totalLength = addExact(lhsLengthNode.execute(rhs), rhs.getLazyConcatLength());
-
-            CraterString[] newSubstrings;
+            var lhsLength = lhsLengthNode.execute(lhs);
+            var rhsLength = rhs.getLazyConcatLength();
 
-            if (aboveMaxSubstringsProfile.profile(totalSubstrings > LAZY_CONCAT_MAX_SUBSTRINGS)) {
-                newSubstrings = new CraterString[]{lhs, rhs};
-            }
-            else {
-                newSubstrings = new CraterString[totalSubstrings];
-                newSubstrings[0] = lhs;
-                arraycopy(rhsSubstrings, 0, newSubstrings, 1, rhsSubstringsLength);
+            if (unmergeableProfile.profile(
+                totalSubstrings > LAZY_CONCAT_MAX_SUBSTRINGS || rhs.getLazyConcatDepth() != 1
+            )) {
+                return concatBalanced(lhs, rhs, lhsLength, rhsLength);
             }
 
-            var result = new CraterString();
-            result.objectData = newSubstrings;
-            result.primitiveData = (Integer.toUnsignedLong(totalLength) << 8) | TAG_LAZY_CONCAT;
-            return result;
+            var newSubstrings = new CraterString[totalSubstrings];
+            newSubstrings[0] = lhs;
+            arraycopy(rhsSubstrings, 0, newSubstrings, 1, rhsSubstringsLength);
+            return createLazyConcat(newSubstrings, addExact(lhsLength, rhsLength), 1);
         }
 
         @Fallback
@@ -817,34 +1418,460 @@ public final class CraterString implements TruffleObject {
             @Cached LengthNode rhsLengthNode
         ) {
             var totalLength = addExact(lhsLengthNode.execute(lhs), rhsLengthNode.execute(rhs));
-            var result = new CraterString();
-            result.objectData = new CraterString[]{lhs, rhs};
-            result.primitiveData = (Integer.toUnsignedLong(totalLength) << 8) | TAG_LAZY_CONCAT;
-            return result;
+            return createLazyConcat(new CraterString[]{lhs, rhs}, totalLength, 1);
+        }
+
+        // Adds the shallower string to the right spine of the deeper one, or to its left spine if it is the left
+        // operand, in the deepest node along the spine that has room for it. The added string is wrapped in
+        // single-substring nodes to the depth of its siblings, so that later additions fill those nodes instead of
+        // making the rope deeper. Strings built by concatenating in a loop therefore have logarithmic depth, and each
+        // concatenation copies only the nodes on one spine.
+        @TruffleBoundary
+        private static CraterString concatBalanced(CraterString lhs, CraterString rhs, int lhsLength, int rhsLength) {
+            var lhsDepth = getConcatDepth(lhs);
+            var rhsDepth = getConcatDepth(rhs);
+            var totalLength = addExact(lhsLength, rhsLength);
+
+            if (lhsDepth >= rhsDepth) {
+                var result = addToSpine(lhs, rhs, rhsLength, true);
+
+                if (result != null) {
+                    return result;
+                }
+
+                var wrappedRhs = wrapToDepth(rhs, rhsLength, lhsDepth);
+                return createLazyConcat(new CraterString[]{lhs, wrappedRhs}, totalLength, lhsDepth + 1);
+            }
+            else {
+                var result = addToSpine(rhs, lhs, lhsLength, false);
+
+                if (result != null) {
+                    return result;
+                }
+
+                var wrappedLhs = wrapToDepth(lhs, lhsLength, rhsDepth);
+                return createLazyConcat(new CraterString[]{wrappedLhs, rhs}, totalLength, rhsDepth + 1);
+            }
+        }
+
+        // Returns null if the spine of node has no room for string without becoming deeper.
+        private static CraterString addToSpine(
+            CraterString node,
+            CraterString string,
+            int stringLength,
+            boolean atEnd
+        ) {
+            var depth = node.getLazyConcatDepth();
+            var substrings = node.getLazyConcatSubstrings();
+            var edgeIndex = atEnd ? substrings.length - 1 : 0;
+            var edge = substrings[edgeIndex];
+            var newLength = addExact(node.getLazyConcatLength(), stringLength);
+
+            if (edge.isLazyConcat() && edge.getLazyConcatDepth() == depth - 1) {
+                var newEdge = addToSpine(edge, string, stringLength, atEnd);
+
+                if (newEdge != null) {
+                    var newSubstrings = substrings.clone();
+                    newSubstrings[edgeIndex] = newEdge;
+                    return createLazyConcat(newSubstrings, newLength, depth);
+                }
+            }
+
+            if (substrings.length >= LAZY_CONCAT_MAX_SUBSTRINGS || getConcatDepth(string) >= depth) {
+                return null;
+            }
+
+            var newSubstrings = new CraterString[substrings.length + 1];
+            var wrappedString = wrapToDepth(string, stringLength, depth - 1);
+
+            if (atEnd) {
+                arraycopy(substrings, 0, newSubstrings, 0, substrings.length);
+                newSubstrings[substrings.length] = wrappedString;
+            }
+            else {
+                newSubstrings[0] = wrappedString;
+                arraycopy(substrings, 0, newSubstrings, 1, substrings.length);
+            }
+
+            return createLazyConcat(newSubstrings, newLength, depth);
+        }
+
+        private static CraterString wrapToDepth(CraterString string, int length, int depth) {
+            for (var i = getConcatDepth(string); i < depth; i++) {
+                string = createLazyConcat(new CraterString[]{string}, length, i + 1);
+            }
+
+            return string;
         }
 
         private static final int LAZY_CONCAT_MAX_SUBSTRINGS = 16;
         private static final int EAGER_CONCAT_MAX_LENGTH = 64;
     }
 
+    // The hash code of a string with the given bytes, which every way of hashing strings must agree with. It follows
+    // wyhash: 16 bytes are consumed per step by folding a 64x64-bit product, and the 0 to 15 remaining bytes are read
+    // as at most two overlapping words. The seed is chosen randomly when the runtime starts, so that colliding keys
+    // can't be precomputed to flood tables.
+    static int hashBytes(byte[] bytes, int offset, int length) {
+        var end = offset + length;
+        var i = offset;
+        var hash = startHash(length);
+
+        for (; end - i >= HASH_BLOCK_LENGTH; i += HASH_BLOCK_LENGTH) {
+            hash = hashBlock(hash, bytes, i);
+        }
+
+        return finishHash(hash, bytes, i, end - i, length);
+    }
+
+    // The same hash code as hashBytes gives for the bytes of an inline string, read from its packed value.
+    static int hashInline(long data, int length) {
+        long a;
+        long b;
+
+        if (length >= 4) {
+            a = data & 0xffffffffL;
+            b = (data >>> ((length - 4) * 8)) & 0xffffffffL;
+
+            if (!LITTLE_ENDIAN) {
+                a = Integer.toUnsignedLong(Integer.reverseBytes((int) a));
+                b = Integer.toUnsignedLong(Integer.reverseBytes((int) b));
+            }
+        }
+        else if (length > 0) {
+            a = ((data & 0xff) << 16)
+                | (((data >>> (length / 2 * 8)) & 0xff) << 8)
+                | ((data >>> ((length - 1) * 8)) & 0xff);
+            b = 0;
+        }
+        else {
+            a = 0;
+            b = 0;
+        }
+
+        return finishHash(startHash(length), a, b, length);
+    }
+
+    // Hashes a string chunk by chunk, giving the same hash code as hashBytes over its flattened bytes. Blocks that
+    // straddle chunks are gathered into a small buffer, so the string is never flattened.
+    @TruffleBoundary
+    static int hashChunks(CraterString string, int length) {
+        var cursor = new ChunkCursor(string);
+        var hash = startHash(length);
+        var blockCount = length / HASH_BLOCK_LENGTH;
+        var block = new byte[HASH_BLOCK_LENGTH];
+        var blockLength = 0;
+
+        while (cursor.hasChunk()) {
+            var bytes = cursor.getChunkBytes();
+            var chunkOffset = cursor.getChunkOffset();
+            var offset = chunkOffset;
+            var end = cursor.getChunkEnd();
+
+            while (blockCount > 0 && blockLength == 0 && end - offset >= HASH_BLOCK_LENGTH) {
+                hash = hashBlock(hash, bytes, offset);
+                offset += HASH_BLOCK_LENGTH;
+                blockCount--;
+            }
+
+            while (offset < end) {
+                var copyLength = Math.min(end - offset, HASH_BLOCK_LENGTH - blockLength);
+                arraycopy(bytes, offset, block, blockLength, copyLength);
+                offset += copyLength;
+                blockLength += copyLength;
+
+                if (blockCount > 0 && blockLength == HASH_BLOCK_LENGTH) {
+                    hash = hashBlock(hash, block, 0);
+                    blockLength = 0;
+                    blockCount--;
+                }
+            }
+
+            cursor.skip(end - chunkOffset);
+        }
+
+        return finishHash(hash, block, 0, blockLength, length);
+    }
+
+    private static long startHash(int length) {
+        return HASH_SEED ^ mixHash(length ^ HASH_PRIME_0, HASH_PRIME_1);
+    }
+
+    private static long hashBlock(long hash, byte[] bytes, int offset) {
+        return mixHash(getLongUnchecked(bytes, offset) ^ HASH_PRIME_1, getLongUnchecked(bytes, offset + 8) ^ hash);
+    }
+
+    private static int finishHash(long hash, byte[] bytes, int offset, int remaining, int length) {
+        var end = offset + remaining;
+        long a;
+        long b;
+
+        if (remaining >= 8) {
+            a = getLongUnchecked(bytes, offset);
+            b = getLongUnchecked(bytes, end - 8);
+        }
+        else if (remaining >= 4) {
+            a = Integer.toUnsignedLong(getIntUnchecked(bytes, offset));
+            b = Integer.toUnsignedLong(getIntUnchecked(bytes, end - 4));
+        }
+        else if (remaining > 0) {
+            a = (Byte.toUnsignedLong(bytes[offset]) << 16)
+                | (Byte.toUnsignedLong(bytes[offset + remaining / 2]) << 8)
+                | Byte.toUnsignedLong(bytes[end - 1]);
+            b = 0;
+        }
+        else {
+            a = 0;
+            b = 0;
+        }
+
+        return finishHash(hash, a, b, length);
+    }
+
+    private static int finishHash(long hash, long a, long b, int length) {
+        hash = mixHash(a ^ HASH_PRIME_1, b ^ hash);
+        hash = mixHash(hash ^ HASH_PRIME_0, length ^ HASH_PRIME_2);
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static long mixHash(long a, long b) {
+        return Math.multiplyHigh(a, b) ^ (a * b);
+    }
+
+    private static final long HASH_SEED = new SecureRandom().nextLong();
+    private static final long HASH_PRIME_0 = 0xa0761d6478bd642fL;
+    private static final long HASH_PRIME_1 = 0xe7037ed1a0b428dbL;
+    private static final long HASH_PRIME_2 = 0x8ebc6af09c88c6e3L;
+    private static final int HASH_BLOCK_LENGTH = 16;
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    // Compares two strings chunk by chunk, walking both ropes in lockstep, so neither is flattened. The strings must
+    // have the same length.
     @TruffleBoundary
+    static boolean equalsChunks(CraterString lhs, CraterString rhs) {
+        var lhsCursor = new ChunkCursor(lhs);
+        var rhsCursor = new ChunkCursor(rhs);
+
+        while (lhsCursor.hasChunk() && rhsCursor.hasChunk()) {
+            var lhsOffset = lhsCursor.getChunkOffset();
+            var rhsOffset = rhsCursor.getChunkOffset();
+            var length = Math.min(lhsCursor.getChunkEnd() - lhsOffset, rhsCursor.getChunkEnd() - rhsOffset);
+
+            var lhsBytes = lhsCursor.getChunkBytes();
+            var rhsBytes = rhsCursor.getChunkBytes();
+
+            if (!Arrays.equals(lhsBytes, lhsOffset, lhsOffset + length, rhsBytes, rhsOffset, rhsOffset + length)) {
+                return false;
+            }
+
+            lhsCursor.skip(length);
+            rhsCursor.skip(length);
+        }
+
+        return lhsCursor.hasChunk() == rhsCursor.hasChunk();
+    }
+
+    // Walks the bytes of a string as a sequence of non-empty ranges of arrays, descending through concatenations and
+    // repetitions. Inline strings and numbers are written into a scratch array, which is overwritten by the next one.
+    // Reversals have no order-preserving chunks to offer, so they're forced when they're reached.
+    static final class ChunkCursor {
+        private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+        private byte[] scratchBytes;
+        private byte[] chunkBytes;
+        private int chunkOffset;
+        private int chunkEnd;
+
+        ChunkCursor(CraterString string) {
+            if (!enter(string)) {
+                advance();
+            }
+        }
+
+        boolean hasChunk() {
+            return chunkOffset < chunkEnd;
+        }
+
+        byte[] getChunkBytes() {
+            return chunkBytes;
+        }
+
+        int getChunkOffset() {
+            return chunkOffset;
+        }
+
+        int getChunkEnd() {
+            return chunkEnd;
+        }
+
+        // Consumes bytes of the current chunk, moving to the next chunk once it has all been consumed.
+        void skip(int length) {
+            assert length <= chunkEnd - chunkOffset;
+            chunkOffset += length;
+
+            if (chunkOffset == chunkEnd) {
+                advance();
+            }
+        }
+
+        private void advance() {
+            while (!frames.isEmpty()) {
+                var frame = frames.peek();
+                var string = frame.string;
+                CraterString next;
+
+                if (string.isLazyConcat()) {
+                    var substrings = string.getLazyConcatSubstrings();
+
+                    if (frame.index == substrings.length) {
+                        frames.pop();
+                        continue;
+                    }
+
+                    next = substrings[frame.index++];
+                }
+                else {
+                    if (frame.index == string.getLazyRepeatCount()) {
+                        frames.pop();
+                        continue;
+                    }
+
+                    frame.index++;
+                    next = string.getLazyRepeatChild();
+                }
+
+                if (enter(next)) {
+                    return;
+                }
+            }
+
+            chunkBytes = null;
+            chunkOffset = 0;
+            chunkEnd = 0;
+        }
+
+        // Either pushes a frame for a string with substrings, or makes a flat string the current chunk. Returns
+        // whether a non-empty chunk was reached.
+        private boolean enter(CraterString string) {
+            if (string.isLazyConcat() || string.isLazyRepeat()) {
+                frames.push(new Frame(string));
+                return false;
+            }
+
+            if (string.isInline() || string.isLazyLong() || string.isLazyDouble()) {
+                if (scratchBytes == null) {
+                    scratchBytes = new byte[MAX_SCRATCH_LENGTH];
+                }
+
+                chunkBytes = scratchBytes;
+                chunkOffset = 0;
+
+                if (string.isInline()) {
+                    chunkEnd = string.copyInlineBytes(scratchBytes, 0);
+                }
+                else if (string.isLazyLong()) {
+                    chunkEnd = NumberFormatter.writeLong(string.getLazyLongValue(), scratchBytes, 0);
+                }
+                else {
+                    chunkEnd = NumberFormatter.writeDouble(string.getLazyDoubleValue(), scratchBytes, 0);
+                }
+
+                return chunkEnd > 0;
+            }
+
+            if (!string.isFlat()) {
+                string.forceUncached();
+            }
+
+            chunkBytes = string.getFlatBytes();
+            chunkOffset = string.getFlatOffset();
+            chunkEnd = chunkOffset + string.getFlatLength();
+            return chunkOffset < chunkEnd;
+        }
+
+        // Enough for an inline string, an integer, or a double such as -1.2345678901234e-308.
+        private static final int MAX_SCRATCH_LENGTH = 24;
+
+        // The index is that of the next substring of a concatenation, or the number of repetitions entered so far.
+        private static final class Frame {
+            private final CraterString string;
+            private int index;
+
+            private Frame(CraterString string) {
+                this.string = string;
+            }
+        }
+    }
+
     static byte[] longToString(long value) {
-        return Long.toString(value).getBytes(StandardCharsets.UTF_8);
+        var bytes = new byte[NumberFormatter.getLongLength(value)];
+        NumberFormatter.writeLong(value, bytes, 0);
+        return bytes;
     }
 
     @TruffleBoundary
     static byte[] doubleToString(double value) {
         assert isFinite(value);
-        return Double.toString(value).getBytes(StandardCharsets.UTF_8);
+        var bytes = new byte[NumberFormatter.getDoubleLength(value)];
+        NumberFormatter.writeDouble(value, bytes, 0);
+        return bytes;
     }
 
-    @TruffleBoundary
-    private static Object parseNumber(byte[] bytes) {
-        if (bytes.length == 0) {
+    // Whether an inline string is a decimal integer, with at most a minus sign and no spaces. It has too few digits to
+    // overflow.
+    static boolean isInlineInteger(CraterString string) {
+        var length = string.getInlineLength();
+        var start = length > 1 && string.getInlineByte(0) == '-' ? 1 : 0;
+
+        if (start == length) {
+            return false;
+        }
+
+        for (var i = start; i < length; i++) {
+            if (isNotDecDigit(string.getInlineByte(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static long parseInlineInteger(CraterString string) {
+        assert isInlineInteger(string);
+        var length = string.getInlineLength();
+        var negative = string.getInlineByte(0) == '-';
+        var value = 0L;
+
+        for (var i = negative ? 1 : 0; i < length; i++) {
+            value = value * 10 + (string.getInlineByte(i) - '0');
+        }
+
+        return negative ? -value : value;
+    }
+
+    // Replaces the bytes of an immediate string with the integer they were parsed as, if writing the integer back out
+    // would give the same bytes. Strings with a cached hash are left alone, which covers every interned string.
+    private static void rememberInteger(CraterString string, long value) {
+        assert string.isImmediate();
+
+        if (string.hasImmediateHashCode()) {
+            return;
+        }
+
+        var bytes = string.getImmediateBytes();
+
+        if (NumberFormatter.isLongText(value, bytes, 0, bytes.length)) {
+            string.objectData = TAG_LAZY_LONG;
+            string.primitiveData = value;
+        }
+    }
+
+    @TruffleBoundary(allowInlining = true)
+    private static Object parseNumber(byte[] bytes, int rangeStart, int rangeEnd) {
+        if (rangeStart == rangeEnd) {
             return null;
         }
 
-        var start = 0;
+        var start = rangeStart;
         var negative = false;
 
         findStart:
@@ -856,7 +1883,7 @@ public final class CraterString implements TruffleObject {
                 case '\t':
                 case '\f':
                 case 0x0b:
-                    if (++start == bytes.length) {
+                    if (++start == rangeEnd) {
                         return null;
                     }
                     break;
@@ -864,7 +1891,7 @@ public final class CraterString implements TruffleObject {
                 case '-':
                     negative = true;
                 case '+':
-                    if (++start == bytes.length) {
+                    if (++start == rangeEnd) {
                         return null;
                     }
                 default:
@@ -872,7 +1899,7 @@ public final class CraterString implements TruffleObject {
             }
         }
 
-        var end = bytes.length;
+        var end = rangeEnd;
 
         findEnd:
         for (;;) {
@@ -972,6 +1999,8 @@ public final class CraterString implements TruffleObject {
                         break tryInteger;
                     }
                 }
+
+                return total;
             }
             else {
                 switch (bytes[offset]) {
@@ -1031,8 +2060,8 @@ public final class CraterString implements TruffleObject {
             }
         }
 
-        // Check for a trailing type suffix, which Lua would not accept
-        if (isNotDecDigit(bytes[end - 1])) {
+        // Check for a trailing type suffix, which Lua would not accept. A trailing point, as in "1.", is fine.
+        if (isNotDecDigit(bytes[end - 1]) && bytes[end - 1] != '.') {
             return null;
         }
 
@@ -1185,7 +2214,7 @@ public final class CraterString implements TruffleObject {
         if (bytes[offset] == '.') {
             var exponentIndex = indexOf(bytes, offset + 1, end, (byte) 'p', (byte) 'P');
             if (exponentIndex == -1) {
-                return parseHexFloatAfterAddingExponent(bytes, start, end, negative);
+                return parseHexFloatWithoutExponent(bytes, start, end, negative);
             }
         }
 
@@ -1205,21 +2234,50 @@ public final class CraterString implements TruffleObject {
         return negative ? -parsed : parsed;
     }
 
-    private static Object parseHexFloatAfterAddingExponent(byte[] bytes, int start, int end, boolean negative) {
-        var withExponent = new byte[end - start + 4];
+    // The parser only accepts hexadecimal floats with an exponent, so those without one are read here, rather than
+    // being copied to have one appended. Digits beyond the 60 bits kept only matter through whether any is non-zero,
+    // which is folded into the lowest bit so that the conversion to a double still rounds correctly.
+    private static Object parseHexFloatWithoutExponent(byte[] bytes, int start, int end, boolean negative) {
+        var mantissa = 0L;
+        var exponent = 0;
+        var hasPoint = false;
+        var hasDigits = false;
 
-        arraycopy(bytes, start - 2, withExponent, 0, end - start + 2); // Include "0x" prefix
-        withExponent[withExponent.length - 2] = 'p';
-        withExponent[withExponent.length - 1] = '1';
+        for (var i = start; i < end; i++) {
+            var b = bytes[i];
 
-        double parsed;
-        try {
-            parsed = JavaDoubleParser.parseDouble(withExponent);
+            if (b == '.') {
+                if (hasPoint) {
+                    return null;
+                }
+
+                hasPoint = true;
+                continue;
+            }
+
+            var digitValue = Character.digit(b, 16);
+
+            if (digitValue < 0) {
+                return null;
+            }
+
+            hasDigits = true;
+
+            if (mantissa >>> 56 == 0) {
+                mantissa = mantissa * 16 + digitValue;
+                exponent -= hasPoint ? 4 : 0;
+            }
+            else {
+                mantissa |= digitValue != 0 ? 1 : 0;
+                exponent += hasPoint ? 0 : 4;
+            }
         }
-        catch (NumberFormatException exception) {
+
+        if (!hasDigits) {
             return null;
         }
 
+        var parsed = Math.scalb((double) mantissa, exponent);
         return negative ? -parsed : parsed;
     }
 
@@ -1,7 +1,10 @@
 package org.craterlang.language.runtime;
 
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.CompilerDirectives.ValueType;
+import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.dsl.Cached;
 import com.oracle.truffle.api.dsl.Fallback;
 import com.oracle.truffle.api.dsl.GeneratePackagePrivate;
@@ -9,362 +12,2950 @@ import com.oracle.truffle.api.dsl.GenerateUncached;
 import com.oracle.truffle.api.dsl.ImportStatic;
 import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
 import com.oracle.truffle.api.object.DynamicObjectLibrary;
 import com.oracle.truffle.api.profiles.ConditionProfile;
 import org.craterlang.language.CraterLanguage;
 import org.craterlang.language.CraterNode;
+import org.craterlang.language.CraterTypeSystem;
+import org.graalvm.collections.EconomicSet;
+import org.graalvm.collections.Equivalence;
 import sun.misc.Unsafe;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
 
 import static com.oracle.truffle.api.CompilerAsserts.neverPartOfCompilation;
 import static com.oracle.truffle.api.CompilerAsserts.partialEvaluationConstant;
+import static com.oracle.truffle.api.CompilerDirectives.transferToInterpreter;
+import static java.lang.Math.addExact;
+import static java.lang.System.arraycopy;
 import static java.lang.System.identityHashCode;
+import static org.craterlang.language.CraterTypeSystem.isNil;
 import static org.craterlang.language.runtime.UnsafeAccess.getBooleanUnchecked;
-import static org.craterlang.language.runtime.UnsafeAccess.getDoubleUnchecked;
 import static org.craterlang.language.runtime.UnsafeAccess.getLongUnchecked;
 import static org.craterlang.language.runtime.UnsafeAccess.getUnchecked;
+import static org.craterlang.language.runtime.UnsafeAccess.setBooleanUnchecked;
+import static org.craterlang.language.runtime.UnsafeAccess.setLongUnchecked;
 
 public final class CraterTable implements TruffleObject {
     private Shape shape;
-    private Object metatable;
+    // The first INLINE_PRIMITIVE_SIZE bytes and INLINE_OBJECT_COUNT slots of member storage live in these fields, and
+    // only the remainder spills into the arrays, so small record-like tables need no member arrays at all.
+    private long inlinePrimitive0;
+    private long inlinePrimitive1;
+    private Object inlineObject0;
+    private Object inlineObject1;
+    private Object inlineObject2;
+    private Object inlineObject3;
     private byte[] primitiveMemberStorage;
     private Object[] objectMemberStorage;
+    // Holds a WeakTableStorage instead when the shape is weak, in which case cachedLength is negative.
     private Object sequenceStorage;
     private int cachedLength;
+    private Object[] ephemerons;
+    // Capacities requested by table.new, applied when the sequence storage and the first member storage array are
+    // allocated, so that their element types can still be chosen by the first values written.
+    private int sequenceCapacityHint;
+    private int memberCapacityHint;
+    // Set when the member and sequence storage arrays may be shared with a clone, in which case they are copied before
+    // the first write that would modify them in place.
+    private boolean sharedStorage;
+
+    private static final int INITIAL_SEQUENCE_CAPACITY = 4;
+    private static final int INLINE_PRIMITIVE_SIZE = 2 * Long.BYTES;
+    private static final int INLINE_OBJECT_COUNT = 4;
+    private static final byte WEAK_KEYS = 1;
+    private static final byte WEAK_VALUES = 2;
 
     public CraterTable(Shape shape) {
         this.shape = shape;
     }
 
+    public CraterTable(Shape shape, int sequenceCapacity, int memberCapacity) {
+        assert sequenceCapacity >= 0 && memberCapacity >= 0;
+        this.shape = shape;
+        this.sequenceCapacityHint = sequenceCapacity;
+        this.memberCapacityHint = memberCapacity;
+    }
+
     Shape getShape() {
         return shape;
     }
 
     public Object getMetatable() {
-        return metatable;
+        return shape.getMetatable();
     }
 
+    @TruffleBoundary
     public void setMetatable(Object metatable) {
-        assert metatable != null;
-        this.metatable = metatable;
-    }
-
-    boolean hasCachedLength() {
-        return cachedLength >= 0;
-    }
+        assert metatable != null && !isFrozen();
+        migrateToValidShape();
 
-    int getCachedLength() {
-        assert hasCachedLength();
-        return cachedLength;
-    }
+        var weakMode = getWeakMode(metatable);
 
-    public static sealed abstract class Shape {
-        private CachedMemberAddition[] cachedMemberAdditions;
-        private CachedMemberRemoval[] cachedMemberRemovals;
-
-        abstract AddedMember addMemberWithoutCache(Object key, byte type);
+        if (weakMode == 0 && !shape.isWeak()) {
+            shape = shape.changeMetatable(metatable);
+            return;
+        }
 
-        abstract Shape removeMemberWithoutCache(Object key);
+        var keys = new ArrayList<>();
+        var values = new ArrayList<>();
+        forEachEntry((key, value) -> {
+            keys.add(key);
+            values.add(value);
+        });
 
-        abstract int getMemberLocation(Object key);
+        clearStorage();
 
-        @TruffleBoundary
-        private AddedMember addMember(Object key, byte type) {
-            int freeCacheSlot;
+        if (weakMode != 0) {
+            var storage = new WeakTableStorage((weakMode & WEAK_KEYS) != 0, (weakMode & WEAK_VALUES) != 0);
 
-            if (cachedMemberAdditions == null) {
-                cachedMemberAdditions = new CachedMemberAddition[4];
-                freeCacheSlot = 0;
+            for (var i = 0; i < keys.size(); i++) {
+                storage.put(keys.get(i), values.get(i));
             }
-            else {
-                freeCacheSlot = -1;
-
-                for (var i = 0; i < cachedMemberAdditions.length; i++) {
-                    var entry = cachedMemberAdditions[i];
-                    if (entry != null) {
-                        var entryShape = entry.get();
-                        if (entryShape == null) {
-                            cachedMemberAdditions[i] = null;
-                            if (freeCacheSlot < 0) {
-                                freeCacheSlot = i;
-                            }
-                        }
-                        else if (key.equals(entry.key) && type == (entry.location & 0b11)) {
-                            return new AddedMember(entryShape, entry.location);
-                        }
-                    }
-                    else if (freeCacheSlot < 0) {
-                        freeCacheSlot = i;
-                    }
-                }
 
-                if (freeCacheSlot < 0) {
-                    freeCacheSlot = cachedMemberAdditions.length;
-                    cachedMemberAdditions = Arrays.copyOf(cachedMemberAdditions, cachedMemberAdditions.length * 2);
-                }
+            shape = CraterLanguage.get(null).getInternedTableShape(new WeakShape(shape.root, metatable, weakMode));
+            sequenceStorage = storage;
+            cachedLength = -1;
+        }
+        else {
+            shape = shape.root.changeMetatable(metatable);
+            var rawSetNode = RawSetNode.getUncached();
+
+            for (var i = 0; i < keys.size(); i++) {
+                rawSetNode.execute(this, keys.get(i), values.get(i));
             }
+        }
+    }
 
-            var uninternedResult = addMemberWithoutCache(key, type);
-            var shape = CraterLanguage.get(null).getInternedTableShape(uninternedResult.shape);
-            cachedMemberAdditions[freeCacheSlot] = new CachedMemberAddition(shape, key, uninternedResult.location);
-            return new AddedMember(shape, uninternedResult.location);
+    private static byte getWeakMode(Object metatable) {
+        if (!(metatable instanceof CraterTable table)) {
+            return 0;
         }
 
-        @TruffleBoundary
-        private Shape removeMember(Object key) {
-            int freeCacheSlot;
+        var mode = RawGetNode.getUncached().execute(table, CraterLanguage.get(null).getModeMetavalueKey());
 
-            if (cachedMemberRemovals == null) {
-                cachedMemberRemovals = new CachedMemberRemoval[4];
-                freeCacheSlot = 0;
-            }
-            else {
-                freeCacheSlot = -1;
-
-                for (var i = 0; i < cachedMemberRemovals.length; i++) {
-                    var entry = cachedMemberRemovals[i];
-                    if (entry != null) {
-                        var entryShape = entry.get();
-                        if (entryShape == null) {
-                            cachedMemberRemovals[i] = null;
-                            if (freeCacheSlot < 0) {
-                                freeCacheSlot = i;
-                            }
-                        }
-                        else if (key.equals(entry.key)) {
-                            return entryShape;
-                        }
-                    }
-                    else if (freeCacheSlot < 0) {
-                        freeCacheSlot = i;
-                    }
-                }
+        if (!(mode instanceof CraterString modeString)) {
+            return 0;
+        }
 
-                if (freeCacheSlot < 0) {
-                    freeCacheSlot = cachedMemberRemovals.length;
-                    cachedMemberRemovals = Arrays.copyOf(cachedMemberRemovals, cachedMemberRemovals.length * 2);
-                }
-            }
+        var modeJavaString = modeString.toString();
+        var weakMode = 0;
 
-            var shape = CraterLanguage.get(null).getInternedTableShape(removeMemberWithoutCache(key));
-            cachedMemberRemovals[freeCacheSlot] = new CachedMemberRemoval(shape, key);
-            return shape;
+        if (modeJavaString.indexOf('k') >= 0) {
+            weakMode |= WEAK_KEYS;
         }
 
-        @ValueType
-        record AddedMember(Shape shape, int location) {}
+        if (modeJavaString.indexOf('v') >= 0) {
+            weakMode |= WEAK_VALUES;
+        }
 
-        private static final class CachedMemberAddition extends WeakReference<Shape> {
-            private final Object key;
-            private final int location;
+        return (byte) weakMode;
+    }
 
-            private CachedMemberAddition(Shape resultingShape, Object key, int location) {
-                super(resultingShape);
-                this.key = key;
-                this.location = location;
-            }
-        }
+    WeakTableStorage getWeakStorage() {
+        assert shape.isWeak();
+        return (WeakTableStorage) sequenceStorage;
+    }
 
-        private static final class CachedMemberRemoval extends WeakReference<Shape> {
-            private final Object key;
+    Object[] getEphemerons() {
+        return ephemerons;
+    }
 
-            private CachedMemberRemoval(Shape resultingShape, Object key) {
-                super(resultingShape);
-                this.key = key;
+    void setEphemerons(Object[] ephemerons) {
+        this.ephemerons = ephemerons;
+    }
+
+    @TruffleBoundary
+    void forEachEntry(BiConsumer<Object, Object> action) {
+        if (shape.isWeak()) {
+            getWeakStorage().forEach(action);
+            return;
+        }
+
+        for (var i = 0; i < cachedLength; i++) {
+            var element = readSequenceElement(sequenceStorage, i);
+            if (!isNil(element)) {
+                action.accept((long) (i + 1), element);
             }
         }
 
-        private static final byte TYPE_BOOLEAN = 0;
-        private static final byte TYPE_LONG = 1;
-        private static final byte TYPE_DOUBLE = 2;
-        private static final byte TYPE_OBJECT = 3;
+        shape.forEachMember((key, location) -> action.accept(key, readMember(location)));
     }
 
-    private static final class RootShape extends Shape {
-        @Override AddedMember addMemberWithoutCache(Object key, byte type) {
-            neverPartOfCompilation();
-            return new AddedMember(new AddedMemberShape(this, key, type), type);
+    public boolean isFrozen() {
+        return shape.isFrozen();
+    }
+
+    void collectStatistics(TableStatistics statistics) {
+        statistics.recordShape(shape);
+
+        if (shape.isWeak()) {
+            var storage = getWeakStorage();
+            statistics.recordWeakStorage(storage.getSize(), storage.getBucketCount());
+            return;
         }
 
-        @Override Shape removeMemberWithoutCache(Object key) {
-            neverPartOfCompilation();
-            throw new UnsupportedOperationException();
+        statistics.recordSequenceStorage(sequenceStorage, cachedLength);
+        statistics.recordMemberStorage(
+            primitiveMemberStorage,
+            Math.max(shape.getPrimitiveStorageSize() - INLINE_PRIMITIVE_SIZE, 0),
+            objectMemberStorage,
+            Math.max(shape.getObjectStorageSize() - INLINE_OBJECT_COUNT, 0)
+        );
+
+        if (sharedStorage) {
+            statistics.recordSharedStorage();
         }
+    }
 
-        @Override int getMemberLocation(Object key) {
-            neverPartOfCompilation();
-            return -1;
+    // Returns a table with the same entries and metatable, in O(1): the clone takes over the shape and shares the
+    // storage arrays, and whichever table is written first copies them. Weak tables are copied eagerly, since their
+    // entries can disappear independently. The clone of a frozen table is not frozen.
+    @TruffleBoundary
+    public CraterTable cloneTable() {
+        migrateToValidShape();
+
+        var clone = new CraterTable(shape instanceof FrozenShape frozen ? frozen.base : shape);
+
+        if (shape.isWeak()) {
+            var storage = new WeakTableStorage(getWeakStorage());
+            clone.sequenceStorage = storage;
+            clone.cachedLength = -1;
+            return clone;
+        }
+
+        clone.inlinePrimitive0 = inlinePrimitive0;
+        clone.inlinePrimitive1 = inlinePrimitive1;
+        clone.inlineObject0 = inlineObject0;
+        clone.inlineObject1 = inlineObject1;
+        clone.inlineObject2 = inlineObject2;
+        clone.inlineObject3 = inlineObject3;
+        clone.primitiveMemberStorage = primitiveMemberStorage;
+        clone.objectMemberStorage = objectMemberStorage;
+        clone.sequenceStorage = sequenceStorage;
+        clone.cachedLength = cachedLength;
+        clone.sharedStorage = true;
+
+        // Frozen tables never write to their storage, so only the clone has to copy it.
+        if (!isFrozen()) {
+            sharedStorage = true;
         }
+
+        return clone;
     }
 
-    private static final class AddedMemberShape extends Shape {
-        private final Shape base;
-        private final Object key;
-        private final int location;
+    boolean hasSharedStorage() {
+        return sharedStorage;
+    }
 
-        private AddedMemberShape(Shape base, Object key, int location) {
-            this.base = base;
-            this.key = key;
-            this.location = location;
+    void ensureUnsharedStorage() {
+        if (sharedStorage) {
+            unshareStorage();
         }
+    }
 
-        @Override AddedMember addMemberWithoutCache(Object key, byte type) {
-            // TODO
-            neverPartOfCompilation();
-            return null;
+    @TruffleBoundary
+    private void unshareStorage() {
+        if (primitiveMemberStorage != null) {
+            primitiveMemberStorage = primitiveMemberStorage.clone();
         }
 
-        @Override Shape removeMemberWithoutCache(Object key) {
-            // TODO
-            neverPartOfCompilation();
-            return null;
+        if (objectMemberStorage != null) {
+            objectMemberStorage = objectMemberStorage.clone();
         }
 
-        @Override int getMemberLocation(Object key) {
-            neverPartOfCompilation();
-            if (key.equals(this.key)) {
-                return location;
+        if (sequenceStorage instanceof boolean[] booleans) {
+            sequenceStorage = booleans.clone();
+        }
+        else if (sequenceStorage instanceof long[] longs) {
+            sequenceStorage = longs.clone();
+        }
+        else if (sequenceStorage instanceof double[] doubles) {
+            sequenceStorage = doubles.clone();
+        }
+        else if (sequenceStorage instanceof Object[] objects) {
+            sequenceStorage = objects.clone();
+        }
+
+        sharedStorage = false;
+    }
+
+    // Makes a table and every table reachable from it through keys, values and metatables immutable, and forces every
+    // reachable string, so that none of them changes again and they can be shared between threads without
+    // synchronization. Nothing is frozen, and false is returned, if a weak table is reachable.
+    @TruffleBoundary
+    public static boolean freeze(CraterTable root) {
+        var tables = new ArrayList<CraterTable>();
+        var visited = EconomicSet.<CraterTable>create(Equivalence.IDENTITY);
+        tables.add(root);
+        visited.add(root);
+
+        for (var i = 0; i < tables.size(); i++) {
+            var table = tables.get(i);
+
+            if (table.isFrozen()) {
+                continue;
             }
-            else {
-                return base.getMemberLocation(key);
+
+            if (table.shape.isWeak()) {
+                return false;
             }
+
+            table.forEachEntry((key, value) -> {
+                visitFrozenValue(key, tables, visited);
+                visitFrozenValue(value, tables, visited);
+            });
+
+            visitFrozenValue(table.getMetatable(), tables, visited);
         }
 
-        @Override public boolean equals(Object obj) {
-            neverPartOfCompilation();
+        var language = CraterLanguage.get(null);
 
-            if (!(obj instanceof AddedMemberShape other)) {
-                return false;
+        for (var table : tables) {
+            if (!table.isFrozen()) {
+                table.migrateToValidShape();
+                table.shape = language.getInternedTableShape(new FrozenShape(table.shape));
             }
+        }
 
-            return base == other.base
-                && key.equals(other.key)
-                && location == other.location;
+        return true;
+    }
+
+    private static void visitFrozenValue(
+        Object value,
+        ArrayList<CraterTable> tables,
+        EconomicSet<CraterTable> visited
+    ) {
+        if (value instanceof CraterTable table) {
+            if (visited.add(table)) {
+                tables.add(table);
+            }
+        }
+        else if (value instanceof CraterString string) {
+            string.forceUncached();
+            string.hashCode();
         }
+    }
 
-        @Override public int hashCode() {
-            neverPartOfCompilation();
-            var result = identityHashCode(base);
-            result = 31 * result + key.hashCode();
-            result = 31 * result + Integer.hashCode(location);
-            return result;
+    // Removes every entry but keeps the metatable, the weak mode and the allocated storage, so that refilling the table
+    // with values of the same types allocates nothing.
+    @TruffleBoundary
+    public void clear() {
+        assert !isFrozen();
+
+        // Storage shared with a clone can't be cleared in place, so it is dropped instead.
+        if (sharedStorage) {
+            primitiveMemberStorage = null;
+            objectMemberStorage = null;
+            sequenceStorage = null;
+            sharedStorage = false;
+        }
+
+        inlinePrimitive0 = 0;
+        inlinePrimitive1 = 0;
+        inlineObject0 = null;
+        inlineObject1 = null;
+        inlineObject2 = null;
+        inlineObject3 = null;
+
+        if (objectMemberStorage != null) {
+            Arrays.fill(objectMemberStorage, null);
         }
+
+        if (shape.isWeak()) {
+            getWeakStorage().clear();
+            return;
+        }
+
+        if (sequenceStorage instanceof Object[] objects) {
+            Arrays.fill(objects, 0, cachedLength, null);
+        }
+
+        cachedLength = 0;
+        shape = shape.root.changeMetatable(shape.getMetatable());
     }
 
-    @GenerateUncached
-    @GeneratePackagePrivate
-    public static abstract class RawLengthNode extends CraterNode {
-        public abstract long execute(CraterTable table);
+    private void clearStorage() {
+        inlinePrimitive0 = 0;
+        inlinePrimitive1 = 0;
+        inlineObject0 = null;
+        inlineObject1 = null;
+        inlineObject2 = null;
+        inlineObject3 = null;
+        primitiveMemberStorage = null;
+        objectMemberStorage = null;
+        sequenceStorage = null;
+        cachedLength = 0;
+        sharedStorage = false;
+    }
 
-        public static RawLengthNode create() {
-            return CraterTableFactory.RawLengthNodeGen.create();
+    private static Object readSequenceElement(Object storage, int index) {
+        if (storage instanceof boolean[] booleans) {
+            return booleans[index];
         }
+        else if (storage instanceof long[] longs) {
+            return longs[index];
+        }
+        else if (storage instanceof double[] doubles) {
+            return doubles[index];
+        }
+        else {
+            return ((Object[]) storage)[index];
+        }
+    }
 
-        public static RawLengthNode getUncached() {
-            return CraterTableFactory.RawLengthNodeGen.getUncached();
+    boolean hasCachedLength() {
+        return cachedLength >= 0;
+    }
+
+    int getCachedLength() {
+        assert hasCachedLength();
+        return cachedLength;
+    }
+
+    @TruffleBoundary
+    void removeMember(Object key) {
+        var oldShape = shape;
+        var location = oldShape.getMemberLocation(key);
+
+        if (location < 0) {
+            return;
         }
 
-        @Specialization(guards = "table.hasCachedLength()")
-        long doCachedLength(CraterTable table) {
-            return table.getCachedLength();
+        var newShape = oldShape.removeMember(key);
+
+        if (newShape instanceof RemovedMemberShape removal && removal.base == oldShape) {
+            if ((location & 0b11) == Shape.TYPE_OBJECT) {
+                setObjectMember(location >>> 2, null);
+            }
+        }
+        else {
+            relocateMembers(oldShape, newShape);
         }
+
+        shape = newShape;
     }
 
-    @GenerateUncached
-    @GeneratePackagePrivate
-    @ImportStatic({CraterMath.class, Double.class})
-    public static abstract class RawGetNode extends CraterNode {
-        public abstract Object execute(CraterTable table, Object key);
+    @TruffleBoundary
+    void setMemberUncached(Object key, Object value) {
+        if (shape.isWeak()) {
+            getWeakStorage().put(key, value);
+            return;
+        }
 
-        public static RawGetNode create() {
-            return CraterTableFactory.RawGetNodeGen.create();
+        migrateToValidShape();
+
+        if (isNil(value)) {
+            removeMember(key);
+            return;
         }
 
-        public static RawGetNode getUncached() {
-            return CraterTableFactory.RawGetNodeGen.getUncached();
+        var location = shape.getMemberLocation(key);
+
+        if (location >= 0) {
+            shape.invalidateMemberValue(key);
+
+            if (canStoreMember(location, value)) {
+                writeMember(this, location, value);
+            }
+            else {
+                generalizeMember(key, value);
+            }
+
+            return;
         }
 
-        @Specialization
-        CraterNil doNilKey(CraterTable table, CraterNil key) {
-            return CraterNil.getInstance();
+        var addition = shape.addMember(key, getMemberType(value));
+        ensureMemberStorage(addition.shape());
+        writeMember(this, addition.location(), value);
+        shape = addition.shape();
+    }
+
+    @TruffleBoundary
+    void generalizeMember(Object key, Object value) {
+        migrateToValidShape();
+
+        var oldShape = shape;
+        var newShape = oldShape.generalizeMember(key);
+        relocateMembers(oldShape, newShape);
+        shape = newShape;
+
+        writeMember(this, newShape.getMemberLocation(key), value);
+    }
+
+    @TruffleBoundary
+    void migrateToValidShape() {
+        while (!shape.isValid()) {
+            var oldShape = shape;
+            var newShape = oldShape.getGeneralizedShape();
+            relocateMembers(oldShape, newShape);
+            shape = newShape;
         }
+    }
 
-        @Specialization(guards = "isNaN(key)")
-        CraterNil doNanKey(CraterTable table, double key) {
-            return CraterNil.getInstance();
+    boolean needsMemberStorageGrowth(Shape newShape) {
+        var primitiveCapacity = primitiveMemberStorage != null ? primitiveMemberStorage.length : 0;
+        var objectCapacity = objectMemberStorage != null ? objectMemberStorage.length : 0;
+        return getPrimitiveSpillSize(newShape) > primitiveCapacity || getObjectSpillSize(newShape) > objectCapacity;
+    }
+
+    private static int getPrimitiveSpillSize(Shape shape) {
+        return Math.max(shape.getPrimitiveStorageSize() - INLINE_PRIMITIVE_SIZE, 0);
+    }
+
+    private static int getObjectSpillSize(Shape shape) {
+        return Math.max(shape.getObjectStorageSize() - INLINE_OBJECT_COUNT, 0);
+    }
+
+    void ensureMemberStorage(Shape newShape) {
+        if (needsMemberStorageGrowth(newShape)) {
+            growMemberStorage(newShape);
         }
+    }
 
-        @Specialization
-        Object doLongKey(CraterTable table, long key, @Cached WithLongKeyNode rawGetWithLongKeyNode) {
-            return rawGetWithLongKeyNode.execute(table.sequenceStorage, table.cachedLength, key);
+    @TruffleBoundary
+    void growMemberStorage(Shape newShape) {
+        var primitiveCapacity = primitiveMemberStorage != null ? primitiveMemberStorage.length : 0;
+        if (getPrimitiveSpillSize(newShape) > primitiveCapacity) {
+            var newCapacity = Math.max(getPrimitiveSpillSize(newShape), growCapacity(primitiveCapacity));
+            newCapacity = Math.max(newCapacity, takeMemberCapacityHint() * Long.BYTES - INLINE_PRIMITIVE_SIZE);
+            primitiveMemberStorage = primitiveMemberStorage != null
+                ? Arrays.copyOf(primitiveMemberStorage, newCapacity)
+                : new byte[newCapacity];
         }
 
-        @Specialization(guards = "hasExactLongValue(key)")
-        Object doDoubleAsLongKey(CraterTable table, double key, @Cached WithLongKeyNode rawGetWithLongKeyNode) {
-            return rawGetWithLongKeyNode.execute(table.sequenceStorage, table.cachedLength, (long) key);
+        var objectCapacity = objectMemberStorage != null ? objectMemberStorage.length : 0;
+        if (getObjectSpillSize(newShape) > objectCapacity) {
+            var newCapacity = Math.max(getObjectSpillSize(newShape), growCapacity(objectCapacity));
+            newCapacity = Math.max(newCapacity, takeMemberCapacityHint() - INLINE_OBJECT_COUNT);
+            objectMemberStorage = objectMemberStorage != null
+                ? Arrays.copyOf(objectMemberStorage, newCapacity)
+                : new Object[newCapacity];
         }
+    }
 
-        @Fallback
-        Object doShapeSensitiveKey(CraterTable table, Object key, @Cached ShapeDispatchNode shapeDispatchNode) {
-            return shapeDispatchNode.execute(table, key);
+    // Only the first member storage array to be allocated is presized, since which kind of members the table holds is
+    // only known from its first writes.
+    private int takeMemberCapacityHint() {
+        var capacity = memberCapacityHint;
+        memberCapacityHint = 0;
+        return capacity;
+    }
+
+    private static int growCapacity(int capacity) {
+        return capacity + (capacity >> 1) + 2;
+    }
+
+    static byte getMemberType(Object value) {
+        if (value instanceof Boolean) {
+            return Shape.TYPE_BOOLEAN;
         }
+        else if (value instanceof Long) {
+            return Shape.TYPE_LONG;
+        }
+        else if (value instanceof Double) {
+            return Shape.TYPE_DOUBLE;
+        }
+        else {
+            return Shape.TYPE_OBJECT;
+        }
+    }
 
-        private static Object readMember(CraterTable table, int location) {
-            partialEvaluationConstant(location);
-            var type = location & 0b11;
-            var index = location >>> 2;
-            return switch (type) {
-                case Shape.TYPE_BOOLEAN -> getBooleanUnchecked(table.primitiveMemberStorage, index);
-                case Shape.TYPE_LONG -> getLongUnchecked(table.primitiveMemberStorage, index);
-                case Shape.TYPE_DOUBLE -> getDoubleUnchecked(table.primitiveMemberStorage, index);
-                case Shape.TYPE_OBJECT -> getUnchecked(table.objectMemberStorage, index);
-                default -> throw new AssertionError();
-            };
+    static boolean canStoreMember(int location, Object value) {
+        return switch (location & 0b11) {
+            case Shape.TYPE_BOOLEAN -> value instanceof Boolean;
+            case Shape.TYPE_LONG -> value instanceof Long;
+            case Shape.TYPE_DOUBLE -> value instanceof Double;
+            default -> true;
+        };
+    }
+
+    static void writeMember(CraterTable table, int location, Object value) {
+        var index = location >>> 2;
+        switch (location & 0b11) {
+            case Shape.TYPE_BOOLEAN -> table.setBooleanMember(index, (boolean) value);
+            case Shape.TYPE_LONG -> table.setLongMember(index, (long) value);
+            case Shape.TYPE_DOUBLE -> table.setLongMember(index, Double.doubleToRawLongBits((double) value));
+            case Shape.TYPE_OBJECT -> table.setObjectMember(index, value);
+            default -> throw new AssertionError();
         }
+    }
 
-        @GenerateUncached
-        static abstract class WithLongKeyNode extends CraterNode {
-            abstract Object execute(Object sequenceStorage, int cachedLength, long key);
+    Object readMember(int location) {
+        var index = location >>> 2;
+        return switch (location & 0b11) {
+            case Shape.TYPE_BOOLEAN -> getBooleanMember(index);
+            case Shape.TYPE_LONG -> getLongMember(index);
+            case Shape.TYPE_DOUBLE -> Double.longBitsToDouble(getLongMember(index));
+            case Shape.TYPE_OBJECT -> getObjectMember(index);
+            default -> throw new AssertionError();
+        };
+    }
 
-            @Specialization
-            Object doSomething(Object sequenceStorage, int cachedLength, long key) {
-                // TODO
-                return null;
-            }
+    private boolean getBooleanMember(int offset) {
+        if (offset < INLINE_PRIMITIVE_SIZE) {
+            var word = offset < Long.BYTES ? inlinePrimitive0 : inlinePrimitive1;
+            return ((word >>> ((offset & 7) << 3)) & 0xff) != 0;
         }
 
-        @GenerateUncached
-        static abstract class ShapeDispatchNode extends CraterNode {
-            abstract Object execute(CraterTable table, Object key);
+        return getBooleanUnchecked(primitiveMemberStorage, offset - INLINE_PRIMITIVE_SIZE);
+    }
 
-            @Specialization(guards = "table.getShape() == cachedShape")
-            Object doConstantShape(
-                CraterTable table,
-                Object key,
-                @Cached("table.getShape()") Shape cachedShape,
-                @Cached KeyDispatchNode keyDispatchNode
-            ) {
-                return keyDispatchNode.execute(table, key, cachedShape);
-            }
+    private void setBooleanMember(int offset, boolean value) {
+        if (offset < INLINE_PRIMITIVE_SIZE) {
+            var shift = (offset & 7) << 3;
+            var mask = 0xffL << shift;
+            var bits = (value ? 1L : 0L) << shift;
 
-            @Specialization(replaces = "doConstantShape")
-            Object doDynamicShape(CraterTable table, Object key) {
-                // TODO
-                return null;
+            if (offset < Long.BYTES) {
+                inlinePrimitive0 = (inlinePrimitive0 & ~mask) | bits;
+            }
+            else {
+                inlinePrimitive1 = (inlinePrimitive1 & ~mask) | bits;
             }
+
+            return;
         }
 
-        @GenerateUncached
-        static abstract class KeyDispatchNode extends CraterNode {
-            abstract Object execute(CraterTable table, Object key, Shape shape);
+        setBooleanUnchecked(primitiveMemberStorage, offset - INLINE_PRIMITIVE_SIZE, value);
+    }
 
-            @Specialization
-            Object doSomething(CraterTable table, Object key, Shape shape) {
-                // TODO
-                return null;
-            }
+    private long getLongMember(int offset) {
+        if (offset < INLINE_PRIMITIVE_SIZE) {
+            return offset == 0 ? inlinePrimitive0 : inlinePrimitive1;
+        }
+
+        return getLongUnchecked(primitiveMemberStorage, offset - INLINE_PRIMITIVE_SIZE);
+    }
+
+    private void setLongMember(int offset, long value) {
+        if (offset == 0) {
+            inlinePrimitive0 = value;
+        }
+        else if (offset == Long.BYTES) {
+            inlinePrimitive1 = value;
+        }
+        else {
+            setLongUnchecked(primitiveMemberStorage, offset - INLINE_PRIMITIVE_SIZE, value);
+        }
+    }
+
+    private Object getObjectMember(int index) {
+        return switch (index) {
+            case 0 -> inlineObject0;
+            case 1 -> inlineObject1;
+            case 2 -> inlineObject2;
+            case 3 -> inlineObject3;
+            default -> getUnchecked(objectMemberStorage, index - INLINE_OBJECT_COUNT);
+        };
+    }
+
+    private void setObjectMember(int index, Object value) {
+        switch (index) {
+            case 0 -> inlineObject0 = value;
+            case 1 -> inlineObject1 = value;
+            case 2 -> inlineObject2 = value;
+            case 3 -> inlineObject3 = value;
+            default -> objectMemberStorage[index - INLINE_OBJECT_COUNT] = value;
+        }
+    }
+
+    void truncateSequence(int newLength) {
+        assert newLength >= 0 && newLength <= cachedLength;
+
+        if (sequenceStorage instanceof Object[] objects) {
+            while (newLength > 0 && isNil(objects[newLength - 1])) {
+                newLength--;
+            }
+
+            Arrays.fill(objects, newLength, cachedLength, null);
+        }
+
+        cachedLength = newLength;
+    }
+
+    // Moves members keyed by the integers immediately following the sequence into it, so that the sequence length
+    // stays a valid border after an append.
+    @TruffleBoundary
+    void absorbSequenceMembers() {
+        for (;;) {
+            var nextKey = (Object) (cachedLength + 1L);
+            var location = shape.getMemberLocation(nextKey);
+
+            if (location < 0) {
+                return;
+            }
+
+            var value = readMember(location);
+            removeMember(nextKey);
+            appendSequenceElementUncached(value);
+        }
+    }
+
+    private void appendSequenceElementUncached(Object value) {
+        var length = cachedLength;
+
+        if (sequenceStorage == null) {
+            sequenceStorage = createSequenceStorage(value, takeSequenceCapacityHint());
+        }
+        else if (!canStoreSequenceElement(sequenceStorage, value)) {
+            // A cleared table keeps its capacity but lets the first element choose the element type again.
+            sequenceStorage = length == 0
+                ? createSequenceStorage(value, getSequenceCapacity(sequenceStorage))
+                : generalizeSequenceStorage(sequenceStorage, length);
+        }
+
+        if (length == getSequenceCapacity(sequenceStorage)) {
+            sequenceStorage = growSequenceStorage(sequenceStorage, length);
+        }
+
+        if (sequenceStorage instanceof boolean[] booleans) {
+            booleans[length] = (boolean) value;
+        }
+        else if (sequenceStorage instanceof long[] longs) {
+            longs[length] = (long) value;
+        }
+        else if (sequenceStorage instanceof double[] doubles) {
+            doubles[length] = (double) value;
+        }
+        else {
+            ((Object[]) sequenceStorage)[length] = value;
+        }
+
+        cachedLength = length + 1;
+    }
+
+    int takeSequenceCapacityHint() {
+        var capacity = Math.max(sequenceCapacityHint, INITIAL_SEQUENCE_CAPACITY);
+        sequenceCapacityHint = 0;
+        return capacity;
+    }
+
+    private static boolean canStoreSequenceElement(Object storage, Object value) {
+        return storage instanceof Object[]
+            || (storage instanceof boolean[] && value instanceof Boolean)
+            || (storage instanceof long[] && value instanceof Long)
+            || (storage instanceof double[] && value instanceof Double);
+    }
+
+    private static int getSequenceCapacity(Object storage) {
+        if (storage instanceof boolean[] booleans) {
+            return booleans.length;
+        }
+        else if (storage instanceof long[] longs) {
+            return longs.length;
+        }
+        else if (storage instanceof double[] doubles) {
+            return doubles.length;
+        }
+        else {
+            return ((Object[]) storage).length;
+        }
+    }
+
+    static Object createSequenceStorage(Object firstValue, int capacity) {
+        if (firstValue instanceof Boolean value) {
+            var storage = new boolean[capacity];
+            storage[0] = value;
+            return storage;
+        }
+        else if (firstValue instanceof Long value) {
+            var storage = new long[capacity];
+            storage[0] = value;
+            return storage;
+        }
+        else if (firstValue instanceof Double value) {
+            var storage = new double[capacity];
+            storage[0] = value;
+            return storage;
+        }
+        else {
+            var storage = new Object[capacity];
+            storage[0] = firstValue;
+            return storage;
+        }
+    }
+
+    @TruffleBoundary
+    static Object growSequenceStorage(Object storage, int length) {
+        var newCapacity = growCapacity(length);
+
+        if (storage instanceof boolean[] booleans) {
+            return Arrays.copyOf(booleans, newCapacity);
+        }
+        else if (storage instanceof long[] longs) {
+            return Arrays.copyOf(longs, newCapacity);
+        }
+        else if (storage instanceof double[] doubles) {
+            return Arrays.copyOf(doubles, newCapacity);
+        }
+        else {
+            return Arrays.copyOf((Object[]) storage, newCapacity);
+        }
+    }
+
+    @TruffleBoundary
+    static Object[] generalizeSequenceStorage(Object storage, int length) {
+        if (storage instanceof Object[] objects) {
+            return objects;
+        }
+
+        var capacity = getSequenceCapacity(storage);
+        var generalized = new Object[capacity];
+
+        if (storage instanceof boolean[] booleans) {
+            for (var i = 0; i < length; i++) generalized[i] = booleans[i];
+        }
+        else if (storage instanceof long[] longs) {
+            for (var i = 0; i < length; i++) generalized[i] = longs[i];
+        }
+        else {
+            var doubles = (double[]) storage;
+            for (var i = 0; i < length; i++) generalized[i] = doubles[i];
+        }
+
+        return generalized;
+    }
+
+    // Members are read out in full before any of them is written back, since the inline fields are shared between the
+    // old and the new layout.
+    private void relocateMembers(Shape oldShape, Shape newShape) {
+        neverPartOfCompilation();
+
+        var values = new Object[newShape.getMemberCount()];
+        var locations = new int[newShape.getMemberCount()];
+        var count = new int[1];
+
+        newShape.forEachMember((key, newLocation) -> {
+            values[count[0]] = readMember(oldShape.getMemberLocation(key));
+            locations[count[0]] = newLocation;
+            count[0]++;
+        });
+
+        inlinePrimitive0 = 0;
+        inlinePrimitive1 = 0;
+        inlineObject0 = null;
+        inlineObject1 = null;
+        inlineObject2 = null;
+        inlineObject3 = null;
+
+        var primitiveSpillSize = getPrimitiveSpillSize(newShape);
+        var objectSpillSize = getObjectSpillSize(newShape);
+        primitiveMemberStorage = primitiveSpillSize != 0 ? new byte[primitiveSpillSize] : null;
+        objectMemberStorage = objectSpillSize != 0 ? new Object[objectSpillSize] : null;
+
+        for (var i = 0; i < values.length; i++) {
+            writeMember(this, locations[i], values[i]);
+        }
+    }
+
+    public static sealed abstract class Shape {
+        private final RootShape root;
+        private final int depth;
+        private final int memberCount;
+        private final int primitiveStorageSize;
+        private final int objectStorageSize;
+        private final int[] freeLocations;
+        private final Object metatable;
+
+        private final Assumption validAssumption = Truffle.getRuntime().createAssumption("valid table shape");
+        private volatile Shape generalizedShape;
+
+        private volatile Transition[] transitions = NO_TRANSITIONS;
+        private volatile MemberIndex memberIndex;
+        private volatile ConcurrentHashMap<Object, Assumption> memberValueAssumptions;
+
+        private Shape(
+            RootShape root,
+            int depth,
+            int memberCount,
+            int primitiveStorageSize,
+            int objectStorageSize,
+            int[] freeLocations,
+            Object metatable
+        ) {
+            this.root = root != null ? root : (RootShape) this;
+            this.depth = depth;
+            this.memberCount = memberCount;
+            this.primitiveStorageSize = primitiveStorageSize;
+            this.objectStorageSize = objectStorageSize;
+            this.freeLocations = freeLocations;
+            this.metatable = metatable;
+        }
+
+        abstract Shape getBase();
+
+        @TruffleBoundary
+        final int getMemberLocation(Object key) {
+            if (memberCount == 0) {
+                return -1;
+            }
+
+            if (depth < MEMBER_INDEX_MIN_DEPTH) {
+                return findMemberLocationInChain(key);
+            }
+
+            return getMemberIndex().lookup(key, depth);
+        }
+
+        // Walks back over the additions that have no index yet, to the nearest shape that has one or that has to build
+        // one from scratch, and then extends that index by one addition at a time. A table that gains members one by
+        // one therefore extends a single index in place instead of building a new one for every shape.
+        private MemberIndex getMemberIndex() {
+            var index = memberIndex;
+
+            if (index != null) {
+                return index;
+            }
+
+            var additions = new ArrayList<AddedMemberShape>();
+            var shape = this;
+
+            while (shape.memberIndex == null && shape instanceof AddedMemberShape addition) {
+                if (addition.base.depth < MEMBER_INDEX_MIN_DEPTH) {
+                    break;
+                }
+
+                additions.add(addition);
+                shape = addition.base;
+            }
+
+            index = shape.memberIndex;
+
+            if (index == null) {
+                shape.memberIndex = index = MemberIndex.build(shape);
+            }
+
+            for (var i = additions.size() - 1; i >= 0; i--) {
+                var addition = additions.get(i);
+                index = index.extend(addition);
+                ((Shape) addition).memberIndex = index;
+            }
+
+            return index;
+        }
+
+        private int findMemberLocationInChain(Object key) {
+            for (var shape = this; shape != root; shape = shape.getBase()) {
+                if (shape instanceof AddedMemberShape addition) {
+                    if (key.equals(addition.key)) {
+                        return addition.location;
+                    }
+                }
+                else if (shape instanceof RemovedMemberShape removal) {
+                    if (key.equals(removal.key)) {
+                        return -1;
+                    }
+                }
+            }
+
+            return -1;
+        }
+
+        final Assumption getValidAssumption() {
+            return validAssumption;
+        }
+
+        final boolean isValid() {
+            return validAssumption.isValid();
+        }
+
+        final Shape getGeneralizedShape() {
+            assert !isValid();
+            return generalizedShape;
+        }
+
+        final Shape getRoot() {
+            return root;
+        }
+
+        final int getDepth() {
+            return depth;
+        }
+
+        final int getMemberCount() {
+            return memberCount;
+        }
+
+        final int getPrimitiveStorageSize() {
+            return primitiveStorageSize;
+        }
+
+        final int getObjectStorageSize() {
+            return objectStorageSize;
+        }
+
+        final Object getMetatable() {
+            return metatable;
+        }
+
+        final boolean isWeak() {
+            return this instanceof WeakShape;
+        }
+
+        final boolean isFrozen() {
+            return this instanceof FrozenShape;
+        }
+
+        // Valid until the value of the member for key is overwritten in any table with this shape. Adding or removing
+        // the member changes the shape instead, so this only needs to cover in-place stores.
+        @TruffleBoundary
+        @SuppressWarnings("unchecked")
+        final Assumption getMemberValueAssumption(Object key) {
+            var assumptions = memberValueAssumptions;
+
+            if (assumptions == null) {
+                MEMBER_VALUE_ASSUMPTIONS.compareAndSet(this, null, new ConcurrentHashMap<Object, Assumption>());
+                assumptions = memberValueAssumptions;
+            }
+
+            return assumptions.computeIfAbsent(
+                key,
+                k -> Truffle.getRuntime().createAssumption("stable table member value")
+            );
+        }
+
+        final int getTransitionCount() {
+            var count = 0;
+
+            for (var transition : transitions) {
+                if (transition.get() != null) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+
+        @TruffleBoundary
+        final void invalidateMemberValue(Object key) {
+            var assumptions = memberValueAssumptions;
+
+            if (assumptions != null) {
+                var assumption = assumptions.get(key);
+                if (assumption != null) {
+                    assumption.invalidate();
+                }
+            }
+        }
+
+        final AddedMember addMemberWithoutCache(Object key, byte type) {
+            neverPartOfCompilation();
+            assert getMemberLocation(key) < 0;
+
+            var newPrimitiveStorageSize = primitiveStorageSize;
+            var newObjectStorageSize = objectStorageSize;
+            var newFreeLocations = freeLocations;
+            int location;
+
+            var freeLocationIndex = findReusableFreeLocation(type);
+
+            if (freeLocationIndex >= 0) {
+                location = (freeLocations[freeLocationIndex] & ~0b11) | type;
+                newFreeLocations = new int[freeLocations.length - 1];
+                arraycopy(freeLocations, 0, newFreeLocations, 0, freeLocationIndex);
+                arraycopy(
+                    freeLocations,
+                    freeLocationIndex + 1,
+                    newFreeLocations,
+                    freeLocationIndex,
+                    newFreeLocations.length - freeLocationIndex
+                );
+            }
+            else {
+                switch (type) {
+                    case TYPE_BOOLEAN -> {
+                        location = (primitiveStorageSize << 2) | type;
+                        newPrimitiveStorageSize = addExact(primitiveStorageSize, 1);
+                    }
+
+                    case TYPE_LONG, TYPE_DOUBLE -> {
+                        var offset = (primitiveStorageSize + 7) & ~7;
+                        location = (offset << 2) | type;
+                        newPrimitiveStorageSize = addExact(offset, 8);
+                    }
+
+                    case TYPE_OBJECT -> {
+                        location = (objectStorageSize << 2) | type;
+                        newObjectStorageSize = addExact(objectStorageSize, 1);
+                    }
+
+                    default -> throw new AssertionError();
+                }
+            }
+
+            var shape = new AddedMemberShape(
+                this,
+                key,
+                location,
+                newPrimitiveStorageSize,
+                newObjectStorageSize,
+                newFreeLocations
+            );
+
+            return new AddedMember(shape, location);
+        }
+
+        private int findReusableFreeLocation(byte type) {
+            for (var i = freeLocations.length - 1; i >= 0; i--) {
+                var freeType = freeLocations[i] & 0b11;
+                if (freeType == type || (isWidePrimitiveType(freeType) && isWidePrimitiveType(type))) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        private static boolean isWidePrimitiveType(int type) {
+            return type == TYPE_LONG || type == TYPE_DOUBLE;
+        }
+
+        final Shape removeMemberWithoutCache(Object key) {
+            neverPartOfCompilation();
+
+            var location = getMemberLocation(key);
+            if (location < 0) {
+                return this;
+            }
+
+            var newFreeLocations = Arrays.copyOf(freeLocations, freeLocations.length + 1);
+            newFreeLocations[freeLocations.length] = location;
+
+            var removal = new RemovedMemberShape(this, key, location, newFreeLocations);
+
+            if (removal.needsCompaction()) {
+                return removal.compact();
+            }
+            else {
+                return removal;
+            }
+        }
+
+        final boolean needsCompaction() {
+            return depth > 2 * memberCount + COMPACTION_SLACK
+                || freeLocations.length > memberCount + COMPACTION_SLACK;
+        }
+
+        // Rebuilds this shape's live members, in insertion order, as a chain of cached additions from the root. Tables
+        // that reach the result must relocate their members, since the resulting layout has no free locations.
+        final Shape compact() {
+            neverPartOfCompilation();
+
+            var keys = new Object[memberCount];
+            var types = new byte[memberCount];
+            var count = new int[1];
+
+            forEachMember((key, location) -> {
+                keys[count[0]] = key;
+                types[count[0]] = (byte) (location & 0b11);
+                count[0]++;
+            });
+
+            Shape result = root.changeMetatable(metatable);
+
+            for (var i = 0; i < keys.length; i++) {
+                result = result.addMember(keys[i], types[i]).shape();
+            }
+
+            return result;
+        }
+
+        @TruffleBoundary
+        final void forEachMember(ObjIntConsumer<Object> action) {
+            var members = new ArrayList<AddedMemberShape>(memberCount);
+            EconomicSet<Object> visitedKeys = EconomicSet.create();
+
+            for (var shape = this; shape != root; shape = shape.getBase()) {
+                if (shape instanceof AddedMemberShape addition) {
+                    if (visitedKeys.add(addition.key)) {
+                        members.add(addition);
+                    }
+                }
+                else if (shape instanceof RemovedMemberShape removal) {
+                    visitedKeys.add(removal.key);
+                }
+            }
+
+            for (var i = members.size() - 1; i >= 0; i--) {
+                var member = members.get(i);
+                action.accept(member.key, member.location);
+            }
+        }
+
+        // Returns a shape in which the member for key has object type. When this shape is the one that added the
+        // member, it is deprecated in favor of an object-typed addition from the same base, and the base's transition
+        // cache is updated so that later tables taking the same path store the member as an object from the start.
+        @TruffleBoundary
+        final Shape generalizeMember(Object key) {
+            if (this instanceof AddedMemberShape addition && key.equals(addition.key)) {
+                synchronized (this) {
+                    if (!isValid()) {
+                        return generalizedShape;
+                    }
+
+                    var generalized = addition.base.addGeneralizedMember(key);
+                    generalizedShape = generalized;
+                    validAssumption.invalidate();
+                    return generalized;
+                }
+            }
+
+            return removeMember(key).addMember(key, TYPE_OBJECT).shape();
+        }
+
+        private Shape addGeneralizedMember(Object key) {
+            var uninternedResult = addMemberWithoutCache(key, TYPE_OBJECT);
+            var shape = CraterLanguage.get(null).getInternedTableShape(uninternedResult.shape);
+            var newTransition = Transition.addition(shape, key, uninternedResult.location, true);
+
+            for (;;) {
+                var transitions = this.transitions;
+                var newTransitions = withTransition(transitions, newTransition, transition ->
+                    transition.kind == Transition.ADDITION && key.equals(transition.key)
+                );
+
+                if (TRANSITIONS.compareAndSet(this, transitions, newTransitions)) {
+                    return shape;
+                }
+            }
+        }
+
+        @TruffleBoundary
+        AddedMember addMember(Object key, byte type) {
+            var existing = findAddition(transitions, key, type);
+
+            if (existing != null) {
+                return existing;
+            }
+
+            var uninternedResult = addMemberWithoutCache(key, type);
+            var shape = CraterLanguage.get(null).getInternedTableShape(uninternedResult.shape);
+            var newTransition = Transition.addition(shape, key, uninternedResult.location, false);
+
+            for (;;) {
+                var transitions = this.transitions;
+                existing = findAddition(transitions, key, type);
+
+                if (existing != null) {
+                    return existing;
+                }
+
+                if (TRANSITIONS.compareAndSet(this, transitions, withTransition(transitions, newTransition, null))) {
+                    return new AddedMember(shape, uninternedResult.location);
+                }
+            }
+        }
+
+        private static AddedMember findAddition(Transition[] transitions, Object key, byte type) {
+            for (var transition : transitions) {
+                if (transition.kind == Transition.ADDITION
+                    && key.equals(transition.key)
+                    && (type == (transition.location & 0b11) || transition.generalized)
+                ) {
+                    var shape = transition.get();
+                    if (shape != null) {
+                        return new AddedMember(shape, transition.location);
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        @TruffleBoundary
+        Shape removeMember(Object key) {
+            var existing = findRemoval(transitions, key);
+
+            if (existing != null) {
+                return existing;
+            }
+
+            var shape = CraterLanguage.get(null).getInternedTableShape(removeMemberWithoutCache(key));
+            var newTransition = Transition.removal(shape, key);
+
+            for (;;) {
+                var transitions = this.transitions;
+                existing = findRemoval(transitions, key);
+
+                if (existing != null) {
+                    return existing;
+                }
+
+                if (TRANSITIONS.compareAndSet(this, transitions, withTransition(transitions, newTransition, null))) {
+                    return shape;
+                }
+            }
+        }
+
+        private static Shape findRemoval(Transition[] transitions, Object key) {
+            for (var transition : transitions) {
+                if (transition.kind == Transition.REMOVAL && key.equals(transition.key)) {
+                    var shape = transition.get();
+                    if (shape != null) {
+                        return shape;
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        // Metatable changes don't affect the layout, so a change applied on top of another one replaces it rather than
+        // extending the chain.
+        @TruffleBoundary
+        final Shape changeMetatable(Object newMetatable) {
+            var base = this instanceof MetatableShape change ? change.base : this;
+
+            if (newMetatable == base.metatable) {
+                return base;
+            }
+
+            if (newMetatable == metatable) {
+                return this;
+            }
+
+            return base.changeMetatableFromBase(newMetatable);
+        }
+
+        private Shape changeMetatableFromBase(Object newMetatable) {
+            var existing = findMetatableChange(transitions, newMetatable);
+
+            if (existing != null) {
+                return existing;
+            }
+
+            var shape = CraterLanguage.get(null).getInternedTableShape(new MetatableShape(this, newMetatable));
+            var newTransition = Transition.metatableChange(shape);
+
+            for (;;) {
+                var transitions = this.transitions;
+                existing = findMetatableChange(transitions, newMetatable);
+
+                if (existing != null) {
+                    return existing;
+                }
+
+                if (TRANSITIONS.compareAndSet(this, transitions, withTransition(transitions, newTransition, null))) {
+                    return shape;
+                }
+            }
+        }
+
+        private static Shape findMetatableChange(Transition[] transitions, Object metatable) {
+            for (var transition : transitions) {
+                if (transition.kind == Transition.METATABLE_CHANGE) {
+                    var shape = transition.get();
+                    if (shape != null && shape.metatable == metatable) {
+                        return shape;
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        // Transition arrays are never mutated once published; every update copies the live entries into a new array
+        // and installs it with a CAS, so that lookups need no synchronization.
+        private static Transition[] withTransition(
+            Transition[] transitions,
+            Transition newTransition,
+            Predicate<Transition> replaced
+        ) {
+            var newTransitions = new Transition[transitions.length + 1];
+            var count = 0;
+
+            for (var transition : transitions) {
+                if (transition.get() != null && (replaced == null || !replaced.test(transition))) {
+                    newTransitions[count++] = transition;
+                }
+            }
+
+            newTransitions[count++] = newTransition;
+            return count == newTransitions.length ? newTransitions : Arrays.copyOf(newTransitions, count);
+        }
+
+        @ValueType
+        record AddedMember(Shape shape, int location) {}
+
+        // An open-addressed key -> location table, so that deep shapes don't need to be walked link by link. One index
+        // is shared by a line of shapes that each add a member to the one before, and only the deepest of them extends
+        // it in place. Each entry records the depth of the shape that added it, which hides it from the shallower
+        // shapes of the line; a shape that branches off the line copies the entries it can see. Entries are never
+        // removed, and a shape only hands out its index after the entries it can see are in place, so readers need no
+        // lock.
+        private static final class MemberIndex {
+            private volatile Entry[] entries;
+            private int size;
+            private int tipDepth;
+
+            private MemberIndex(int memberCount, int tipDepth) {
+                this.entries = new Entry[getCapacity(memberCount)];
+                this.tipDepth = tipDepth;
+            }
+
+            static MemberIndex build(Shape shape) {
+                var index = new MemberIndex(shape.getMemberCount(), shape.getDepth());
+                shape.forEachMember((key, location) -> index.insert(new Entry(key, location, 0)));
+                return index;
+            }
+
+            // The index of a shape whose base has this index.
+            synchronized MemberIndex extend(AddedMemberShape addition) {
+                var entry = new Entry(addition.key, addition.location, addition.getDepth());
+                var baseDepth = addition.base.getDepth();
+
+                if (tipDepth == baseDepth) {
+                    insert(entry);
+                    tipDepth = addition.getDepth();
+                    return this;
+                }
+
+                var copy = new MemberIndex(addition.getMemberCount(), addition.getDepth());
+
+                for (var existing : entries) {
+                    if (existing != null && existing.depth <= baseDepth) {
+                        copy.insert(existing);
+                    }
+                }
+
+                copy.insert(entry);
+                return copy;
+            }
+
+            int lookup(Object key, int depth) {
+                var table = entries;
+                var mask = table.length - 1;
+
+                for (var i = redistributeHashCode(key.hashCode()) & mask;; i = (i + 1) & mask) {
+                    var entry = table[i];
+
+                    if (entry == null) {
+                        return -1;
+                    }
+
+                    if (entry.key == key || entry.key.equals(key)) {
+                        return entry.depth <= depth ? entry.location : -1;
+                    }
+                }
+            }
+
+            private void insert(Entry entry) {
+                var table = entries;
+
+                if ((size + 1) * 2 > table.length) {
+                    table = new Entry[table.length * 2];
+
+                    for (var existing : entries) {
+                        if (existing != null) {
+                            insertInto(table, existing);
+                        }
+                    }
+
+                    insertInto(table, entry);
+                    entries = table;
+                }
+                else {
+                    insertInto(table, entry);
+                }
+
+                size++;
+            }
+
+            private static void insertInto(Entry[] table, Entry entry) {
+                var mask = table.length - 1;
+                var i = redistributeHashCode(entry.key.hashCode()) & mask;
+
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+
+                table[i] = entry;
+            }
+
+            private static int getCapacity(int memberCount) {
+                return Integer.highestOneBit(Math.max(memberCount, 2) * 2 - 1) << 1;
+            }
+
+            private record Entry(Object key, int location, int depth) {}
+        }
+
+        private static final class Transition extends WeakReference<Shape> {
+            private final byte kind;
+            private final Object key;
+            private final int location;
+            private final boolean generalized;
+
+            private Transition(Shape resultingShape, byte kind, Object key, int location, boolean generalized) {
+                super(resultingShape);
+                this.kind = kind;
+                this.key = key;
+                this.location = location;
+                this.generalized = generalized;
+            }
+
+            static Transition addition(Shape resultingShape, Object key, int location, boolean generalized) {
+                return new Transition(resultingShape, ADDITION, key, location, generalized);
+            }
+
+            static Transition removal(Shape resultingShape, Object key) {
+                return new Transition(resultingShape, REMOVAL, key, -1, false);
+            }
+
+            static Transition metatableChange(Shape resultingShape) {
+                return new Transition(resultingShape, METATABLE_CHANGE, null, -1, false);
+            }
+
+            static final byte ADDITION = 0;
+            static final byte REMOVAL = 1;
+            static final byte METATABLE_CHANGE = 2;
+        }
+
+        private static final Transition[] NO_TRANSITIONS = new Transition[0];
+
+        private static final AtomicReferenceFieldUpdater<Shape, Transition[]> TRANSITIONS =
+            AtomicReferenceFieldUpdater.newUpdater(Shape.class, Transition[].class, "transitions");
+
+        private static final AtomicReferenceFieldUpdater<Shape, ConcurrentHashMap> MEMBER_VALUE_ASSUMPTIONS =
+            AtomicReferenceFieldUpdater.newUpdater(Shape.class, ConcurrentHashMap.class, "memberValueAssumptions");
+
+        private static final byte TYPE_BOOLEAN = 0;
+        private static final byte TYPE_LONG = 1;
+        private static final byte TYPE_DOUBLE = 2;
+        private static final byte TYPE_OBJECT = 3;
+
+        private static final int COMPACTION_SLACK = 8;
+        private static final int MEMBER_INDEX_MIN_DEPTH = 8;
+    }
+
+    // https://github.com/skeeto/hash-prospector/issues/19
+    private static int redistributeHashCode(int x) {
+        x ^= x >>> 16;
+        x *= 0x21f0aaad;
+        x ^= x >>> 15;
+        x *= 0xd35a2d97;
+        x ^= x >>> 15;
+        return x;
+    }
+
+    // A direct-mapped (shape, key) -> location cache shared by megamorphic access sites. Entries are immutable and
+    // replaced wholesale, so a racing reader sees either a complete old entry or a complete new one. They hold their
+    // shape and key weakly, so that the cache doesn't keep dead shapes, their indexes or keys that were missed alive.
+    public static final class MemberLocationCache {
+        private final Entry[] entries = new Entry[SIZE];
+
+        @TruffleBoundary
+        int lookup(Shape shape, Object key) {
+            var i = redistributeHashCode(31 * identityHashCode(shape) + key.hashCode()) & (SIZE - 1);
+            var entry = entries[i];
+
+            if (entry != null && entry.get() == shape && entry.matchesKey(key)) {
+                return entry.location;
+            }
+
+            var location = shape.getMemberLocation(key);
+            entries[i] = new Entry(shape, key, location);
+            return location;
+        }
+
+        private static final class Entry extends WeakReference<Shape> {
+            private final WeakReference<Object> key;
+            private final int location;
+
+            private Entry(Shape shape, Object key, int location) {
+                super(shape);
+                this.key = new WeakReference<>(key);
+                this.location = location;
+            }
+
+            boolean matchesKey(Object otherKey) {
+                var entryKey = key.get();
+                return entryKey == otherKey || otherKey.equals(entryKey);
+            }
+        }
+
+        private static final int SIZE = 4096;
+    }
+
+    public static Shape createRootShape() {
+        return new RootShape();
+    }
+
+    private static final class RootShape extends Shape {
+        private RootShape() {
+            super(null, 0, 0, 0, 0, new int[0], CraterNil.getInstance());
+        }
+
+        @Override Shape getBase() {
+            return null;
+        }
+    }
+
+    private static final class AddedMemberShape extends Shape {
+        private final Shape base;
+        private final Object key;
+        private final int location;
+
+        private AddedMemberShape(
+            Shape base,
+            Object key,
+            int location,
+            int primitiveStorageSize,
+            int objectStorageSize,
+            int[] freeLocations
+        ) {
+            super(
+                base.root,
+                base.getDepth() + 1,
+                base.getMemberCount() + 1,
+                primitiveStorageSize,
+                objectStorageSize,
+                freeLocations,
+                base.getMetatable()
+            );
+
+            this.base = base;
+            this.key = key;
+            this.location = location;
+        }
+
+        @Override Shape getBase() {
+            return base;
+        }
+
+        @Override public boolean equals(Object obj) {
+            neverPartOfCompilation();
+
+            if (!(obj instanceof AddedMemberShape other)) {
+                return false;
+            }
+
+            return base == other.base
+                && key.equals(other.key)
+                && location == other.location;
+        }
+
+        @Override public int hashCode() {
+            neverPartOfCompilation();
+            var result = identityHashCode(base);
+            result = 31 * result + key.hashCode();
+            result = 31 * result + Integer.hashCode(location);
+            return result;
+        }
+    }
+
+    private static final class RemovedMemberShape extends Shape {
+        private final Shape base;
+        private final Object key;
+        private final int location;
+
+        private RemovedMemberShape(Shape base, Object key, int location, int[] freeLocations) {
+            super(
+                base.root,
+                base.getDepth() + 1,
+                base.getMemberCount() - 1,
+                base.getPrimitiveStorageSize(),
+                base.getObjectStorageSize(),
+                freeLocations,
+                base.getMetatable()
+            );
+
+            this.base = base;
+            this.key = key;
+            this.location = location;
+        }
+
+        @Override Shape getBase() {
+            return base;
+        }
+
+        @Override public boolean equals(Object obj) {
+            neverPartOfCompilation();
+
+            if (!(obj instanceof RemovedMemberShape other)) {
+                return false;
+            }
+
+            return base == other.base
+                && key.equals(other.key)
+                && location == other.location;
+        }
+
+        @Override public int hashCode() {
+            neverPartOfCompilation();
+            var result = identityHashCode(base);
+            result = 31 * result + key.hashCode();
+            result = 31 * result + Integer.hashCode(~location);
+            return result;
+        }
+    }
+
+    private static final class MetatableShape extends Shape {
+        private final Shape base;
+
+        private MetatableShape(Shape base, Object metatable) {
+            super(
+                base.root,
+                base.getDepth() + 1,
+                base.getMemberCount(),
+                base.getPrimitiveStorageSize(),
+                base.getObjectStorageSize(),
+                base.freeLocations,
+                metatable
+            );
+
+            this.base = base;
+        }
+
+        @Override Shape getBase() {
+            return base;
+        }
+
+        @Override public boolean equals(Object obj) {
+            neverPartOfCompilation();
+
+            if (!(obj instanceof MetatableShape other)) {
+                return false;
+            }
+
+            return base == other.base && getMetatable() == other.getMetatable();
+        }
+
+        @Override public int hashCode() {
+            neverPartOfCompilation();
+            return 31 * identityHashCode(base) + identityHashCode(getMetatable());
+        }
+    }
+
+    // The shape of a frozen table: the same layout and metatable as its base, but no transition ever leads away from
+    // it.
+    private static final class FrozenShape extends Shape {
+        private final Shape base;
+
+        private FrozenShape(Shape base) {
+            super(
+                base.root,
+                base.getDepth() + 1,
+                base.getMemberCount(),
+                base.getPrimitiveStorageSize(),
+                base.getObjectStorageSize(),
+                base.freeLocations,
+                base.getMetatable()
+            );
+
+            this.base = base;
+        }
+
+        @Override Shape getBase() {
+            return base;
+        }
+
+        @Override public boolean equals(Object obj) {
+            neverPartOfCompilation();
+            return obj instanceof FrozenShape other && base == other.base;
+        }
+
+        @Override public int hashCode() {
+            neverPartOfCompilation();
+            return ~identityHashCode(base);
+        }
+    }
+
+    // The resolution of a non-numeric key through a receiver and its chain of __index tables, valid for receivers with
+    // the same shape for as long as every table along the chain keeps its shape and every __index it went through keeps
+    // its value. The found value itself is still loaded at run time, so writes to it don't invalidate the chain.
+    public static final class PrototypeChain {
+        private final Shape receiverShape;
+        @CompilationFinal(dimensions = 1) private final CraterTable[] tables;
+        @CompilationFinal(dimensions = 1) private final Shape[] shapes;
+        @CompilationFinal(dimensions = 1) private final Assumption[] assumptions;
+        private final CraterTable holder;
+        private final int location;
+
+        private PrototypeChain(
+            Shape receiverShape,
+            CraterTable[] tables,
+            Shape[] shapes,
+            Assumption[] assumptions,
+            CraterTable holder,
+            int location
+        ) {
+            this.receiverShape = receiverShape;
+            this.tables = tables;
+            this.shapes = shapes;
+            this.assumptions = assumptions;
+            this.holder = holder;
+            this.location = location;
+        }
+
+        @ExplodeLoop
+        public boolean matches(CraterTable receiver) {
+            if (receiver.shape != receiverShape) {
+                return false;
+            }
+
+            for (var assumption : assumptions) {
+                if (!assumption.isValid()) {
+                    return false;
+                }
+            }
+
+            for (var i = 0; i < tables.length; i++) {
+                if (tables[i].shape != shapes[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        public Object read(CraterTable receiver) {
+            return RawGetNode.readMember(holder != null ? holder : receiver, location);
+        }
+
+        @TruffleBoundary
+        public static PrototypeChain lookUp(CraterTable receiver, Object key) {
+            if (key instanceof Long || key instanceof Double) {
+                return null;
+            }
+
+            var indexKey = CraterLanguage.get(null).getIndexMetavalueKey();
+            var tables = new ArrayList<CraterTable>();
+            var assumptions = new ArrayList<Assumption>();
+            var table = receiver;
+
+            for (var depth = 0; depth < MAX_PROTOTYPE_CHAIN_DEPTH; depth++) {
+                if (table != receiver) {
+                    tables.add(table);
+                }
+
+                if (table.shape.isWeak()) {
+                    return null;
+                }
+
+                var location = table.shape.getMemberLocation(key);
+
+                if (location >= 0) {
+                    return create(receiver, tables, assumptions, table != receiver ? table : null, location);
+                }
+
+                if (!(table.shape.getMetatable() instanceof CraterTable metatable)) {
+                    return create(receiver, tables, assumptions, null, -1);
+                }
+
+                tables.add(metatable);
+
+                // A weak metatable keeps its entries outside its shape, so its shape can't tell whether it has __index.
+                if (metatable.shape.isWeak()) {
+                    return null;
+                }
+
+                var indexLocation = metatable.shape.getMemberLocation(indexKey);
+
+                if (indexLocation < 0) {
+                    return create(receiver, tables, assumptions, null, -1);
+                }
+
+                var indexAssumption = metatable.shape.getMemberValueAssumption(indexKey);
+
+                if (!indexAssumption.isValid()) {
+                    return null;
+                }
+
+                assumptions.add(indexAssumption);
+
+                if (!(RawGetNode.readMemberAtDynamicLocation(metatable, indexLocation) instanceof CraterTable next)) {
+                    return null;
+                }
+
+                table = next;
+            }
+
+            return null;
+        }
+
+        private static PrototypeChain create(
+            CraterTable receiver,
+            ArrayList<CraterTable> tables,
+            ArrayList<Assumption> assumptions,
+            CraterTable holder,
+            int location
+        ) {
+            var tableArray = tables.toArray(new CraterTable[0]);
+            var shapeArray = new Shape[tableArray.length];
+
+            for (var i = 0; i < tableArray.length; i++) {
+                shapeArray[i] = tableArray[i].shape;
+            }
+
+            return new PrototypeChain(
+                receiver.shape,
+                tableArray,
+                shapeArray,
+                assumptions.toArray(new Assumption[0]),
+                holder,
+                location
+            );
+        }
+
+        private static final int MAX_PROTOTYPE_CHAIN_DEPTH = 8;
+    }
+
+    // The shape of every table whose metatable has a __mode. Such tables keep all of their entries in a
+    // WeakTableStorage, so the shape has no members, and access nodes route on it before any member dispatch.
+    private static final class WeakShape extends Shape {
+        private final byte mode;
+
+        private WeakShape(RootShape root, Object metatable, byte mode) {
+            super(root, 1, 0, 0, 0, new int[0], metatable);
+            this.mode = mode;
+        }
+
+        @Override Shape getBase() {
+            return getRoot();
+        }
+
+        @Override public boolean equals(Object obj) {
+            neverPartOfCompilation();
+
+            if (!(obj instanceof WeakShape other)) {
+                return false;
+            }
+
+            return getRoot() == other.getRoot() && getMetatable() == other.getMetatable() && mode == other.mode;
+        }
+
+        @Override public int hashCode() {
+            neverPartOfCompilation();
+            var result = identityHashCode(getRoot());
+            result = 31 * result + identityHashCode(getMetatable());
+            result = 31 * result + mode;
+            return result;
+        }
+    }
+
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class GetMetatableNode extends CraterNode {
+        public abstract Object execute(CraterTable table);
+
+        public static GetMetatableNode create() {
+            return CraterTableFactory.GetMetatableNodeGen.create();
+        }
+
+        public static GetMetatableNode getUncached() {
+            return CraterTableFactory.GetMetatableNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "table.getShape() == cachedShape")
+        Object doConstantShape(CraterTable table, @Cached("table.getShape()") Shape cachedShape) {
+            return cachedShape.getMetatable();
+        }
+
+        @Specialization(replaces = "doConstantShape")
+        Object doDynamicShape(CraterTable table) {
+            return table.getShape().getMetatable();
+        }
+    }
+
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class RawLengthNode extends CraterNode {
+        public abstract long execute(CraterTable table);
+
+        public static RawLengthNode create() {
+            return CraterTableFactory.RawLengthNodeGen.create();
+        }
+
+        public static RawLengthNode getUncached() {
+            return CraterTableFactory.RawLengthNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "table.hasCachedLength()")
+        long doCachedLength(CraterTable table) {
+            return table.getCachedLength();
+        }
+
+        @Specialization(guards = "table.getShape().isWeak()")
+        long doWeak(CraterTable table) {
+            return table.getWeakStorage().border();
+        }
+    }
+
+    @GenerateUncached
+    @GeneratePackagePrivate
+    @ImportStatic({CraterMath.class, Double.class})
+    public static abstract class RawGetNode extends CraterNode {
+        public abstract Object execute(CraterTable table, Object key);
+
+        public static RawGetNode create() {
+            return CraterTableFactory.RawGetNodeGen.create();
+        }
+
+        public static RawGetNode getUncached() {
+            return CraterTableFactory.RawGetNodeGen.getUncached();
+        }
+
+        // Entries of frozen tables never change, so a read from a constant frozen table with a constant key folds to
+        // the value. Only string keys are folded: they're usually interned literals, so the same key is the same
+        // object at every read, where boxed numbers would be new objects each time.
+        @Specialization(guards = {"table == cachedTable", "key == cachedKey"}, limit = "2")
+        Object doFrozenConstant(
+            CraterTable table,
+            CraterString key,
+            @Cached(value = "getFrozenOrNull(table)", weak = true) CraterTable cachedTable,
+            @Cached(value = "key", weak = true) CraterString cachedKey,
+            @Cached("readUncached(cachedTable, cachedKey)") Object cachedValue
+        ) {
+            return cachedValue;
+        }
+
+        @Specialization
+        CraterNil doNilKey(CraterTable table, CraterNil key) {
+            return CraterNil.getInstance();
+        }
+
+        @Specialization(guards = "isNaN(key)")
+        CraterNil doNanKey(CraterTable table, double key) {
+            return CraterNil.getInstance();
+        }
+
+        @Specialization
+        Object doLongKey(CraterTable table, long key, @Cached WithLongKeyNode rawGetWithLongKeyNode) {
+            return rawGetWithLongKeyNode.execute(table, key);
+        }
+
+        @Specialization(guards = "hasExactLongValue(key)")
+        Object doDoubleAsLongKey(CraterTable table, double key, @Cached WithLongKeyNode rawGetWithLongKeyNode) {
+            return rawGetWithLongKeyNode.execute(table, (long) key);
+        }
+
+        @Specialization(guards = {"!isNaN(key)", "!hasExactLongValue(key)"})
+        Object doFractionalKey(CraterTable table, double key, @Cached ShapeDispatchNode shapeDispatchNode) {
+            return shapeDispatchNode.execute(table, key);
+        }
+
+        @Specialization(guards = "isShapeSensitive(key)")
+        Object doShapeSensitiveKey(CraterTable table, Object key, @Cached ShapeDispatchNode shapeDispatchNode) {
+            return shapeDispatchNode.execute(table, key);
+        }
+
+        static CraterTable getFrozenOrNull(CraterTable table) {
+            return table.isFrozen() ? table : null;
+        }
+
+        // Numbers and nil have specializations of their own; every other key is looked up through the shape.
+        static boolean isShapeSensitive(Object key) {
+            return !(key instanceof Long) && !(key instanceof Double) && key != CraterNil.getInstance();
+        }
+
+        static Object readUncached(CraterTable table, Object key) {
+            return RawGetNode.getUncached().execute(table, key);
+        }
+
+        private static Object readMember(CraterTable table, int location) {
+            partialEvaluationConstant(location);
+            return readMemberAtDynamicLocation(table, location);
+        }
+
+        private static Object readMemberAtDynamicLocation(CraterTable table, int location) {
+            if (location < 0) {
+                return CraterNil.getInstance();
+            }
+
+            return table.readMember(location);
+        }
+
+        @GenerateUncached
+        static abstract class WithLongKeyNode extends CraterNode {
+            abstract Object execute(CraterTable table, long key);
+
+            @Specialization(guards = {"key >= 1", "key <= table.cachedLength"})
+            Object doSequenceElement(
+                CraterTable table,
+                long key,
+                @Cached ReadOptimizedArrayElementNode readElementNode
+            ) {
+                return readElementNode.execute(table.sequenceStorage, key - 1);
+            }
+
+            @Fallback
+            Object doMember(CraterTable table, long key, @Cached ShapeDispatchNode shapeDispatchNode) {
+                return shapeDispatchNode.execute(table, key);
+            }
+        }
+
+        @GenerateUncached
+        static abstract class ShapeDispatchNode extends CraterNode {
+            abstract Object execute(CraterTable table, Object key);
+
+            @Specialization(guards = {"table.getShape() == cachedShape", "!cachedShape.isWeak()"})
+            Object doConstantShape(
+                CraterTable table,
+                Object key,
+                @Cached("table.getShape()") Shape cachedShape,
+                @Cached KeyDispatchNode keyDispatchNode
+            ) {
+                return keyDispatchNode.execute(table, key, cachedShape);
+            }
+
+            @Specialization(guards = "table.getShape().isWeak()")
+            Object doWeak(CraterTable table, Object key) {
+                return table.getWeakStorage().get(key);
+            }
+
+            @Specialization(guards = "!table.getShape().isWeak()", replaces = "doConstantShape")
+            Object doDynamicShape(CraterTable table, Object key) {
+                var location = getLanguage().getMemberLocationCache().lookup(table.getShape(), key);
+                return readMemberAtDynamicLocation(table, location);
+            }
+        }
+
+        @GenerateUncached
+        static abstract class KeyDispatchNode extends CraterNode {
+            abstract Object execute(CraterTable table, Object key, Shape shape);
+
+            @Specialization(guards = "key == cachedKey")
+            Object doConstantKey(
+                CraterTable table,
+                Object key,
+                Shape shape,
+                @Cached(value = "key", weak = true) Object cachedKey,
+                @Cached("shape.getMemberLocation(cachedKey)") int location
+            ) {
+                if (location < 0) {
+                    return CraterNil.getInstance();
+                }
+
+                return readMember(table, location);
+            }
+
+            @Specialization(replaces = "doConstantKey")
+            Object doDynamicKey(CraterTable table, Object key, Shape shape) {
+                return readMemberAtDynamicLocation(table, shape.getMemberLocation(key));
+            }
+        }
+    }
+
+    @GenerateUncached
+    @GeneratePackagePrivate
+    @ImportStatic({CraterMath.class, CraterString.class, Double.class})
+    public static abstract class RawSetNode extends CraterNode {
+        public abstract void execute(CraterTable table, Object key, Object value);
+
+        public static RawSetNode create() {
+            return CraterTableFactory.RawSetNodeGen.create();
+        }
+
+        public static RawSetNode getUncached() {
+            return CraterTableFactory.RawSetNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "table.isFrozen()")
+        void doFrozen(CraterTable table, Object key, Object value) {
+            transferToInterpreter();
+            throw error("attempt to modify a frozen table");
+        }
+
+        @Specialization(guards = "table.hasSharedStorage()")
+        void doSharedStorage(CraterTable table, Object key, Object value, @Cached RawSetNode unsharedRawSetNode) {
+            table.ensureUnsharedStorage();
+            unsharedRawSetNode.execute(table, key, value);
+        }
+
+        @Specialization(guards = "isViewWorthCopyingToRetain(value)")
+        void doRetainedView(
+            CraterTable table,
+            Object key,
+            CraterString value,
+            @Cached CraterString.ForceNode forceNode,
+            @Cached RawSetNode copiedRawSetNode
+        ) {
+            forceNode.execute(value);
+            copiedRawSetNode.execute(table, key, value);
+        }
+
+        @Specialization
+        void doNilKey(CraterTable table, CraterNil key, Object value) {
+            transferToInterpreter();
+            throw error("index is nil");
+        }
+
+        @Specialization(guards = "isNaN(key)")
+        void doNanKey(CraterTable table, double key, Object value) {
+            transferToInterpreter();
+            throw error("index is NaN");
+        }
+
+        @Specialization
+        void doLongKey(CraterTable table, long key, Object value, @Cached WithLongKeyNode withLongKeyNode) {
+            withLongKeyNode.execute(table, key, value);
+        }
+
+        @Specialization(guards = "hasExactLongValue(key)")
+        void doDoubleAsLongKey(
+            CraterTable table,
+            double key,
+            Object value,
+            @Cached WithLongKeyNode withLongKeyNode
+        ) {
+            withLongKeyNode.execute(table, (long) key, value);
+        }
+
+        @Fallback
+        void doShapeSensitiveKey(
+            CraterTable table,
+            Object key,
+            Object value,
+            @Cached ShapeDispatchNode shapeDispatchNode
+        ) {
+            shapeDispatchNode.execute(table, key, value);
+        }
+
+        @GenerateUncached
+        @ImportStatic(CraterTypeSystem.class)
+        static abstract class WithLongKeyNode extends CraterNode {
+            abstract void execute(CraterTable table, long key, Object value);
+
+            @Specialization(guards = {"!isNil(value)", "key >= 1", "key <= table.cachedLength"})
+            void doOverwriteElement(
+                CraterTable table,
+                long key,
+                Object value,
+                @Cached WriteSequenceElementNode writeElementNode
+            ) {
+                writeElementNode.execute(table, table.sequenceStorage, (int) (key - 1), value);
+            }
+
+            @Specialization(guards = {"key >= 1", "key <= table.cachedLength"})
+            void doRemoveElement(
+                CraterTable table,
+                long key,
+                CraterNil value,
+                @Cached ConditionProfile lastElementProfile,
+                @Cached WriteSequenceElementNode writeElementNode
+            ) {
+                if (lastElementProfile.profile(key == table.getCachedLength())) {
+                    table.truncateSequence((int) (key - 1));
+                }
+                else {
+                    writeElementNode.execute(table, table.sequenceStorage, (int) (key - 1), value);
+                }
+            }
+
+            @Specialization(guards = {"!isNil(value)", "key >= 1", "key == table.cachedLength + 1"})
+            void doAppendElement(
+                CraterTable table,
+                long key,
+                Object value,
+                @Cached AppendSequenceElementNode appendElementNode,
+                @Cached ConditionProfile hasMembersProfile
+            ) {
+                appendElementNode.execute(table, table.sequenceStorage, value);
+
+                if (hasMembersProfile.profile(table.shape.getMemberCount() != 0)) {
+                    table.absorbSequenceMembers();
+                }
+            }
+
+            @Fallback
+            void doMember(CraterTable table, long key, Object value, @Cached ShapeDispatchNode shapeDispatchNode) {
+                shapeDispatchNode.execute(table, key, value);
+            }
+        }
+
+        @GenerateUncached
+        static abstract class WriteSequenceElementNode extends CraterNode {
+            abstract void execute(CraterTable table, Object storage, int index, Object value);
+
+            @Specialization
+            void doBoolean(CraterTable table, boolean[] storage, int index, boolean value) {
+                storage[index] = value;
+            }
+
+            @Specialization
+            void doLong(CraterTable table, long[] storage, int index, long value) {
+                storage[index] = value;
+            }
+
+            @Specialization
+            void doDouble(CraterTable table, double[] storage, int index, double value) {
+                storage[index] = value;
+            }
+
+            @Specialization
+            void doObject(CraterTable table, Object[] storage, int index, Object value) {
+                storage[index] = value;
+            }
+
+            @Fallback
+            void doGeneralize(CraterTable table, Object storage, int index, Object value) {
+                var generalized = generalizeSequenceStorage(storage, table.cachedLength);
+                generalized[index] = value;
+                table.sequenceStorage = generalized;
+            }
+        }
+
+        @GenerateUncached
+        static abstract class AppendSequenceElementNode extends CraterNode {
+            abstract void execute(CraterTable table, Object storage, Object value);
+
+            @Specialization(guards = "storage == null")
+            void doFirstElement(CraterTable table, Object storage, Object value) {
+                table.sequenceStorage = createSequenceStorage(value, table.takeSequenceCapacityHint());
+                table.cachedLength = 1;
+            }
+
+            @Specialization
+            void doBoolean(
+                CraterTable table,
+                boolean[] storage,
+                boolean value,
+                @Cached ConditionProfile growProfile
+            ) {
+                var length = table.cachedLength;
+                if (growProfile.profile(length == storage.length)) {
+                    storage = (boolean[]) growSequenceStorage(storage, length);
+                    table.sequenceStorage = storage;
+                }
+
+                storage[length] = value;
+                table.cachedLength = length + 1;
+            }
+
+            @Specialization
+            void doLong(
+                CraterTable table,
+                long[] storage,
+                long value,
+                @Cached ConditionProfile growProfile
+            ) {
+                var length = table.cachedLength;
+                if (growProfile.profile(length == storage.length)) {
+                    storage = (long[]) growSequenceStorage(storage, length);
+                    table.sequenceStorage = storage;
+                }
+
+                storage[length] = value;
+                table.cachedLength = length + 1;
+            }
+
+            @Specialization
+            void doDouble(
+                CraterTable table,
+                double[] storage,
+                double value,
+                @Cached ConditionProfile growProfile
+            ) {
+                var length = table.cachedLength;
+                if (growProfile.profile(length == storage.length)) {
+                    storage = (double[]) growSequenceStorage(storage, length);
+                    table.sequenceStorage = storage;
+                }
+
+                storage[length] = value;
+                table.cachedLength = length + 1;
+            }
+
+            @Specialization
+            void doObject(
+                CraterTable table,
+                Object[] storage,
+                Object value,
+                @Cached ConditionProfile growProfile
+            ) {
+                var length = table.cachedLength;
+                if (growProfile.profile(length == storage.length)) {
+                    storage = (Object[]) growSequenceStorage(storage, length);
+                    table.sequenceStorage = storage;
+                }
+
+                storage[length] = value;
+                table.cachedLength = length + 1;
+            }
+
+            @Fallback
+            void doGeneralize(CraterTable table, Object storage, Object value) {
+                table.appendSequenceElementUncached(value);
+            }
+        }
+
+        @GenerateUncached
+        static abstract class ShapeDispatchNode extends CraterNode {
+            abstract void execute(CraterTable table, Object key, Object value);
+
+            @Specialization(
+                guards = {"table.getShape() == cachedShape", "!cachedShape.isWeak()"},
+                assumptions = "cachedShape.getValidAssumption()"
+            )
+            void doConstantShape(
+                CraterTable table,
+                Object key,
+                Object value,
+                @Cached("table.getShape()") Shape cachedShape,
+                @Cached KeyDispatchNode keyDispatchNode
+            ) {
+                keyDispatchNode.execute(table, key, value, cachedShape);
+            }
+
+            @Specialization(guards = "table.getShape().isWeak()")
+            void doWeak(CraterTable table, Object key, Object value) {
+                table.getWeakStorage().put(key, value);
+            }
+
+            @Specialization(guards = {"!table.getShape().isWeak()", "!table.getShape().isValid()"})
+            void doDeprecatedShape(CraterTable table, Object key, Object value) {
+                table.setMemberUncached(key, value);
+            }
+
+            @Specialization(guards = "!table.getShape().isWeak()", replaces = "doConstantShape")
+            void doDynamicShape(CraterTable table, Object key, Object value) {
+                table.setMemberUncached(key, value);
+            }
+        }
+
+        @GenerateUncached
+        @ImportStatic(CraterTypeSystem.class)
+        static abstract class KeyDispatchNode extends CraterNode {
+            abstract void execute(CraterTable table, Object key, Object value, Shape shape);
+
+            @Specialization(
+                guards = {"key == cachedKey", "location >= 0", "!isNil(value)", "canStoreMember(location, value)"}
+            )
+            void doExistingMember(
+                CraterTable table,
+                Object key,
+                Object value,
+                Shape shape,
+                @Cached(value = "key", weak = true) Object cachedKey,
+                @Cached("shape.getMemberLocation(cachedKey)") int location,
+                @Cached("shape.getMemberValueAssumption(cachedKey)") Assumption valueAssumption
+            ) {
+                if (valueAssumption.isValid()) {
+                    valueAssumption.invalidate();
+                }
+
+                partialEvaluationConstant(location);
+                writeMember(table, location, value);
+            }
+
+            @Specialization(
+                guards = {
+                    "key == cachedKey",
+                    "location < 0",
+                    "!isNil(value)",
+                    "getMemberType(value) == cachedType"
+                },
+                assumptions = "addition.shape().getValidAssumption()"
+            )
+            void doAddMember(
+                CraterTable table,
+                Object key,
+                Object value,
+                Shape shape,
+                @Cached(value = "key", weak = true) Object cachedKey,
+                @Cached("shape.getMemberLocation(cachedKey)") int location,
+                @Cached("getMemberType(value)") byte cachedType,
+                @Cached("shape.addMember(cachedKey, cachedType)") Shape.AddedMember addition,
+                @Cached ConditionProfile growProfile
+            ) {
+                var newShape = addition.shape();
+
+                if (growProfile.profile(table.needsMemberStorageGrowth(newShape))) {
+                    table.growMemberStorage(newShape);
+                }
+
+                writeMember(table, addition.location(), value);
+                table.shape = newShape;
+            }
+
+            @Specialization(guards = {"key == cachedKey", "location >= 0", "isNil(value)"})
+            void doRemoveMember(
+                CraterTable table,
+                Object key,
+                Object value,
+                Shape shape,
+                @Cached(value = "key", weak = true) Object cachedKey,
+                @Cached("shape.getMemberLocation(cachedKey)") int location
+            ) {
+                table.removeMember(cachedKey);
+            }
+
+            @Specialization(guards = {"key == cachedKey", "location < 0", "isNil(value)"})
+            void doAbsentMemberRemoval(
+                CraterTable table,
+                Object key,
+                Object value,
+                Shape shape,
+                @Cached(value = "key", weak = true) Object cachedKey,
+                @Cached("shape.getMemberLocation(cachedKey)") int location
+            ) {}
+
+            @Specialization(replaces = {"doExistingMember", "doAddMember", "doRemoveMember", "doAbsentMemberRemoval"})
+            void doDynamicKey(CraterTable table, Object key, Object value, Shape shape) {
+                table.setMemberUncached(key, value);
+            }
+        }
+    }
+
+    // Raw sequence operations for the table library. Each works directly on the sequence storage when the affected
+    // range lies within the sequence part, and otherwise falls back to element-by-element raw accesses.
+    @GenerateUncached
+    @GeneratePackagePrivate
+    @ImportStatic({CraterString.class, CraterTypeSystem.class})
+    public static abstract class SequenceInsertNode extends CraterNode {
+        public abstract void execute(CraterTable table, long position, Object value);
+
+        public static SequenceInsertNode create() {
+            return CraterTableFactory.SequenceInsertNodeGen.create();
+        }
+
+        public static SequenceInsertNode getUncached() {
+            return CraterTableFactory.SequenceInsertNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "isViewWorthCopyingToRetain(value)")
+        void doRetainedView(
+            CraterTable table,
+            long position,
+            CraterString value,
+            @Cached CraterString.ForceNode forceNode,
+            @Cached SequenceInsertNode copiedInsertNode
+        ) {
+            forceNode.execute(value);
+            copiedInsertNode.execute(table, position, value);
+        }
+
+        @Specialization(
+            guards = {"position >= 1", "position <= table.cachedLength", "!isNil(value)", "!table.isFrozen()"}
+        )
+        void doShift(
+            CraterTable table,
+            long position,
+            Object value,
+            @Cached ReadOptimizedArrayElementNode readLastElementNode,
+            @Cached RawSetNode.AppendSequenceElementNode appendElementNode,
+            @Cached CopySequenceRangeNode copySequenceRangeNode,
+            @Cached RawSetNode.WriteSequenceElementNode writeElementNode,
+            @Cached ConditionProfile hasMembersProfile
+        ) {
+            table.ensureUnsharedStorage();
+
+            var length = table.cachedLength;
+            var index = (int) (position - 1);
+
+            var lastElement = readLastElementNode.execute(table.sequenceStorage, length - 1);
+            appendElementNode.execute(table, table.sequenceStorage, lastElement);
+
+            var storage = table.sequenceStorage;
+            copySequenceRangeNode.execute(storage, index, storage, index + 1, length - 1 - index);
+            writeElementNode.execute(table, table.sequenceStorage, index, value);
+
+            if (hasMembersProfile.profile(table.shape.getMemberCount() != 0)) {
+                table.absorbSequenceMembers();
+            }
+        }
+
+        // table.insert(t, v) inserts at the position after the last element, which needs no shifting.
+        @Specialization(
+            guards = {
+                "position >= 1",
+                "position == table.cachedLength + 1",
+                "!isNil(value)",
+                "!table.isFrozen()",
+                "!table.getShape().isWeak()"
+            }
+        )
+        void doAppend(
+            CraterTable table,
+            long position,
+            Object value,
+            @Cached RawSetNode.AppendSequenceElementNode appendElementNode,
+            @Cached ConditionProfile hasMembersProfile
+        ) {
+            table.ensureUnsharedStorage();
+            appendElementNode.execute(table, table.sequenceStorage, value);
+
+            if (hasMembersProfile.profile(table.shape.getMemberCount() != 0)) {
+                table.absorbSequenceMembers();
+            }
+        }
+
+        @Fallback
+        void doGeneric(CraterTable table, long position, Object value, @Cached RawLengthNode rawLengthNode) {
+            insertGeneric(table, rawLengthNode.execute(table), position, value);
+        }
+
+        @TruffleBoundary
+        private static void insertGeneric(CraterTable table, long length, long position, Object value) {
+            var rawGetNode = RawGetNode.getUncached();
+            var rawSetNode = RawSetNode.getUncached();
+
+            for (var i = length; i >= position; i--) {
+                rawSetNode.execute(table, i + 1, rawGetNode.execute(table, i));
+            }
+
+            rawSetNode.execute(table, position, value);
+        }
+    }
+
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class SequenceRemoveNode extends CraterNode {
+        public abstract Object execute(CraterTable table, long position);
+
+        public static SequenceRemoveNode create() {
+            return CraterTableFactory.SequenceRemoveNodeGen.create();
+        }
+
+        public static SequenceRemoveNode getUncached() {
+            return CraterTableFactory.SequenceRemoveNodeGen.getUncached();
+        }
+
+        @Specialization(guards = {"position >= 1", "position <= table.cachedLength", "!table.isFrozen()"})
+        Object doShift(
+            CraterTable table,
+            long position,
+            @Cached ReadOptimizedArrayElementNode readElementNode,
+            @Cached CopySequenceRangeNode copySequenceRangeNode
+        ) {
+            table.ensureUnsharedStorage();
+
+            var length = table.cachedLength;
+            var index = (int) (position - 1);
+            var removed = readElementNode.execute(table.sequenceStorage, index);
+
+            var storage = table.sequenceStorage;
+            copySequenceRangeNode.execute(storage, index + 1, storage, index, length - 1 - index);
+            table.truncateSequence(length - 1);
+
+            return removed;
+        }
+
+        @Fallback
+        Object doGeneric(CraterTable table, long position, @Cached RawLengthNode rawLengthNode) {
+            return removeGeneric(table, rawLengthNode.execute(table), position);
+        }
+
+        @TruffleBoundary
+        private static Object removeGeneric(CraterTable table, long length, long position) {
+            var rawGetNode = RawGetNode.getUncached();
+            var rawSetNode = RawSetNode.getUncached();
+            var removed = rawGetNode.execute(table, position);
+
+            for (var i = position; i < length; i++) {
+                rawSetNode.execute(table, i, rawGetNode.execute(table, i + 1));
+            }
+
+            if (position <= length) {
+                rawSetNode.execute(table, length, CraterNil.getInstance());
+            }
+            else {
+                rawSetNode.execute(table, position, CraterNil.getInstance());
+            }
+
+            return removed;
+        }
+    }
+
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class SequenceMoveNode extends CraterNode {
+        public abstract void execute(CraterTable source, long first, long last, long target, CraterTable destination);
+
+        public static SequenceMoveNode create() {
+            return CraterTableFactory.SequenceMoveNodeGen.create();
+        }
+
+        public static SequenceMoveNode getUncached() {
+            return CraterTableFactory.SequenceMoveNodeGen.getUncached();
+        }
+
+        @Specialization(
+            guards = {
+                "first >= 1",
+                "first <= last",
+                "last <= source.cachedLength",
+                "target >= 1",
+                "target <= destination.cachedLength - (last - first)",
+                "!destination.isFrozen()",
+            }
+        )
+        void doCopy(
+            CraterTable source,
+            long first,
+            long last,
+            long target,
+            CraterTable destination,
+            @Cached CopySequenceRangeNode copySequenceRangeNode,
+            @Cached ConditionProfile copiedProfile
+        ) {
+            destination.ensureUnsharedStorage();
+
+            var copied = copySequenceRangeNode.execute(
+                source.sequenceStorage,
+                (int) (first - 1),
+                destination.sequenceStorage,
+                (int) (target - 1),
+                (int) (last - first + 1)
+            );
+
+            if (copiedProfile.profile(copied)) {
+                destination.truncateSequence(destination.cachedLength);
+            }
+            else {
+                moveGeneric(source, first, last, target, destination);
+            }
+        }
+
+        @Fallback
+        void doGeneric(CraterTable source, long first, long last, long target, CraterTable destination) {
+            moveGeneric(source, first, last, target, destination);
+        }
+
+        // Copies in the same direction as the reference implementation, so that overlapping moves within one table
+        // behave the same.
+        @TruffleBoundary
+        private static void moveGeneric(
+            CraterTable source,
+            long first,
+            long last,
+            long target,
+            CraterTable destination
+        ) {
+            if (first > last) {
+                return;
+            }
+
+            var rawGetNode = RawGetNode.getUncached();
+            var rawSetNode = RawSetNode.getUncached();
+
+            if (target > last || target <= first || source != destination) {
+                for (var i = 0L; i <= last - first; i++) {
+                    rawSetNode.execute(destination, target + i, rawGetNode.execute(source, first + i));
+                }
+            }
+            else {
+                for (var i = last - first; i >= 0; i--) {
+                    rawSetNode.execute(destination, target + i, rawGetNode.execute(source, first + i));
+                }
+            }
+        }
+    }
+
+    // Sorts the first length elements of a table into their natural order when its sequence storage allows a primitive
+    // sort, and returns whether it did. Integers and floats use the JDK's primitive sorts; all-string sequences are
+    // sorted by unsigned byte comparison.
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class SequenceSortNode extends CraterNode {
+        public abstract boolean execute(CraterTable table, long length);
+
+        public static SequenceSortNode create() {
+            return CraterTableFactory.SequenceSortNodeGen.create();
+        }
+
+        public static SequenceSortNode getUncached() {
+            return CraterTableFactory.SequenceSortNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "length < 2")
+        boolean doTrivial(CraterTable table, long length) {
+            return true;
+        }
+
+        @Specialization(guards = {"length == table.cachedLength", "!table.isFrozen()"})
+        boolean doSequence(CraterTable table, long length, @Cached SortStorageNode sortStorageNode) {
+            table.ensureUnsharedStorage();
+            return sortStorageNode.execute(table.sequenceStorage, (int) length);
+        }
+
+        @Fallback
+        boolean doOther(CraterTable table, long length) {
+            return false;
+        }
+
+        @GenerateUncached
+        static abstract class SortStorageNode extends CraterNode {
+            abstract boolean execute(Object storage, int length);
+
+            @Specialization
+            boolean doLongs(long[] storage, int length) {
+                sortLongs(storage, length);
+                return true;
+            }
+
+            @Specialization
+            boolean doDoubles(double[] storage, int length) {
+                sortDoubles(storage, length);
+                return true;
+            }
+
+            @Specialization
+            boolean doObjects(Object[] storage, int length) {
+                return sortStrings(storage, length);
+            }
+
+            @Fallback
+            boolean doOther(Object storage, int length) {
+                return false;
+            }
+
+            @TruffleBoundary
+            private static void sortLongs(long[] storage, int length) {
+                Arrays.sort(storage, 0, length);
+            }
+
+            @TruffleBoundary
+            private static void sortDoubles(double[] storage, int length) {
+                Arrays.sort(storage, 0, length);
+            }
+
+            @TruffleBoundary
+            private static boolean sortStrings(Object[] storage, int length) {
+                for (var i = 0; i < length; i++) {
+                    if (!(storage[i] instanceof CraterString string)) {
+                        return false;
+                    }
+
+                    // Inline and flat strings compare as they are, so only the others have to be forced.
+                    if (!string.isInline() && !string.isFlat()) {
+                        string.forceUncached();
+                    }
+                }
+
+                Arrays.sort(
+                    storage,
+                    0,
+                    length,
+                    (lhs, rhs) -> CraterString.compareInlineOrFlat((CraterString) lhs, (CraterString) rhs)
+                );
+
+                return true;
+            }
+        }
+    }
+
+    @GenerateUncached
+    @GeneratePackagePrivate
+    public static abstract class SequenceUnpackNode extends CraterNode {
+        public abstract Object[] execute(CraterTable table, long first, long last);
+
+        public static SequenceUnpackNode create() {
+            return CraterTableFactory.SequenceUnpackNodeGen.create();
+        }
+
+        public static SequenceUnpackNode getUncached() {
+            return CraterTableFactory.SequenceUnpackNodeGen.getUncached();
+        }
+
+        @Specialization(guards = "first > last")
+        Object[] doEmpty(CraterTable table, long first, long last) {
+            return EMPTY_VALUES;
+        }
+
+        @ExplodeLoop
+        @Specialization(
+            guards = {"first >= 1", "last <= table.cachedLength", "last - first + 1 == cachedCount"},
+            limit = "3"
+        )
+        Object[] doConstantCount(
+            CraterTable table,
+            long first,
+            long last,
+            @Cached("last - first + 1") long cachedCount,
+            @Cached ReadOptimizedArrayElementNode readElementNode
+        ) {
+            var storage = table.sequenceStorage;
+            var values = new Object[(int) cachedCount];
+
+            for (var i = 0; i < values.length; i++) {
+                values[i] = readElementNode.execute(storage, first - 1 + i);
+            }
+
+            return values;
+        }
+
+        @Specialization(
+            guards = {"first >= 1", "first <= last", "last <= table.cachedLength"},
+            replaces = "doConstantCount"
+        )
+        Object[] doDynamicCount(CraterTable table, long first, long last) {
+            var values = new Object[(int) (last - first + 1)];
+            var storage = table.sequenceStorage;
+
+            for (var i = 0; i < values.length; i++) {
+                values[i] = readSequenceElement(storage, (int) (first - 1 + i));
+            }
+
+            return values;
+        }
+
+        @Fallback
+        Object[] doGeneric(CraterTable table, long first, long last) {
+            if (last - first < 0 || last - first >= MAX_UNPACK_COUNT) {
+                transferToInterpreter();
+                throw error("");
+            }
+
+            return unpackGeneric(table, first, last);
+        }
+
+        @TruffleBoundary
+        private static Object[] unpackGeneric(CraterTable table, long first, long last) {
+            var rawGetNode = RawGetNode.getUncached();
+            var values = new Object[(int) (last - first + 1)];
+
+            for (var i = 0; i < values.length; i++) {
+                values[i] = rawGetNode.execute(table, first + i);
+            }
+
+            return values;
+        }
+
+        private static final Object[] EMPTY_VALUES = new Object[0];
+        private static final int MAX_UNPACK_COUNT = 1_000_000;
+    }
+
+    @GenerateUncached
+    static abstract class CopySequenceRangeNode extends CraterNode {
+        abstract boolean execute(Object source, int sourceIndex, Object destination, int destinationIndex, int length);
+
+        @Specialization
+        boolean doBooleans(boolean[] source, int sourceIndex, boolean[] destination, int destinationIndex, int length) {
+            arraycopy(source, sourceIndex, destination, destinationIndex, length);
+            return true;
+        }
+
+        @Specialization
+        boolean doLongs(long[] source, int sourceIndex, long[] destination, int destinationIndex, int length) {
+            arraycopy(source, sourceIndex, destination, destinationIndex, length);
+            return true;
+        }
+
+        @Specialization
+        boolean doDoubles(double[] source, int sourceIndex, double[] destination, int destinationIndex, int length) {
+            arraycopy(source, sourceIndex, destination, destinationIndex, length);
+            return true;
+        }
+
+        @Specialization
+        boolean doObjects(Object[] source, int sourceIndex, Object[] destination, int destinationIndex, int length) {
+            arraycopy(source, sourceIndex, destination, destinationIndex, length);
+            return true;
+        }
+
+        @Fallback
+        boolean doMismatched(Object source, int sourceIndex, Object destination, int destinationIndex, int length) {
+            return false;
         }
     }
 
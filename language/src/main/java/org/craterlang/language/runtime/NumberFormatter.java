@@ -0,0 +1,369 @@
+package org.craterlang.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+// Writes the decimal forms of numbers as ASCII straight into byte arrays. Integers are written two digits at a time.
+// Doubles are written as the reference implementation's "%.14g" writes them, with ".0" appended to those that would
+// otherwise look like integers.
+//
+// A double is first rounded to 14 significant digits. When the digits fall within the range of exact powers of ten,
+// the exact product of the double and a power of ten is found as the sum of two doubles, which is enough to round it
+// correctly without big arithmetic. Only very small and very large doubles fall back to BigDecimal.
+final class NumberFormatter {
+    private NumberFormatter() {}
+
+    static int getLongLength(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+
+        var magnitude = Math.abs(value);
+        var length = 1;
+
+        for (var bound = 10L; length < 19 && magnitude >= bound; bound *= 10) {
+            length++;
+        }
+
+        return value < 0 ? length + 1 : length;
+    }
+
+    // Returns the offset just past the last byte written.
+    static int writeLong(long value, byte[] destination, int offset) {
+        var end = offset + getLongLength(value);
+        var position = end;
+
+        // The value is kept negative, so that Long.MIN_VALUE needs no special case.
+        var remaining = value < 0 ? value : -value;
+
+        while (remaining <= -100) {
+            var quotient = remaining / 100;
+            var pair = (int) (quotient * 100 - remaining);
+            position -= 2;
+            destination[position] = DIGIT_PAIRS[pair * 2];
+            destination[position + 1] = DIGIT_PAIRS[pair * 2 + 1];
+            remaining = quotient;
+        }
+
+        var last = (int) -remaining;
+
+        if (last >= 10) {
+            position -= 2;
+            destination[position] = DIGIT_PAIRS[last * 2];
+            destination[position + 1] = DIGIT_PAIRS[last * 2 + 1];
+        }
+        else {
+            destination[--position] = (byte) ('0' + last);
+        }
+
+        if (value < 0) {
+            destination[--position] = '-';
+        }
+
+        assert position == offset;
+        return end;
+    }
+
+    // Whether a range of bytes is exactly what writeLong would write for the value.
+    static boolean isLongText(long value, byte[] bytes, int offset, int length) {
+        if (length != getLongLength(value)) {
+            return false;
+        }
+
+        var remaining = value < 0 ? value : -value;
+
+        for (var position = offset + length - 1; position >= offset + (value < 0 ? 1 : 0); position--) {
+            if (bytes[position] != '0' - (int) (remaining % 10)) {
+                return false;
+            }
+
+            remaining /= 10;
+        }
+
+        return value >= 0 || bytes[offset] == '-';
+    }
+
+    @TruffleBoundary
+    static int getDoubleLength(double value) {
+        assert Double.isFinite(value);
+        var sign = value < 0 || Double.doubleToRawLongBits(value) == Long.MIN_VALUE ? 1 : 0;
+
+        if (value == 0) {
+            return sign + 3;
+        }
+
+        var decomposed = decompose(Math.abs(value));
+        var digitCount = countSignificantDigits(getDigits(decomposed));
+        var exponent = getExponent(decomposed);
+
+        if (isExponential(exponent)) {
+            var mantissaLength = digitCount > 1 ? digitCount + 1 : 1;
+            var exponentDigits = Math.abs(exponent) >= 100 ? 3 : 2;
+            return sign + mantissaLength + 2 + exponentDigits;
+        }
+        else if (exponent >= 0) {
+            var integerDigits = exponent + 1;
+            return sign + integerDigits + 1 + Math.max(digitCount - integerDigits, 1);
+        }
+        else {
+            return sign + 2 - exponent - 1 + digitCount;
+        }
+    }
+
+    // Returns the offset just past the last byte written.
+    @TruffleBoundary
+    static int writeDouble(double value, byte[] destination, int offset) {
+        assert Double.isFinite(value);
+
+        if (value < 0 || Double.doubleToRawLongBits(value) == Long.MIN_VALUE) {
+            destination[offset++] = '-';
+        }
+
+        if (value == 0) {
+            destination[offset] = '0';
+            destination[offset + 1] = '.';
+            destination[offset + 2] = '0';
+            return offset + 3;
+        }
+
+        var decomposed = decompose(Math.abs(value));
+        var digits = getDigits(decomposed);
+        var digitCount = countSignificantDigits(digits);
+        var exponent = getExponent(decomposed);
+        digits /= POWERS_OF_TEN[SIGNIFICANT_DIGITS - digitCount];
+
+        if (isExponential(exponent)) {
+            offset = writeDigits(digits, digitCount, 1, destination, offset);
+            destination[offset++] = 'e';
+            destination[offset++] = (byte) (exponent < 0 ? '-' : '+');
+
+            var exponentMagnitude = Math.abs(exponent);
+
+            if (exponentMagnitude < 10) {
+                destination[offset++] = '0';
+            }
+
+            return writeLong(exponentMagnitude, destination, offset);
+        }
+        else if (exponent >= 0) {
+            var integerDigits = exponent + 1;
+
+            if (digitCount <= integerDigits) {
+                offset = writeLong(digits, destination, offset);
+
+                for (var i = digitCount; i < integerDigits; i++) {
+                    destination[offset++] = '0';
+                }
+
+                destination[offset] = '.';
+                destination[offset + 1] = '0';
+                return offset + 2;
+            }
+
+            return writeDigits(digits, digitCount, integerDigits, destination, offset);
+        }
+        else {
+            destination[offset++] = '0';
+            destination[offset++] = '.';
+
+            for (var i = -1; i > exponent; i--) {
+                destination[offset++] = '0';
+            }
+
+            return writeLong(digits, destination, offset);
+        }
+    }
+
+    // Whether two doubles have the same decimal form, which they may have while being different doubles.
+    @TruffleBoundary
+    static boolean formatEqually(double lhs, double rhs) {
+        assert Double.isFinite(lhs) && Double.isFinite(rhs);
+
+        if (Double.doubleToRawLongBits(lhs) == Double.doubleToRawLongBits(rhs)) {
+            return true;
+        }
+
+        if (Double.doubleToRawLongBits(lhs) < 0 != Double.doubleToRawLongBits(rhs) < 0) {
+            return false;
+        }
+
+        if (lhs == 0 || rhs == 0) {
+            return false;
+        }
+
+        return decompose(Math.abs(lhs)) == decompose(Math.abs(rhs));
+    }
+
+    // Whether reading the decimal form of a double gives back the same double.
+    @TruffleBoundary
+    static boolean formatsExactly(double value) {
+        assert Double.isFinite(value);
+
+        if (value == 0) {
+            return true;
+        }
+
+        var magnitude = Math.abs(value);
+        var decomposed = decompose(magnitude);
+        var scale = SIGNIFICANT_DIGITS - 1 - getExponent(decomposed);
+
+        if (scale < 0 || scale >= EXACT_POWERS_OF_TEN.length) {
+            return false;
+        }
+
+        return getDigits(decomposed) / EXACT_POWERS_OF_TEN[scale] == magnitude;
+    }
+
+    // The significant digits and decimal exponent of a positive finite double rounded to SIGNIFICANT_DIGITS digits.
+    // The digits, as an integer with exactly that many digits, are packed above the biased exponent of the first one.
+    private static long decompose(double magnitude) {
+        assert magnitude > 0 && Double.isFinite(magnitude);
+        var exponent = (int) Math.floor(Math.log10(magnitude));
+
+        for (;;) {
+            var scale = SIGNIFICANT_DIGITS - 1 - exponent;
+
+            if (scale < 0 || scale >= EXACT_POWERS_OF_TEN.length) {
+                return decomposeExactly(magnitude);
+            }
+
+            var digits = roundScaled(magnitude, EXACT_POWERS_OF_TEN[scale]);
+
+            if (digits >= POWERS_OF_TEN[SIGNIFICANT_DIGITS]) {
+                exponent++;
+            }
+            else if (digits < POWERS_OF_TEN[SIGNIFICANT_DIGITS - 1]) {
+                exponent--;
+            }
+            else {
+                return (digits << 16) | (exponent + EXPONENT_BIAS);
+            }
+        }
+    }
+
+    // The product of magnitude and an exact power of ten, rounded to the nearest integer with ties to even. The
+    // product is exactly high + low, where low is at most half an ulp of high, so it only changes the rounding when
+    // high is within half an ulp of the midpoint between two integers.
+    private static long roundScaled(double magnitude, double scale) {
+        var high = magnitude * scale;
+        var low = Math.fma(magnitude, scale, -high);
+        var rounded = Math.rint(high);
+        var fraction = high - rounded;
+        var digits = (long) rounded;
+
+        if (fraction > 0) {
+            var toMidpoint = 0.5 - fraction;
+
+            if (low > toMidpoint || (low == toMidpoint && (digits & 1) != 0)) {
+                digits++;
+            }
+        }
+        else if (fraction < 0) {
+            var toMidpoint = -0.5 - fraction;
+
+            if (low < toMidpoint || (low == toMidpoint && (digits & 1) != 0)) {
+                digits--;
+            }
+        }
+
+        return digits;
+    }
+
+    @TruffleBoundary
+    private static long decomposeExactly(double magnitude) {
+        var decimal = new BigDecimal(magnitude).round(new MathContext(SIGNIFICANT_DIGITS, RoundingMode.HALF_EVEN));
+        var precision = decimal.precision();
+        var digits = decimal.unscaledValue().longValueExact() * POWERS_OF_TEN[SIGNIFICANT_DIGITS - precision];
+        var exponent = precision - decimal.scale() - 1;
+        return (digits << 16) | (exponent + EXPONENT_BIAS);
+    }
+
+    private static long getDigits(long decomposed) {
+        return decomposed >>> 16;
+    }
+
+    private static int getExponent(long decomposed) {
+        return (int) (decomposed & 0xffff) - EXPONENT_BIAS;
+    }
+
+    private static int countSignificantDigits(long digits) {
+        var count = SIGNIFICANT_DIGITS;
+
+        while (count > 1 && digits % 10 == 0) {
+            digits /= 10;
+            count--;
+        }
+
+        return count;
+    }
+
+    // "%g" switches to exponential notation when the exponent is less than -4 or at least the precision.
+    private static boolean isExponential(int exponent) {
+        return exponent < -4 || exponent >= SIGNIFICANT_DIGITS;
+    }
+
+    // Writes digits with a decimal point after the first integerDigits of them, or none if they're all integer digits.
+    private static int writeDigits(long digits, int digitCount, int integerDigits, byte[] destination, int offset) {
+        if (digitCount <= integerDigits) {
+            return writeLong(digits, destination, offset);
+        }
+
+        var fractionDigits = digitCount - integerDigits;
+        var divisor = POWERS_OF_TEN[fractionDigits];
+        offset = writeLong(digits / divisor, destination, offset);
+        destination[offset++] = '.';
+
+        var fraction = digits % divisor;
+        var end = offset + fractionDigits;
+
+        for (var position = end - 1; position >= offset; position--) {
+            destination[position] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+
+        return end;
+    }
+
+    private static final int SIGNIFICANT_DIGITS = 14;
+    private static final int EXPONENT_BIAS = 1024;
+
+    private static final long[] POWERS_OF_TEN = {
+        1L,
+        10L,
+        100L,
+        1_000L,
+        10_000L,
+        100_000L,
+        1_000_000L,
+        10_000_000L,
+        100_000_000L,
+        1_000_000_000L,
+        10_000_000_000L,
+        100_000_000_000L,
+        1_000_000_000_000L,
+        10_000_000_000_000L,
+        100_000_000_000_000L,
+    };
+
+    // The powers of ten that doubles represent exactly.
+    private static final double[] EXACT_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    private static final byte[] DIGIT_PAIRS = createDigitPairs();
+
+    private static byte[] createDigitPairs() {
+        var pairs = new byte[200];
+
+        for (var i = 0; i < 100; i++) {
+            pairs[i * 2] = (byte) ('0' + i / 10);
+            pairs[i * 2 + 1] = (byte) ('0' + i % 10);
+        }
+
+        return pairs;
+    }
+}
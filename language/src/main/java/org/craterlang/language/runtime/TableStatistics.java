@@ -0,0 +1,229 @@
+package org.craterlang.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.object.DynamicObjectLibrary;
+import org.craterlang.language.CraterLanguage;
+import org.graalvm.collections.EconomicSet;
+import org.graalvm.collections.Equivalence;
+import sun.misc.Unsafe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+// Memory and shape statistics over the tables reachable from a root value, for finding scripts that create too many
+// shapes or over-allocate storage. Tables aren't registered anywhere when they are created, so reachability from the
+// root, through table entries, metatables and the upvalues of functions, stands in for liveness. Storage sizes are
+// the sizes of the storage arrays as laid out by the running VM; the fields of the tables themselves aren't included.
+public final class TableStatistics {
+    private long tableCount;
+    private long weakTableCount;
+    private long frozenTableCount;
+    private long sharedStorageTableCount;
+    private long sequenceStorageBytes;
+    private long unusedSequenceStorageBytes;
+    private long memberStorageBytes;
+    private long unusedMemberStorageBytes;
+    private long weakStorageBytes;
+    private long weakEntryCount;
+    private long totalShapeDepth;
+    private int maxShapeDepth;
+    private final EconomicSet<CraterTable.Shape> shapes = EconomicSet.create(Equivalence.IDENTITY);
+
+    private TableStatistics() {}
+
+    @TruffleBoundary
+    public static TableStatistics collect(Object root) {
+        var statistics = new TableStatistics();
+        var pending = new ArrayList<>();
+        var visited = EconomicSet.create(Equivalence.IDENTITY);
+        visit(root, pending, visited);
+
+        for (var i = 0; i < pending.size(); i++) {
+            if (pending.get(i) instanceof CraterTable table) {
+                table.collectStatistics(statistics);
+
+                table.forEachEntry((key, value) -> {
+                    visit(key, pending, visited);
+                    visit(value, pending, visited);
+                });
+
+                visit(table.getMetatable(), pending, visited);
+            }
+            else {
+                visitUpvalues((CraterFunction) pending.get(i), pending, visited);
+            }
+        }
+
+        return statistics;
+    }
+
+    private static void visit(Object value, ArrayList<Object> pending, EconomicSet<Object> visited) {
+        if ((value instanceof CraterTable || value instanceof CraterFunction) && visited.add(value)) {
+            pending.add(value);
+        }
+    }
+
+    // A function keeps its upvalues as properties, either boxed in cells that it shares with other closures or as
+    // plain values.
+    private static void visitUpvalues(CraterFunction function, ArrayList<Object> pending, EconomicSet<Object> visited) {
+        var functions = DynamicObjectLibrary.getUncached();
+
+        for (var key : functions.getKeyArray(function)) {
+            var value = functions.getOrDefault(function, key, null);
+            visit(value instanceof Upvalue upvalue ? upvalue.readUncached() : value, pending, visited);
+        }
+    }
+
+    void recordShape(CraterTable.Shape shape) {
+        tableCount++;
+
+        if (shape.isWeak()) {
+            weakTableCount++;
+        }
+        else if (shape.isFrozen()) {
+            frozenTableCount++;
+        }
+
+        totalShapeDepth += shape.getDepth();
+        maxShapeDepth = Math.max(maxShapeDepth, shape.getDepth());
+
+        // The shapes that this one grew from are counted too, since they hold the transitions that led to it.
+        for (var ancestor = shape; ancestor != null; ancestor = ancestor.getBase()) {
+            if (!shapes.add(ancestor)) {
+                break;
+            }
+        }
+    }
+
+    void recordSequenceStorage(Object storage, int length) {
+        if (storage == null) {
+            return;
+        }
+
+        var capacity = getArrayLength(storage);
+        var elementBytes = getArrayIndexScale(storage);
+        sequenceStorageBytes += getArrayBytes(storage, capacity);
+        unusedSequenceStorageBytes += (long) (capacity - Math.max(length, 0)) * elementBytes;
+    }
+
+    void recordMemberStorage(byte[] primitiveStorage, int usedPrimitiveBytes, Object[] objectStorage, int usedObjects) {
+        if (primitiveStorage != null) {
+            memberStorageBytes += getArrayBytes(primitiveStorage, primitiveStorage.length);
+            unusedMemberStorageBytes += Math.max(primitiveStorage.length - usedPrimitiveBytes, 0);
+        }
+
+        if (objectStorage != null) {
+            memberStorageBytes += getArrayBytes(objectStorage, objectStorage.length);
+            unusedMemberStorageBytes += (long) Math.max(objectStorage.length - usedObjects, 0)
+                * Unsafe.ARRAY_OBJECT_INDEX_SCALE;
+        }
+    }
+
+    void recordWeakStorage(int entryCount, int bucketCount) {
+        weakEntryCount += entryCount;
+        weakStorageBytes += align((long) Unsafe.ARRAY_OBJECT_BASE_OFFSET
+            + (long) bucketCount * Unsafe.ARRAY_OBJECT_INDEX_SCALE);
+    }
+
+    void recordSharedStorage() {
+        sharedStorageTableCount++;
+    }
+
+    private static int getArrayLength(Object array) {
+        if (array instanceof boolean[] booleans) {
+            return booleans.length;
+        }
+        else if (array instanceof long[] longs) {
+            return longs.length;
+        }
+        else if (array instanceof double[] doubles) {
+            return doubles.length;
+        }
+        else {
+            return ((Object[]) array).length;
+        }
+    }
+
+    private static int getArrayIndexScale(Object array) {
+        if (array instanceof boolean[]) {
+            return Unsafe.ARRAY_BOOLEAN_INDEX_SCALE;
+        }
+        else if (array instanceof byte[]) {
+            return Unsafe.ARRAY_BYTE_INDEX_SCALE;
+        }
+        else if (array instanceof long[]) {
+            return Unsafe.ARRAY_LONG_INDEX_SCALE;
+        }
+        else if (array instanceof double[]) {
+            return Unsafe.ARRAY_DOUBLE_INDEX_SCALE;
+        }
+        else {
+            return Unsafe.ARRAY_OBJECT_INDEX_SCALE;
+        }
+    }
+
+    private static long getArrayBytes(Object array, int length) {
+        var baseOffset = array instanceof Object[] ? Unsafe.ARRAY_OBJECT_BASE_OFFSET : Unsafe.ARRAY_LONG_BASE_OFFSET;
+        return align(baseOffset + (long) length * getArrayIndexScale(array));
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    public long getTableCount() {
+        return tableCount;
+    }
+
+    public long getStorageBytes() {
+        return sequenceStorageBytes + memberStorageBytes + weakStorageBytes;
+    }
+
+    public long getUnusedStorageBytes() {
+        return unusedSequenceStorageBytes + unusedMemberStorageBytes;
+    }
+
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    // Writes the statistics as a single JSON object. The count of interned shapes is over all shapes of the language,
+    // not only those reachable from the root. Storage shared between clones is counted once per table.
+    @TruffleBoundary
+    public String toJson(CraterLanguage language) {
+        var transitionCount = 0L;
+        var maxTransitionCount = 0;
+
+        for (var shape : shapes) {
+            var count = shape.getTransitionCount();
+            transitionCount += count;
+            maxTransitionCount = Math.max(maxTransitionCount, count);
+        }
+
+        return "{"
+            + "\"tables\":" + tableCount
+            + ",\"weakTables\":" + weakTableCount
+            + ",\"frozenTables\":" + frozenTableCount
+            + ",\"sharedStorageTables\":" + sharedStorageTableCount
+            + ",\"sequenceStorageBytes\":" + sequenceStorageBytes
+            + ",\"unusedSequenceStorageBytes\":" + unusedSequenceStorageBytes
+            + ",\"memberStorageBytes\":" + memberStorageBytes
+            + ",\"unusedMemberStorageBytes\":" + unusedMemberStorageBytes
+            + ",\"weakStorageBytes\":" + weakStorageBytes
+            + ",\"weakEntries\":" + weakEntryCount
+            + ",\"shapes\":" + shapes.size()
+            + ",\"internedShapes\":" + language.getInternedTableShapeCount()
+            + ",\"transitions\":" + transitionCount
+            + ",\"maxTransitions\":" + maxTransitionCount
+            + ",\"maxShapeDepth\":" + maxShapeDepth
+            + ",\"meanShapeDepth\":" + (tableCount == 0 ? 0 : (double) totalShapeDepth / tableCount)
+            + "}";
+    }
+
+    @TruffleBoundary
+    public CraterString toJsonString(CraterLanguage language) {
+        var string = new CraterString();
+        string.setImmediate(toJson(language).getBytes(StandardCharsets.UTF_8));
+        return string;
+    }
+}
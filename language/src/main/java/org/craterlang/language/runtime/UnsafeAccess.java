@@ -9,12 +9,12 @@ import static sun.misc.Unsafe.ARRAY_OBJECT_INDEX_SCALE;
 @SuppressWarnings("unchecked")
 public class UnsafeAccess {
     public static <T> T getUnchecked(T[] array, int index) {
-        assert array != null && index > 0 && index < array.length;
+        assert array != null && index >= 0 && index < array.length;
         return (T) UNSAFE.getObject(array, ARRAY_OBJECT_BASE_OFFSET + (long) index * ARRAY_OBJECT_INDEX_SCALE);
     }
 
     private static void assertInBounds(byte[] array, int offset, int size) {
-        assert array != null && offset > 0 && offset <= array.length - size;
+        assert array != null && offset >= 0 && offset <= array.length - size;
     }
 
     public static boolean getBooleanUnchecked(byte[] array, int offset) {
@@ -87,6 +87,75 @@ public class UnsafeAccess {
         UNSAFE.putDouble(array, ARRAY_BYTE_BASE_OFFSET + offset, value);
     }
 
+    // Off-heap memory, addressed absolutely. Callers are responsible for bounds and for keeping the memory alive.
+
+    public static long allocateZeroedMemory(long size) {
+        assert size >= 0;
+        var address = UNSAFE.allocateMemory(Math.max(size, 1));
+        UNSAFE.setMemory(address, Math.max(size, 1), (byte) 0);
+        return address;
+    }
+
+    public static void freeMemory(long address) {
+        UNSAFE.freeMemory(address);
+    }
+
+    public static void copyMemory(long sourceAddress, long destinationAddress, long size) {
+        UNSAFE.copyMemory(sourceAddress, destinationAddress, size);
+    }
+
+    public static void setMemory(long address, long size, byte value) {
+        UNSAFE.setMemory(address, size, value);
+    }
+
+    public static byte getByteAt(long address) {
+        return UNSAFE.getByte(address);
+    }
+
+    public static short getShortAt(long address) {
+        return UNSAFE.getShort(address);
+    }
+
+    public static int getIntAt(long address) {
+        return UNSAFE.getInt(address);
+    }
+
+    public static long getLongAt(long address) {
+        return UNSAFE.getLong(address);
+    }
+
+    public static float getFloatAt(long address) {
+        return UNSAFE.getFloat(address);
+    }
+
+    public static double getDoubleAt(long address) {
+        return UNSAFE.getDouble(address);
+    }
+
+    public static void setByteAt(long address, byte value) {
+        UNSAFE.putByte(address, value);
+    }
+
+    public static void setShortAt(long address, short value) {
+        UNSAFE.putShort(address, value);
+    }
+
+    public static void setIntAt(long address, int value) {
+        UNSAFE.putInt(address, value);
+    }
+
+    public static void setLongAt(long address, long value) {
+        UNSAFE.putLong(address, value);
+    }
+
+    public static void setFloatAt(long address, float value) {
+        UNSAFE.putFloat(address, value);
+    }
+
+    public static void setDoubleAt(long address, double value) {
+        UNSAFE.putDouble(address, value);
+    }
+
     private static final Unsafe UNSAFE;
 
     static {
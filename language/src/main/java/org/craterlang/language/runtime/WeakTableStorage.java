@@ -0,0 +1,474 @@
+package org.craterlang.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import org.graalvm.collections.EconomicSet;
+import org.graalvm.collections.Equivalence;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import static java.lang.System.identityHashCode;
+import static org.craterlang.language.CraterTypeSystem.isNil;
+
+// Entry storage for tables whose metatable has a __mode. Only tables and functions are collectable; other keys and
+// values are always held strongly. In a weak-keyed table that isn't also weak-valued, the value of a collectable key
+// is held by the key itself (see EphemeronHost), so that a value referring back to its key doesn't keep the entry
+// alive. Entries whose references have been cleared are removed in batches, from the reference queue, by the next
+// operation on the table.
+final class WeakTableStorage {
+    private final boolean weakKeys;
+    private final boolean weakValues;
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private final EphemeronHost.Owner selfReference = new EphemeronHost.Owner(this);
+    private Entry[] buckets = new Entry[INITIAL_CAPACITY];
+    private int size;
+
+    WeakTableStorage(boolean weakKeys, boolean weakValues) {
+        assert weakKeys || weakValues;
+        this.weakKeys = weakKeys;
+        this.weakValues = weakValues;
+    }
+
+    WeakTableStorage(WeakTableStorage original) {
+        this(original.weakKeys, original.weakValues);
+        original.forEach(this::put);
+    }
+
+    @TruffleBoundary
+    Object get(Object key) {
+        expungeStaleEntries();
+
+        var entry = findEntry(key, hash(key));
+
+        if (entry == null) {
+            return CraterNil.getInstance();
+        }
+
+        var value = entry.getValue();
+        return value != null ? value : CraterNil.getInstance();
+    }
+
+    @TruffleBoundary
+    void put(Object key, Object value) {
+        expungeStaleEntries();
+
+        var hash = hash(key);
+        var entry = findEntry(key, hash);
+
+        if (isNil(value)) {
+            if (entry != null) {
+                removeEntry(entry);
+            }
+
+            return;
+        }
+
+        if (entry != null) {
+            entry.clearValue();
+            entry.setValue(value);
+            return;
+        }
+
+        if (size >= buckets.length - (buckets.length >>> 2)) {
+            resize();
+        }
+
+        entry = new Entry(this, hash, key);
+        entry.setValue(value);
+
+        var i = hash & (buckets.length - 1);
+        entry.next = buckets[i];
+        buckets[i] = entry;
+        size++;
+    }
+
+    // A border found by unbounded search, as in the reference implementation's luaH_getn for tables without an array
+    // part.
+    @TruffleBoundary
+    long border() {
+        if (isNil(get(1L))) {
+            return 0;
+        }
+
+        long i = 1;
+        long j = 2;
+
+        while (!isNil(get(j))) {
+            i = j;
+
+            if (j > Long.MAX_VALUE / 2) {
+                for (j = i + 1; !isNil(get(j)); j++) {
+                    i = j;
+                }
+
+                return i;
+            }
+
+            j *= 2;
+        }
+
+        while (j - i > 1) {
+            var m = (i + j) >>> 1;
+
+            if (isNil(get(m))) {
+                j = m;
+            }
+            else {
+                i = m;
+            }
+        }
+
+        return i;
+    }
+
+    @TruffleBoundary
+    void forEach(BiConsumer<Object, Object> action) {
+        expungeStaleEntries();
+
+        for (var bucket : buckets) {
+            for (var entry = bucket; entry != null; entry = entry.next) {
+                var key = entry.getKey();
+                var value = entry.getValue();
+
+                if (key != null && value != null) {
+                    action.accept(key, value);
+                }
+            }
+        }
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getBucketCount() {
+        return buckets.length;
+    }
+
+    @TruffleBoundary
+    void clear() {
+        for (var bucket : buckets) {
+            for (var entry = bucket; entry != null; entry = entry.next) {
+                entry.clearValue();
+            }
+        }
+
+        Arrays.fill(buckets, null);
+        size = 0;
+    }
+
+    private Entry findEntry(Object key, int hash) {
+        for (var entry = buckets[hash & (buckets.length - 1)]; entry != null; entry = entry.next) {
+            if (entry.hash == hash && entry.hasKey(key)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    private void removeEntry(Entry entry) {
+        var i = entry.hash & (buckets.length - 1);
+
+        for (Entry prior = null, current = buckets[i]; current != null; prior = current, current = current.next) {
+            if (current == entry) {
+                if (prior != null) {
+                    prior.next = current.next;
+                }
+                else {
+                    buckets[i] = current.next;
+                }
+
+                entry.clearValue();
+                size--;
+                return;
+            }
+        }
+    }
+
+    private void expungeStaleEntries() {
+        EphemeronHost.purgeCollectedOwners();
+
+        for (Object reference; (reference = queue.poll()) != null;) {
+            var entry = ((EntryReference) reference).getEntry();
+
+            // A value reference is only stale if the entry still holds it, rather than a later value.
+            if (reference instanceof KeyReference || entry.value == reference) {
+                removeEntry(entry);
+            }
+        }
+    }
+
+    private void resize() {
+        var oldBuckets = buckets;
+        buckets = new Entry[oldBuckets.length * 2];
+
+        for (var bucket : oldBuckets) {
+            for (Entry entry = bucket, next; entry != null; entry = next) {
+                next = entry.next;
+
+                if (entry.isStale()) {
+                    entry.clearValue();
+                    size--;
+                    continue;
+                }
+
+                var i = entry.hash & (buckets.length - 1);
+                entry.next = buckets[i];
+                buckets[i] = entry;
+            }
+        }
+    }
+
+    private static boolean isCollectable(Object value) {
+        return value instanceof CraterTable || value instanceof CraterFunction;
+    }
+
+    private static int hash(Object key) {
+        return isCollectable(key) ? identityHashCode(key) : key.hashCode();
+    }
+
+    private static final class Entry {
+        private final WeakTableStorage owner;
+        private final int hash;
+        private final Object key;
+        private Object value;
+        private Entry next;
+
+        private Entry(WeakTableStorage owner, int hash, Object key) {
+            this.owner = owner;
+            this.hash = hash;
+            this.key = owner.weakKeys && isCollectable(key) ? new KeyReference(key, this) : key;
+        }
+
+        boolean hasKey(Object candidate) {
+            if (key instanceof KeyReference reference) {
+                return reference.get() == candidate;
+            }
+            else {
+                return isCollectable(candidate) ? key == candidate : key.equals(candidate);
+            }
+        }
+
+        Object getKey() {
+            return key instanceof KeyReference reference ? reference.get() : key;
+        }
+
+        Object getValue() {
+            if (value == EPHEMERON_VALUE) {
+                var hostKey = ((KeyReference) key).get();
+                return hostKey != null ? EphemeronHost.get(hostKey, owner.selfReference) : null;
+            }
+            else if (value instanceof ValueReference reference) {
+                return reference.get();
+            }
+            else {
+                return value;
+            }
+        }
+
+        void setValue(Object newValue) {
+            if (!isCollectable(newValue)) {
+                value = newValue;
+            }
+            else if (owner.weakValues) {
+                value = new ValueReference(newValue, this);
+            }
+            else if (key instanceof KeyReference reference) {
+                EphemeronHost.put(reference.get(), owner.selfReference, newValue);
+                value = EPHEMERON_VALUE;
+            }
+            else {
+                value = newValue;
+            }
+        }
+
+        void clearValue() {
+            if (value == EPHEMERON_VALUE) {
+                var hostKey = ((KeyReference) key).get();
+
+                if (hostKey != null) {
+                    EphemeronHost.remove(hostKey, owner.selfReference);
+                }
+            }
+
+            value = null;
+        }
+
+        boolean isStale() {
+            return (key instanceof KeyReference keyReference && keyReference.get() == null)
+                || (value instanceof ValueReference valueReference && valueReference.get() == null);
+        }
+    }
+
+    private interface EntryReference {
+        Entry getEntry();
+    }
+
+    private static final class KeyReference extends WeakReference<Object> implements EntryReference {
+        private final Entry entry;
+
+        private KeyReference(Object key, Entry entry) {
+            super(key, entry.owner.queue);
+            this.entry = entry;
+        }
+
+        @Override public Entry getEntry() {
+            return entry;
+        }
+    }
+
+    private static final class ValueReference extends WeakReference<Object> implements EntryReference {
+        private final Entry entry;
+
+        private ValueReference(Object value, Entry entry) {
+            super(value, entry.owner.queue);
+            this.entry = entry;
+        }
+
+        @Override public Entry getEntry() {
+            return entry;
+        }
+    }
+
+    // The values that weak-keyed tables associate with a collectable key, stored on the key as (owner, value) pairs so
+    // that they are reachable only through it. A table has at most one entry per key, so the owner reference of its
+    // storage identifies its pair. Once a storage is collected, its owner reference is enqueued and its pairs are
+    // removed from every key it stored one on, so that keys outliving a cache table don't keep its values alive. The
+    // purge runs on whichever thread polls the queue next, so pairs are only changed under their key's lock.
+    //
+    // Every table and function pays for this with one reference field, whether or not it's ever a weak key.
+    static final class EphemeronHost {
+        private static final ReferenceQueue<WeakTableStorage> COLLECTED_OWNERS = new ReferenceQueue<>();
+
+        private EphemeronHost() {}
+
+        static Object get(Object hostKey, Owner owner) {
+            var ephemerons = getEphemerons(hostKey);
+
+            if (ephemerons != null) {
+                for (var i = 0; i < ephemerons.length; i += 2) {
+                    if (ephemerons[i] == owner) {
+                        return ephemerons[i + 1];
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        static void put(Object hostKey, Owner owner, Object value) {
+            synchronized (hostKey) {
+                var ephemerons = getEphemerons(hostKey);
+                var length = 0;
+
+                if (ephemerons != null) {
+                    for (var i = 0; i < ephemerons.length; i += 2) {
+                        if (ephemerons[i] == owner) {
+                            ephemerons[i + 1] = value;
+                            return;
+                        }
+                    }
+
+                    length = ephemerons.length;
+                }
+
+                var newEphemerons = Arrays.copyOf(ephemerons != null ? ephemerons : new Object[0], length + 2);
+                newEphemerons[length] = owner;
+                newEphemerons[length + 1] = value;
+                setEphemerons(hostKey, newEphemerons);
+            }
+
+            owner.recordHost(hostKey);
+        }
+
+        static void remove(Object hostKey, Owner owner) {
+            synchronized (hostKey) {
+                var ephemerons = getEphemerons(hostKey);
+
+                if (ephemerons == null) {
+                    return;
+                }
+
+                for (var i = 0; i < ephemerons.length; i += 2) {
+                    if (ephemerons[i] == owner) {
+                        var newEphemerons = new Object[ephemerons.length - 2];
+                        System.arraycopy(ephemerons, 0, newEphemerons, 0, i);
+                        System.arraycopy(ephemerons, i + 2, newEphemerons, i, newEphemerons.length - i);
+                        setEphemerons(hostKey, newEphemerons.length != 0 ? newEphemerons : null);
+                        return;
+                    }
+                }
+            }
+        }
+
+        static void purgeCollectedOwners() {
+            for (Object reference; (reference = COLLECTED_OWNERS.poll()) != null;) {
+                ((Owner) reference).purge();
+            }
+        }
+
+        private static Object[] getEphemerons(Object hostKey) {
+            if (hostKey instanceof CraterTable table) {
+                return table.getEphemerons();
+            }
+            else {
+                return ((CraterFunction) hostKey).getEphemerons();
+            }
+        }
+
+        private static void setEphemerons(Object hostKey, Object[] ephemerons) {
+            if (hostKey instanceof CraterTable table) {
+                table.setEphemerons(ephemerons);
+            }
+            else {
+                ((CraterFunction) hostKey).setEphemerons(ephemerons);
+            }
+        }
+
+        // The reference through which a storage owns its pairs. It remembers the keys it has stored pairs on weakly, so
+        // that it keeps neither them nor, through their entries, the storage alive. Keys that have been collected or
+        // recorded twice are dropped whenever the list has doubled since it was last compacted.
+        static final class Owner extends WeakReference<WeakTableStorage> {
+            private final ArrayList<WeakReference<Object>> hosts = new ArrayList<>();
+            private int compactionThreshold = MIN_COMPACTION_THRESHOLD;
+
+            Owner(WeakTableStorage storage) {
+                super(storage, COLLECTED_OWNERS);
+            }
+
+            synchronized void recordHost(Object hostKey) {
+                if (hosts.size() >= compactionThreshold) {
+                    var seen = EconomicSet.create(Equivalence.IDENTITY);
+                    hosts.removeIf(host -> {
+                        var key = host.get();
+                        return key == null || !seen.add(key);
+                    });
+                    compactionThreshold = Math.max(hosts.size() * 2, MIN_COMPACTION_THRESHOLD);
+                }
+
+                hosts.add(new WeakReference<>(hostKey));
+            }
+
+            synchronized void purge() {
+                for (var host : hosts) {
+                    var hostKey = host.get();
+
+                    if (hostKey != null) {
+                        remove(hostKey, this);
+                    }
+                }
+
+                hosts.clear();
+            }
+
+            private static final int MIN_COMPACTION_THRESHOLD = 8;
+        }
+    }
+
+    private static final Object EPHEMERON_VALUE = new Object();
+    private static final int INITIAL_CAPACITY = 8;
+}
@@ -2,79 +2,232 @@ package org.craterlang.language.util;
 
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+// A weak interning set that may be shared between threads. Lookups of already-interned values take no locks;
+// insertions lock only the segment that the candidate hashes into, and re-check it before inserting. Entries whose
+// values have been collected are removed by the next insertion into their segment, which also shrinks the segment once
+// most of its entries are gone.
 @SuppressWarnings("unchecked")
 public final class InternedSet<E> {
-    private Entry<E>[] table;
+    private final Segment<E>[] segments = new Segment[SEGMENT_COUNT];
 
     public InternedSet(int initialCapacity) {
-        table = new Entry[initialCapacity];
+        var segmentCapacity = Integer.highestOneBit(Math.max(initialCapacity / SEGMENT_COUNT, MIN_SEGMENT_CAPACITY));
+
+        for (var i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<>(segmentCapacity);
+        }
     }
 
     @TruffleBoundary
     public E intern(E candidate) {
         var hashCode = redistributeHashCode(candidate.hashCode());
-        var table = this.table;
-        var tableIndex = hashCode & (table.length - 1);
-        var falseCollisionCount = 0;
+        var segment = getSegment(hashCode);
+        var existing = segment.find(candidate, hashCode);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        return segment.insert(candidate, hashCode);
+    }
+
+    // Interns the value equivalent to a range of bytes, creating it only if no such value is interned yet.
+    @TruffleBoundary
+    public E intern(byte[] bytes, int offset, int length, SliceEquivalence<E> equivalence) {
+        var hashCode = redistributeHashCode(equivalence.hashCode(bytes, offset, length));
+        var segment = getSegment(hashCode);
+        var existing = segment.findSlice(bytes, offset, length, hashCode, equivalence);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        return segment.insertSlice(bytes, offset, length, hashCode, equivalence);
+    }
+
+    // The number of values in the set, counting those collected but not removed yet.
+    public int size() {
+        var size = 0;
+
+        for (var segment : segments) {
+            size += segment.count;
+        }
 
-        for (Entry<E> priorEntry = null, entry = table[tableIndex]; entry != null; entry = entry.next) {
-            var value = entry.get();
+        return size;
+    }
+
+    private Segment<E> getSegment(int hashCode) {
+        return segments[hashCode >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    // Relates values to ranges of bytes. hashCode must agree with the hash code of the equivalent value.
+    public interface SliceEquivalence<E> {
+        int hashCode(byte[] bytes, int offset, int length);
+
+        boolean equals(E value, byte[] bytes, int offset, int length);
+
+        E create(byte[] bytes, int offset, int length);
+    }
+
+    private static final class Segment<E> {
+        private volatile AtomicReferenceArray<Entry<E>> table;
+        private volatile int count;
+        private final int minCapacity;
+        private final ReferenceQueue<E> queue = new ReferenceQueue<>();
 
-            if (value == null) {
-                if (priorEntry != null) {
-                    priorEntry.next = entry.next;
+        private Segment(int capacity) {
+            table = new AtomicReferenceArray<>(capacity);
+            minCapacity = capacity;
+        }
+
+        private E find(E candidate, int hashCode) {
+            var table = this.table;
+
+            for (var entry = table.get(hashCode & (table.length() - 1)); entry != null; entry = entry.next) {
+                if (entry.hashCode != hashCode) {
+                    continue;
                 }
-                else {
-                    table[tableIndex] = entry.next;
+
+                var value = entry.get();
+
+                if (value != null && (candidate == value || candidate.equals(value))) {
+                    return value;
                 }
+            }
 
-                continue;
+            return null;
+        }
+
+        private E findSlice(byte[] bytes, int offset, int length, int hashCode, SliceEquivalence<E> equivalence) {
+            var table = this.table;
+
+            for (var entry = table.get(hashCode & (table.length() - 1)); entry != null; entry = entry.next) {
+                if (entry.hashCode != hashCode) {
+                    continue;
+                }
+
+                var value = entry.get();
+
+                if (value != null && equivalence.equals(value, bytes, offset, length)) {
+                    return value;
+                }
             }
 
-            priorEntry = entry;
+            return null;
+        }
+
+        private synchronized E insert(E candidate, int hashCode) {
+            expungeStaleEntries();
+            var existing = find(candidate, hashCode);
 
-            if (entry.hashCode != hashCode) {
-                falseCollisionCount++;
-                continue;
+            if (existing != null) {
+                return existing;
             }
 
-            if (candidate == value || candidate.equals(value)) {
-                return value;
+            add(candidate, hashCode);
+            return candidate;
+        }
+
+        private synchronized E insertSlice(
+            byte[] bytes,
+            int offset,
+            int length,
+            int hashCode,
+            SliceEquivalence<E> equivalence
+        ) {
+            expungeStaleEntries();
+            var existing = findSlice(bytes, offset, length, hashCode, equivalence);
+
+            if (existing != null) {
+                return existing;
             }
+
+            var candidate = equivalence.create(bytes, offset, length);
+            add(candidate, hashCode);
+            return candidate;
         }
 
-        if (falseCollisionCount > MAX_FALSE_COLLISIONS && table.length < MAX_TABLE_SIZE) {
-            table = this.table = growTable(table);
-            tableIndex = hashCode & (table.length - 1);
+        private void add(E value, int hashCode) {
+            var table = this.table;
+
+            if (count >= table.length() && table.length() < MAX_SEGMENT_SIZE) {
+                table = resize(table, table.length() * 2);
+            }
+
+            var tableIndex = hashCode & (table.length() - 1);
+            var newEntry = new Entry<>(value, hashCode, queue);
+            newEntry.next = table.get(tableIndex);
+            table.set(tableIndex, newEntry);
+            count++;
         }
 
-        var newEntry = new Entry<>(candidate, hashCode);
-        newEntry.next = table[tableIndex];
-        table[tableIndex] = newEntry;
+        // Entries are unlinked rather than marked, so that readers already walking past them keep intact chains. An
+        // entry that was already dropped by a resize is simply not found.
+        private void expungeStaleEntries() {
+            Reference<? extends E> reference;
 
-        return candidate;
-    }
+            while ((reference = queue.poll()) != null) {
+                var entry = (Entry<E>) reference;
+                var table = this.table;
+                var tableIndex = entry.hashCode & (table.length() - 1);
 
-    private static <E> Entry<E>[] growTable(Entry<E>[] table) {
-        Entry<E>[] newTable = new Entry[table.length * 2];
+                Entry<E> priorEntry = null;
 
-        for (var entry : table) {
-            for (Entry<E> next; entry != null; entry = next) {
-                next = entry.next;
+                for (var current = table.get(tableIndex); current != null; current = current.next) {
+                    if (current != entry) {
+                        priorEntry = current;
+                        continue;
+                    }
 
-                if (entry.get() == null) {
-                    continue;
+                    if (priorEntry != null) {
+                        priorEntry.next = entry.next;
+                    }
+                    else {
+                        table.set(tableIndex, entry.next);
+                    }
+
+                    count--;
+                    break;
                 }
+            }
+
+            var table = this.table;
 
-                var i = entry.hashCode & (newTable.length - 1);
-                entry.next = newTable[i];
-                newTable[i] = entry;
+            if (table.length() > minCapacity && count < table.length() / SHRINK_RATIO) {
+                resize(table, table.length() / 2);
             }
         }
 
-        return newTable;
+        // Live entries are copied rather than relinked, so that readers still walking the old table see intact chains.
+        private AtomicReferenceArray<Entry<E>> resize(AtomicReferenceArray<Entry<E>> table, int newLength) {
+            var newTable = new AtomicReferenceArray<Entry<E>>(newLength);
+            var newCount = 0;
+
+            for (var i = 0; i < table.length(); i++) {
+                for (var entry = table.get(i); entry != null; entry = entry.next) {
+                    var value = entry.get();
+
+                    if (value == null) {
+                        continue;
+                    }
+
+                    var newEntry = new Entry<>(value, entry.hashCode, queue);
+                    var j = entry.hashCode & (newTable.length() - 1);
+                    newEntry.next = newTable.get(j);
+                    newTable.set(j, newEntry);
+                    newCount++;
+                }
+            }
+
+            this.table = newTable;
+            count = newCount;
+            return newTable;
+        }
     }
 
     // https://github.com/skeeto/hash-prospector/issues/19
@@ -89,14 +242,17 @@ public final class InternedSet<E> {
 
     private static final class Entry<E> extends WeakReference<E> {
         private final int hashCode;
-        private Entry<E> next;
+        private volatile Entry<E> next;
 
-        public Entry(E value, int hashCode) {
-            super(value);
+        public Entry(E value, int hashCode, ReferenceQueue<? super E> queue) {
+            super(value, queue);
             this.hashCode = hashCode;
         }
     }
 
-    private static final int MAX_FALSE_COLLISIONS = 3;
-    private static final int MAX_TABLE_SIZE = 1024 * 1024 * 64;
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int MIN_SEGMENT_CAPACITY = 4;
+    private static final int SHRINK_RATIO = 8;
+    private static final int MAX_SEGMENT_SIZE = 1024 * 1024 * 64 / SEGMENT_COUNT;
 }
@@ -0,0 +1,309 @@
+package org.craterlang.language.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Most cases come from the reference implementation's pattern tests (pm.lua), with the non-ASCII subjects replaced by
+// ASCII ones. Results are written as the Lua functions would return them, joined by commas; position captures are
+// written with a leading '@', and "nil" stands for no match.
+class CraterPatternTest {
+    @Test
+    void findsLiteralsAndEmptyPatterns() {
+        assertEquals("1,0", find("", ""));
+        assertEquals("1,0", find("alo", ""));
+        assertEquals("1,1", find("a\0o a\0o a\0o", "a"));
+        assertEquals("4,5", find("alo123alo", "12"));
+        assertEquals("nil", find("alo123alo", "^12"));
+        assertEquals("7,9", find("hello world", "wor"));
+        assertEquals("8,10", find("aaaaaaaaab", "aab"));
+        assertEquals("2,2", findPlain("a.b", "."));
+        assertEquals("4,3", find("abc", "", 4));
+        assertEquals("nil", find("abc", "b", 3));
+    }
+
+    @Test
+    void matchesQuantifiers() {
+        assertEquals("aaab", match("aaab", ".*b"));
+        assertEquals("aaa", match("aaa", ".*a"));
+        assertEquals("b", match("b", ".*b"));
+        assertEquals("aaab", match("aaab", ".+b"));
+        assertEquals("aaa", match("aaa", ".+a"));
+        assertEquals("nil", match("b", ".+b"));
+        assertEquals("ab", match("aaab", ".?b"));
+        assertEquals("aa", match("aaa", ".?a"));
+        assertEquals("b", match("b", ".?b"));
+        assertEquals("aaa", match("aaab", "a*"));
+        assertEquals("", match("aaa", "b*"));
+        assertEquals("aa", match("aaa", "ab*a"));
+        assertEquals("aba", match("aba", "ab*a"));
+        assertEquals("aaa", match("aaab", "a+"));
+        assertEquals("nil", match("aaa", "b+"));
+        assertEquals("nil", match("aaa", "ab+a"));
+        assertEquals("aba", match("aba", "ab+a"));
+        assertEquals("", match("", "b*"));
+        assertEquals("nil", match("aaa", "bb*"));
+        assertEquals("", match("aaab", "a-"));
+        assertEquals("aaa", match("aaa", "^.-$"));
+        assertEquals("baaabaaabaaab", match("aabaaabaaabaaaba", "b.*b"));
+        assertEquals("baaab", match("aabaaabaaabaaaba", "b.-b"));
+        assertEquals("", match("", "a?"));
+        assertEquals("abl", match("abl", "a?b?l?"));
+        assertEquals("", match("  abl", "a?b?l?"));
+        assertEquals("aa", match("aa", "^aa?a?a"));
+    }
+
+    @Test
+    void matchesClassesAndSets() {
+        assertEquals("alo", match("aloALO", "%l*"));
+        assertEquals("aLo", match("aLo_ALO", "%a*"));
+        assertEquals("xuxu", match("  \n\r*&\n\r   xuxu  \n\n", "%g%g%g+"));
+        assertEquals("isto", match(" \n isto e assim", "%S%S*"));
+        assertEquals("assim", match(" \n isto e assim", "%S*$"));
+        assertEquals("assim", match(" \n isto e assim", "[a-z]*$"));
+        assertEquals("?", match("um caracter ? extra", "[^%sa-z]"));
+        assertEquals("0a", match("0alo alo", "%x*"));
+        assertEquals("alo alo", match("alo alo", "%C+"));
+        assertEquals("A", match("AbC", "%u+"));
+        assertEquals("b", match("AbC", "%U+"));
+        assertEquals("_foo1", match("_foo1 bar", "[%a_][%w_]*"));
+        assertEquals("q", match("zzzq", "[q-r]"));
+    }
+
+    // A ']' right after the opening '[' or '[^' belongs to the set rather than closing it.
+    @Test
+    void matchesClosingBracketsInSets() {
+        assertEquals("x", match("]]]xb", "[^]]"));
+        assertEquals("]]", match("[]]", "[]]+"));
+        assertEquals("a]", match("a]", "[]a]+"));
+        assertEquals("a-", match("a-b", "[a%-]+"));
+        assertEquals("xyz", match("xyz-", "[^%-]+"));
+    }
+
+    @Test
+    void matchesAnchors() {
+        assertEquals("aaa", match("aaa", "^.*$"));
+        assertEquals("a", match("a$a", ".$"));
+        assertEquals("a$", match("a$a", ".%$"));
+        assertEquals("a$a", match("a$a", ".$."));
+        assertEquals("nil", match("a$a", "$$"));
+        assertEquals("nil", match("a$b", "a$"));
+        assertEquals("", match("a$a", "$"));
+        assertEquals("xo", match("alo xo", ".o$"));
+        assertEquals("2,2", find("abc", "^b", 2));
+        assertEquals("baa,1", gsub("aaa", "^a", "b"));
+        assertEquals("r,1", gsub("", "^", "r"));
+        assertEquals("r,1", gsub("", "$", "r"));
+    }
+
+    // string.gmatch matches a leading '^' literally.
+    @Test
+    void matchesCaretLiterallyInGmatch() {
+        assertEquals("^a,^a", gmatch("^a^ab", "^a"));
+        assertEquals("", gmatch("aaa", "^a"));
+    }
+
+    @Test
+    void matchesCaptures() {
+        assertEquals("xyz", match("alo xyzK", "(%w+)K"));
+        assertEquals("", match("254 K", "(%d*)K"));
+        assertEquals("", match("alo ", "(%w*)$"));
+        assertEquals("nil", match("alo ", "(%w+)$"));
+        assertEquals("1,2", find("(alo)", "%(a"));
+        assertEquals("xlo alo,xl,x,alo", match("xlo alo", "^(((.).).* (%w*))$"));
+        assertEquals("0123456789,,@11", match("0123456789", "(.+(.?)())"));
+        assertEquals("@3,@5", match("hello", "()ll()"));
+        assertEquals("a,b,@3", match("ab", "(a)(b)()"));
+        assertEquals("X", match("aXb", "a(.-)b"));
+        assertEquals("", match("ab", "a(.-)b"));
+    }
+
+    @Test
+    void matchesBackReferences() {
+        assertEquals("z", match("xyzzy", "(.)%1"));
+        assertEquals("abc", match("abcabc", "(abc)%1"));
+        assertEquals("3,7,\",x y", find("a=\"x y\" b='z'", "([\"'])(.-)%1"));
+        assertEquals("heLo,1", gsub("hello", "(l)%1", "L"));
+    }
+
+    @Test
+    void matchesBalancedPairs() {
+        assertEquals("2,8", find("f(a(b)c)d", "%b()"));
+        assertEquals("alo \" alo,1", gsub("alo 'oi' alo", "%b''", "\""));
+        assertEquals("(y(z))", match("x(y(z))", "%b()$"));
+        assertEquals("''", match("''abc'", "%b''"));
+    }
+
+    @Test
+    void matchesFrontiers() {
+        assertEquals("xaa xa x xaa x,5", gsub("aaa aa a aaa a", "%f[%w]%a", "x"));
+        assertEquals("x[]] x]x] x[[[,4", gsub("[[]] [][] [[[[", "%f[[].", "x"));
+        assertEquals(".01abc.45de.3,3", gsub("01abc45de3", "%f[%d]", "."));
+        assertEquals("01.bc45 de3.,2", gsub("01abc45 de3x", "%f[%D]%w", "."));
+        assertEquals(".unction,1", gsub("function", "%f[\1-\377]%w", "."));
+        assertEquals("function.,1", gsub("function", "%f[^\1-\377]", "."));
+        assertEquals("1,0", find("a", "%f[a]"));
+        assertEquals("1,0", find("a", "%f[^%z]"));
+        assertEquals("2,1", find("a", "%f[^%l]"));
+        assertEquals("3,2", find("aba", "%f[a%z]"));
+        assertEquals("4,3", find("aba", "%f[%z]"));
+        assertEquals("nil", find("aba", "%f[%l%z]"));
+        assertEquals("nil", find("aba", "%f[^%l%z]"));
+        assertEquals("2,5", find(" alo aalo allo", "%f[%S].-%f[%s].-%f[%S]"));
+        assertEquals("alo ", match(" alo aalo allo", "%f[%S](.-%f[%s].-%f[%S])"));
+        assertEquals("W (W) W,3", gsub("THE (quick) fox", "%f[%a]%a+", "W"));
+    }
+
+    @Test
+    void substitutes() {
+        assertEquals("xlo xlo,2", gsub("ulo ulo", "u", "x"));
+        assertEquals("alo ulo,1", gsub("alo ulo  ", " +$", ""));
+        assertEquals("alo alo,1", gsub("  alo alo  ", "^%s*(.-)%s*$", "%1"));
+        assertEquals("alo alo 123 ,3", gsub("alo  alo  \n 123\n ", "%s+", " "));
+        assertEquals("xyz=abc-abc=xyz,1", gsub("abc=xyz", "(%w*)(%p)(%w+)", "%3%2%1-%0"));
+        assertEquals("aabbcc,3", gsub("abc", "%w", "%1%0"));
+        assertEquals("abcabc,1", gsub("abc", "%w+", "%0%1"));
+        assertEquals("a% b%,2", gsub("a b", "(%w)", "%1%%"));
+        assertEquals("%%c,2", gsub("abc", "%w", "%%", 2));
+        assertEquals("abc,0", gsub("abc", "x", "%2"));
+        assertEquals("invalid", gsub("abc", "b", "%2"));
+    }
+
+    // An empty match right where the previous match ended is skipped, as in Lua 5.4.
+    @Test
+    void handlesEmptyMatches() {
+        assertEquals("-a-b-c-,4", gsub("abc", "", "-"));
+        assertEquals("-a-b-c-d-,5", gsub("a b cd", " *", "-"));
+        assertEquals("-,1", gsub("abc", "%w*", "-"));
+        assertEquals("X X,2", gsub("hello world", "%w*", "X"));
+        assertEquals("xhxexox,4", gsub("hello", "l*", "x"));
+        assertEquals("1a2b3c4,4", gsub("abc", "()", "%1"));
+        assertEquals("@1,@2,@3,@4", gmatch("abc", "()"));
+        assertEquals("a,b,,c", gmatch("a,b,,c", "[^,]*"));
+        assertEquals("k1/v1,k2/v2", gmatch("k1=v1, k2=v2", "(%w+)=(%w+)"));
+    }
+
+    @Test
+    void rejectsMalformedPatterns() {
+        assertNull(compile("[a"));
+        assertNull(compile("[a-"));
+        assertNull(compile("%"));
+        assertNull(compile("(a"));
+        assertNull(compile("%1"));
+        assertNull(compile("(a%2)"));
+        assertNull(compile("%f"));
+        assertNull(compile("%ba"));
+        assertEquals("nil", match("abc", "a)"));
+    }
+
+    @Test
+    void givesUpOnPatternsThatBacktrackTooMuch() {
+        var subject = "a".repeat(300);
+        var matcher = compile("a?".repeat(300) + "b").matcher(string(subject));
+
+        assertFalse(matcher.find(0));
+        assertTrue(matcher.isTooComplex());
+    }
+
+    private static String find(String subject, String pattern) {
+        return find(subject, pattern, 1);
+    }
+
+    private static String find(String subject, String pattern, int init) {
+        return find(compile(pattern), subject, init);
+    }
+
+    private static String findPlain(String subject, String pattern) {
+        return find(CraterPattern.compile(string(pattern), true, true), subject, 1);
+    }
+
+    private static String find(CraterPattern pattern, String subject, int init) {
+        var matcher = pattern.matcher(string(subject));
+
+        if (!matcher.find(init - 1)) {
+            return "nil";
+        }
+
+        var results = new ArrayList<String>();
+        results.add(Integer.toString(matcher.getMatchStart() + 1));
+        results.add(Integer.toString(matcher.getMatchEnd()));
+
+        for (var i = 0; i < matcher.getCaptureCount(); i++) {
+            results.add(getCapture(matcher, i));
+        }
+
+        return String.join(",", results);
+    }
+
+    private static String match(String subject, String pattern) {
+        var matcher = compile(pattern).matcher(string(subject));
+
+        if (!matcher.find(0)) {
+            return "nil";
+        }
+
+        var results = new ArrayList<String>();
+
+        for (var i = 0; i < matcher.getResultCount(); i++) {
+            results.add(getCapture(matcher, i));
+        }
+
+        return String.join(",", results);
+    }
+
+    private static String gsub(String subject, String pattern, String replacement) {
+        return gsub(subject, pattern, replacement, Long.MAX_VALUE);
+    }
+
+    private static String gsub(String subject, String pattern, String replacement, long maxCount) {
+        var matcher = compile(pattern).matcher(string(subject));
+        var count = matcher.substituteAll(string(replacement), maxCount);
+
+        if (count < 0) {
+            return "invalid";
+        }
+
+        return matcher.finishSubstitution() + "," + count;
+    }
+
+    private static String gmatch(String subject, String pattern) {
+        var matcher = CraterPattern.compile(string(pattern), false, false).matcher(string(subject));
+        var matches = new ArrayList<String>();
+
+        while (matcher.findNext()) {
+            var results = new ArrayList<String>();
+
+            for (var i = 0; i < matcher.getResultCount(); i++) {
+                results.add(getCapture(matcher, i));
+            }
+
+            matches.add(String.join("/", results));
+        }
+
+        return String.join(",", matches);
+    }
+
+    private static String getCapture(CraterPattern.Matcher matcher, int index) {
+        if (matcher.isPositionCapture(index)) {
+            return "@" + (matcher.getCaptureStart(index) + 1);
+        }
+
+        var subject = matcher.getSubject().toString();
+        return subject.substring(matcher.getCaptureStart(index), matcher.getCaptureEnd(index));
+    }
+
+    private static CraterPattern compile(String pattern) {
+        return CraterPattern.compile(string(pattern), false, true);
+    }
+
+    private static CraterString string(String javaString) {
+        var bytes = javaString.getBytes(StandardCharsets.ISO_8859_1);
+        return CraterString.fromBytes(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,32 @@
+package org.craterlang.language.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CraterStringParseNumberTest {
+    @Test
+    void parsesLongNegativeInteger() {
+        assertEquals(-123456789L, parse(fromJavaString("-123456789")));
+    }
+
+    // The view must be parsed without reading the bytes of its parent past its end.
+    @Test
+    void parsesLongNegativeIntegerInSubstringView() {
+        var parent = fromJavaString("-12345678901234567,x");
+        var view = CraterString.SubstringNode.getUncached().execute(parent, 0, 18);
+
+        assertEquals(-12345678901234567L, parse(view));
+    }
+
+    private static Object parse(CraterString string) {
+        return CraterString.ParseNumberNode.getUncached().execute(string);
+    }
+
+    private static CraterString fromJavaString(String javaString) {
+        var bytes = javaString.getBytes(StandardCharsets.UTF_8);
+        return CraterString.fromBytes(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,106 @@
+package org.craterlang.language.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The expected forms of doubles were written by C's printf with "%.14g", with ".0" appended to those that look like
+// integers.
+class NumberFormatterTest {
+    @ParameterizedTest
+    @CsvSource({
+        // Zeros and short values
+        "0.0, 0.0",
+        "-0.0, -0.0",
+        "1.0, 1.0",
+        "-1.5, -1.5",
+        "0.1, 0.1",
+        "2.5, 2.5",
+        "2.675, 2.675",
+        // The switch to exponential notation
+        "99999999999999.0, 99999999999999.0",
+        "1e14, 1e+14",
+        "1e15, 1e+15",
+        "-1e15, -1e+15",
+        "1e16, 1e+16",
+        "9007199254740992.0, 9.007199254741e+15",
+        "1e100, 1e+100",
+        "1e-4, 0.0001",
+        "1e-5, 1e-05",
+        "5e-5, 5e-05",
+        // Rounding at the 14th digit, with exact ties going to the even digit
+        "12345678901234.0, 12345678901234.0",
+        "12345678901234.5, 12345678901234.0",
+        "12345678901235.5, 12345678901236.0",
+        "123456789012345.0, 1.2345678901234e+14",
+        "100000000000005.0, 1e+14",
+        "100000000000015.0, 1.0000000000002e+14",
+        "99999999999999.5, 1e+14",
+        "0.33333333333333331, 0.33333333333333",
+        "3.14159265358979, 3.1415926535898",
+        "1.0000000000001, 1.0000000000001",
+        "0.000099999999999999, 9.9999999999999e-05",
+        "0.000099999999999999995, 0.0001",
+        // Products that are within half an ulp of a tie, which only the fused low part can tell apart
+        "1.00000000000005, 1.0",
+        "1.0000000000000500000001, 1.0",
+        // Extremes and subnormals
+        "1.7976931348623157e308, 1.7976931348623e+308",
+        "2.2250738585072014e-308, 2.2250738585072e-308",
+        "2.2250738585072009e-308, 2.2250738585072e-308",
+        "1e-320, 9.9998886718268e-321",
+        "4.9e-324, 4.9406564584125e-324",
+        "-4.9e-324, -4.9406564584125e-324"
+    })
+    void writesDoubles(double value, String expected) {
+        var bytes = new byte[32];
+        var end = NumberFormatter.writeDouble(value, bytes, 3);
+
+        assertEquals(expected, new String(bytes, 3, end - 3, StandardCharsets.US_ASCII));
+        assertEquals(end - 3, NumberFormatter.getDoubleLength(value));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "0, 0",
+        "-1, -1",
+        "99, 99",
+        "100, 100",
+        "-1000000000000000000, -1000000000000000000",
+        "9223372036854775807, 9223372036854775807",
+        "-9223372036854775808, -9223372036854775808"
+    })
+    void writesLongs(long value, String expected) {
+        var bytes = new byte[32];
+        var end = NumberFormatter.writeLong(value, bytes, 3);
+
+        assertEquals(expected, new String(bytes, 3, end - 3, StandardCharsets.US_ASCII));
+        assertEquals(end - 3, NumberFormatter.getLongLength(value));
+        assertTrue(NumberFormatter.isLongText(value, bytes, 3, end - 3));
+    }
+
+    @Test
+    void comparesDoublesByTheirDecimalForms() {
+        assertTrue(NumberFormatter.formatEqually(0.1, Math.nextUp(0.1)));
+        assertTrue(NumberFormatter.formatEqually(1e15, 1e15 + 1));
+        assertTrue(NumberFormatter.formatEqually(123456789012345.0, 123456789012344.0));
+        assertFalse(NumberFormatter.formatEqually(1.0, 1.0000000000001));
+        assertFalse(NumberFormatter.formatEqually(0.0, -0.0));
+        assertFalse(NumberFormatter.formatEqually(1.5, -1.5));
+        assertFalse(NumberFormatter.formatEqually(Double.MIN_VALUE, 2 * Double.MIN_VALUE));
+    }
+
+    @Test
+    void tellsWhetherDecimalFormsReadBackExactly() {
+        assertTrue(NumberFormatter.formatsExactly(0.1));
+        assertTrue(NumberFormatter.formatsExactly(-2.5));
+        assertFalse(NumberFormatter.formatsExactly(1.0 / 3));
+        assertFalse(NumberFormatter.formatsExactly(Math.nextUp(1.0)));
+    }
+}